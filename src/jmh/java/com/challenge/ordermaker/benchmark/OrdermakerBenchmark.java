@@ -0,0 +1,66 @@
+package com.challenge.ordermaker.benchmark;
+
+import com.challenge.ordermaker.api.v1.request.OrderView;
+import com.challenge.ordermaker.api.v1.response.Order;
+import com.challenge.ordermaker.api.v1.response.OrderPage;
+import com.challenge.ordermaker.api.v1.response.Product;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.time.LocalDateTime;
+import java.util.Optional;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/* Throughput of the service entry points behind the REST endpoints, on the dataset of OrdermakerState.
+   Run with -prof gc to get the allocation rate per operation next to the throughput */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 10, time = 2)
+@Fork(3)
+public class OrdermakerBenchmark {
+
+    @Benchmark
+    public Order placeOrder(OrdermakerState state) {
+        Random random = ThreadLocalRandom.current();
+        LocalDateTime orderTime = OrdermakerState.FIRST_ORDER_TIME.plusMinutes(random.nextInt(state.days * 24 * 60));
+        return state.orderService.placeOrder(state.randomOrder(random, orderTime));
+    }
+
+    @Benchmark
+    public Optional<Order> getOrderForId(OrdermakerState state) {
+        return state.orderService.getOderForId(state.randomOrderId());
+    }
+
+    /* One day of orders, about orderCount / days of them */
+    @Benchmark
+    public Set<Order> getAllOrdersBetweenDates(OrdermakerState state) {
+        LocalDateTime start = OrdermakerState.FIRST_ORDER_TIME.plusDays(ThreadLocalRandom.current().nextInt(state.days));
+        return state.orderService.getAllOrdersBetweenDates(start, start.plusDays(1));
+    }
+
+    /* The newest page of one of the 1000 buyers, about orderCount / 1000 orders each */
+    @Benchmark
+    public OrderPage getOrdersOfBuyer(OrdermakerState state) {
+        String buyer = "buyer" + ThreadLocalRandom.current().nextInt(1000) + "@benchmark.com";
+        return state.orderService.getOrdersOfBuyer(buyer, null, 20, OrderView.FULL);
+    }
+
+    @Benchmark
+    public float recalculateOrderAmount(OrdermakerState state) {
+        return state.orderService.recalculateOrderAmount(state.randomOrderId());
+    }
+
+    @Benchmark
+    public Set<Product> getAllActiveProducts(OrdermakerState state) {
+        return state.productService.getAllActiveProducts();
+    }
+}
@@ -0,0 +1,144 @@
+package com.challenge.ordermaker.benchmark;
+
+import com.challenge.ordermaker.OrdermakerApplication;
+import com.challenge.ordermaker.api.v1.request.OrderCreateRequest;
+import com.challenge.ordermaker.api.v1.request.ProductCreateRequest;
+import com.challenge.ordermaker.api.v1.request.ProductUpdateRequest;
+import com.challenge.ordermaker.api.v1.response.OrderPlacementResult;
+import com.challenge.ordermaker.api.v1.response.ProductWriteResult;
+import com.challenge.ordermaker.service.OrderService;
+import com.challenge.ordermaker.service.ProductService;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+
+/* The application without its web layer, on a fresh in memory H2 filled with a catalog of products, each with
+   a history of versions, and orders spread evenly over a number of days.
+   Every fork builds its own dataset, so benchmarks that write do not change what the others measure. */
+@State(Scope.Benchmark)
+public class OrdermakerState {
+
+    static final LocalDateTime FIRST_ORDER_TIME = LocalDateTime.of(2019, 1, 1, 0, 0);
+
+    private static final int BATCH_SIZE = 1000;
+
+    @Param("1000")
+    public int catalogSize;
+
+    @Param("5")
+    public int versionsPerProduct;
+
+    @Param("5")
+    public int linesPerOrder;
+
+    @Param("20000")
+    public int orderCount;
+
+    @Param("30")
+    public int days;
+
+    ConfigurableApplicationContext context;
+
+    OrderService orderService;
+
+    ProductService productService;
+
+    long[] productIds;
+
+    long[] orderIds;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        context = new SpringApplicationBuilder(OrdermakerApplication.class)
+                .web(WebApplicationType.NONE)
+                .properties("spring.datasource.url=jdbc:h2:mem:benchmark;DB_CLOSE_DELAY=-1",
+                        "spring.h2.console.enabled=false",
+                        "logging.level.root=WARN")
+                .run();
+        orderService = context.getBean(OrderService.class);
+        productService = context.getBean(ProductService.class);
+
+        Random random = new Random(42);
+        createProducts(random);
+        placeOrders(random);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        context.close();
+    }
+
+    long randomProductId() {
+        return productIds[ThreadLocalRandom.current().nextInt(productIds.length)];
+    }
+
+    long randomOrderId() {
+        return orderIds[ThreadLocalRandom.current().nextInt(orderIds.length)];
+    }
+
+    OrderCreateRequest randomOrder(Random random, LocalDateTime orderTime) {
+        Set<Long> products = new HashSet<>();
+        while (products.size() < Math.min(linesPerOrder, productIds.length)) {
+            products.add(productIds[random.nextInt(productIds.length)]);
+        }
+        return new OrderCreateRequest("buyer" + random.nextInt(1000) + "@benchmark.com", products, orderTime);
+    }
+
+    private void createProducts(Random random) {
+        productIds = new long[catalogSize];
+        for (int from = 0; from < catalogSize; from += BATCH_SIZE) {
+            List<ProductCreateRequest> creates = new ArrayList<>();
+            for (int i = from; i < Math.min(from + BATCH_SIZE, catalogSize); i++) {
+                creates.add(new ProductCreateRequest("Product_" + i, price(random)));
+            }
+            List<ProductWriteResult> created = productService.writeProducts(creates, Collections.emptyList()).getCreates();
+            for (int i = 0; i < created.size(); i++) {
+                productIds[from + i] = created.get(i).getProduct().getProductId();
+            }
+        }
+
+        for (int version = 2; version <= versionsPerProduct; version++) {
+            for (int from = 0; from < catalogSize; from += BATCH_SIZE) {
+                List<ProductUpdateRequest> updates = new ArrayList<>();
+                for (int i = from; i < Math.min(from + BATCH_SIZE, catalogSize); i++) {
+                    updates.add(new ProductUpdateRequest(productIds[i], "Product_" + i + "_v" + version, price(random)));
+                }
+                productService.writeProducts(Collections.emptyList(), updates);
+            }
+        }
+    }
+
+    private void placeOrders(Random random) {
+        long spacingSeconds = Math.max(1, days * 24L * 3600 / orderCount);
+        orderIds = new long[orderCount];
+        for (int from = 0; from < orderCount; from += BATCH_SIZE) {
+            List<OrderCreateRequest> requests = new ArrayList<>();
+            for (int i = from; i < Math.min(from + BATCH_SIZE, orderCount); i++) {
+                requests.add(randomOrder(random, FIRST_ORDER_TIME.plusSeconds(i * spacingSeconds)));
+            }
+            List<OrderPlacementResult> placed = orderService.placeOrders(requests);
+            for (int i = 0; i < placed.size(); i++) {
+                orderIds[from + i] = placed.get(i).getOrder().getOrderId();
+            }
+        }
+    }
+
+    private static float price(Random random) {
+        return 1 + random.nextInt(10000) / 100f;
+    }
+}
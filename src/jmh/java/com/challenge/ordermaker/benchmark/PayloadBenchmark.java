@@ -0,0 +1,131 @@
+package com.challenge.ordermaker.benchmark;
+
+import com.challenge.ordermaker.api.v1.response.Order;
+import com.challenge.ordermaker.api.v1.response.OrderPage;
+import com.challenge.ordermaker.api.v1.response.Product;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+
+/* Cost and size of the response encodings: a page of orders with their products and the whole catalog, written and
+   read as JSON, Smile and CBOR. Runs without the application, the mappers are built like the ones of BinaryFormats.
+   The size of both payloads in the format is printed when a fork starts */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PayloadBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class Payloads {
+
+        @Param({"json", "smile", "cbor"})
+        public String format;
+
+        @Param("100")
+        public int ordersPerPage;
+
+        @Param("5")
+        public int linesPerOrder;
+
+        @Param("1000")
+        public int catalogSize;
+
+        ObjectMapper mapper;
+
+        OrderPage page;
+
+        Set<Product> catalog;
+
+        byte[] encodedPage;
+
+        byte[] encodedCatalog;
+
+        @Setup(Level.Trial)
+        public void setUp() throws IOException {
+            mapper = mapper(format);
+
+            Random random = new Random(42);
+            catalog = new TreeSet<>(Comparator.comparingLong(Product::getProductId));
+            List<Product> products = new ArrayList<>();
+            for (int i = 0; i < catalogSize; i++) {
+                Product product = new Product(i + 1, "Product_" + i, 1 + random.nextInt(10000) / 100f);
+                products.add(product);
+                catalog.add(product);
+            }
+
+            List<Order> orders = new ArrayList<>();
+            LocalDateTime orderTime = OrdermakerState.FIRST_ORDER_TIME;
+            for (int i = 0; i < ordersPerPage; i++) {
+                Set<Product> lines = new TreeSet<>(Comparator.comparingLong(Product::getProductId));
+                while (lines.size() < linesPerOrder) {
+                    lines.add(products.get(random.nextInt(products.size())));
+                }
+                float orderCost = lines.stream().map(Product::getPrice).reduce(0f, Float::sum);
+                orderTime = orderTime.plusSeconds(random.nextInt(600));
+                orders.add(new Order(i + 1, "buyer" + i + "@mail.com", orderTime, null, lines, orderCost));
+            }
+            page = new OrderPage(orders, "MjAxOS0wMS0wMVQwMDowMHwx");
+
+            encodedPage = mapper.writeValueAsBytes(page);
+            encodedCatalog = mapper.writeValueAsBytes(catalog);
+            System.out.println(format + ": order page " + encodedPage.length + " bytes, catalog " + encodedCatalog.length + " bytes");
+        }
+
+        private static ObjectMapper mapper(String format) {
+            switch (format) {
+                case "json":
+                    return Jackson2ObjectMapperBuilder.json().build();
+                case "smile":
+                    return Jackson2ObjectMapperBuilder.smile().build();
+                case "cbor":
+                    return Jackson2ObjectMapperBuilder.cbor().build();
+                default:
+                    throw new IllegalArgumentException("Unknown format " + format);
+            }
+        }
+    }
+
+    @Benchmark
+    public byte[] writeOrderPage(Payloads payloads) throws IOException {
+        return payloads.mapper.writeValueAsBytes(payloads.page);
+    }
+
+    @Benchmark
+    public JsonNode readOrderPage(Payloads payloads) throws IOException {
+        return payloads.mapper.readTree(payloads.encodedPage);
+    }
+
+    @Benchmark
+    public byte[] writeCatalog(Payloads payloads) throws IOException {
+        return payloads.mapper.writeValueAsBytes(payloads.catalog);
+    }
+
+    @Benchmark
+    public JsonNode readCatalog(Payloads payloads) throws IOException {
+        return payloads.mapper.readTree(payloads.encodedCatalog);
+    }
+}
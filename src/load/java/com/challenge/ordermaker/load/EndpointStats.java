@@ -0,0 +1,49 @@
+package com.challenge.ordermaker.load;
+
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/* Latencies and errors of one endpoint. A latency is measured from the time the request was scheduled to be sent,
+   not from when it was actually sent, so time spent waiting behind slow requests is part of it */
+class EndpointStats {
+
+    private final Histogram latencies = new ConcurrentHistogram(TimeUnit.MINUTES.toNanos(10), 3);
+
+    private final AtomicLong errors = new AtomicLong();
+
+    void record(long latencyNanos, boolean failed) {
+        latencies.recordValue(Math.min(latencyNanos, latencies.getHighestTrackableValue()));
+        if (failed) {
+            errors.incrementAndGet();
+        }
+    }
+
+    Map<String, Object> toReport(double measuredSeconds) {
+        long count = latencies.getTotalCount();
+        Map<String, Object> report = new LinkedHashMap<>();
+        report.put("count", count);
+        report.put("throughputPerSecond", round(count / measuredSeconds));
+        report.put("errors", errors.get());
+        report.put("errorRate", count == 0 ? 0 : round((double) errors.get() / count));
+        report.put("meanMs", millis(latencies.getMean()));
+        report.put("p50Ms", millis(latencies.getValueAtPercentile(50)));
+        report.put("p90Ms", millis(latencies.getValueAtPercentile(90)));
+        report.put("p99Ms", millis(latencies.getValueAtPercentile(99)));
+        report.put("p999Ms", millis(latencies.getValueAtPercentile(99.9)));
+        report.put("maxMs", millis(latencies.getMaxValue()));
+        return report;
+    }
+
+    private static double millis(double nanos) {
+        return round(nanos / 1_000_000d);
+    }
+
+    private static double round(double value) {
+        return Math.round(value * 1000) / 1000d;
+    }
+}
@@ -0,0 +1,303 @@
+package com.challenge.ordermaker.load;
+
+import com.challenge.ordermaker.OrdermakerApplication;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.web.context.WebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.stream.Collectors;
+
+/* Drives the whole application over HTTP with a mix of placements, product updates, range reads, order reads and
+   recalculations, and reports latency percentiles and error rates per endpoint as JSON.
+
+   Requests are scheduled at a fixed arrival rate, independent of how fast the application answers. Every latency is
+   measured from the scheduled send time, so a stall shows up in the percentiles instead of silently lowering the
+   request rate (coordinated omission).
+
+   Settings are key=value arguments, see DEFAULTS. Without url the application is started in this JVM on a random port
+   with its own in memory database. */
+public class LoadHarness {
+
+    private static final Map<String, String> DEFAULTS = new LinkedHashMap<>();
+
+    static {
+        DEFAULTS.put("url", "");
+        DEFAULTS.put("rate", "100");
+        DEFAULTS.put("warmupSeconds", "10");
+        DEFAULTS.put("durationSeconds", "60");
+        DEFAULTS.put("mix", "place:40,update:5,range:15,get:25,recalculate:15");
+        DEFAULTS.put("catalogSize", "200");
+        DEFAULTS.put("hotProducts", "5");
+        DEFAULTS.put("hotShare", "0.5");
+        DEFAULTS.put("linesPerOrder", "3");
+        DEFAULTS.put("seedOrders", "1000");
+        DEFAULTS.put("clients", "64");
+        DEFAULTS.put("out", "target/load-result.json");
+    }
+
+    private final Map<String, String> settings;
+
+    private final ObjectMapper objectMapper = new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT);
+
+    private final Map<String, EndpointStats> stats = new LinkedHashMap<>();
+
+    private final List<Long> productIds = new ArrayList<>();
+
+    private final List<Long> orderIds = Collections.synchronizedList(new ArrayList<>());
+
+    private String baseUrl;
+
+    private LoadHarness(Map<String, String> settings) {
+        this.settings = settings;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> settings = new LinkedHashMap<>(DEFAULTS);
+        for (String arg : args) {
+            String[] keyValue = arg.split("=", 2);
+            if (keyValue.length != 2 || !DEFAULTS.containsKey(keyValue[0])) {
+                throw new IllegalArgumentException("Unknown setting " + arg + ", known settings are " + DEFAULTS.keySet());
+            }
+            settings.put(keyValue[0], keyValue[1]);
+        }
+        new LoadHarness(settings).run();
+        System.exit(0);
+    }
+
+    private void run() throws Exception {
+        ConfigurableApplicationContext context = null;
+        if (settings.get("url").isEmpty()) {
+            context = new SpringApplicationBuilder(OrdermakerApplication.class)
+                    .properties("server.port=0",
+                            "spring.datasource.url=jdbc:h2:mem:load;DB_CLOSE_DELAY=-1",
+                            "logging.level.root=WARN")
+                    .run();
+            baseUrl = "http://localhost:" + ((WebServerApplicationContext) context).getWebServer().getPort();
+        } else {
+            baseUrl = settings.get("url");
+        }
+
+        try {
+            seed();
+            Map<String, Object> report = drive();
+            String json = objectMapper.writeValueAsString(report);
+            System.out.println(json);
+            File out = new File(settings.get("out"));
+            if (out.getParentFile() != null) {
+                out.getParentFile().mkdirs();
+            }
+            objectMapper.writeValue(out, report);
+        } finally {
+            if (context != null) {
+                context.close();
+            }
+        }
+    }
+
+    private void seed() throws IOException {
+        Random random = new Random(42);
+        int catalogSize = intSetting("catalogSize");
+        for (int from = 0; from < catalogSize; from += 1000) {
+            List<Map<String, Object>> creates = new ArrayList<>();
+            for (int i = from; i < Math.min(from + 1000, catalogSize); i++) {
+                Map<String, Object> create = new HashMap<>();
+                create.put("name", "Product_" + i);
+                create.put("price", 1 + random.nextInt(10000) / 100f);
+                creates.add(create);
+            }
+            Map<String, Object> batch = new HashMap<>();
+            batch.put("creates", creates);
+            JsonNode result = objectMapper.readTree(send("POST", "/api/v1/product/batch", objectMapper.writeValueAsBytes(batch)).body);
+            result.get("creates").forEach(created -> productIds.add(created.get("product").get("productId").asLong()));
+        }
+
+        int seedOrders = intSetting("seedOrders");
+        for (int from = 0; from < seedOrders; from += 1000) {
+            List<Map<String, Object>> orders = new ArrayList<>();
+            for (int i = from; i < Math.min(from + 1000, seedOrders); i++) {
+                Map<String, Object> order = new HashMap<>();
+                order.put("buyerEmailId", "seed" + i + "@load.com");
+                order.put("productSet", pickProducts(random));
+                order.put("orderTime", LocalDateTime.now().minusSeconds(random.nextInt(3600)).toString());
+                orders.add(order);
+            }
+            Map<String, Object> batch = new HashMap<>();
+            batch.put("orders", orders);
+            JsonNode result = objectMapper.readTree(send("POST", "/api/v1/order/place/batch", objectMapper.writeValueAsBytes(batch)).body);
+            result.forEach(placed -> orderIds.add(placed.get("order").get("orderId").asLong()));
+        }
+    }
+
+    private Map<String, Object> drive() throws InterruptedException {
+        List<String> operations = new ArrayList<>();
+        for (String entry : settings.get("mix").split(",")) {
+            String[] nameWeight = entry.split(":");
+            stats.put(nameWeight[0], new EndpointStats());
+            operations.addAll(Collections.nCopies(Integer.parseInt(nameWeight[1]), nameWeight[0]));
+        }
+
+        long intervalNanos = TimeUnit.SECONDS.toNanos(1) / intSetting("rate");
+        long start = System.nanoTime();
+        long measureFrom = start + TimeUnit.SECONDS.toNanos(intSetting("warmupSeconds"));
+        long end = measureFrom + TimeUnit.SECONDS.toNanos(intSetting("durationSeconds"));
+
+        /* The scheduling thread never waits for a response. Slow responses queue up requests in the pool,
+           and the time they spend queued counts as latency */
+        ExecutorService clients = Executors.newFixedThreadPool(intSetting("clients"));
+        Random random = new Random(7);
+        for (long i = 0; ; i++) {
+            long scheduled = start + i * intervalNanos;
+            if (scheduled >= end) {
+                break;
+            }
+            long wait = scheduled - System.nanoTime();
+            if (wait > 0) {
+                LockSupport.parkNanos(wait);
+            }
+            String operation = operations.get(random.nextInt(operations.size()));
+            boolean measured = scheduled >= measureFrom;
+            clients.execute(() -> execute(operation, scheduled, measured));
+        }
+        clients.shutdown();
+        clients.awaitTermination(10, TimeUnit.MINUTES);
+
+        double measuredSeconds = intSetting("durationSeconds");
+        Map<String, Object> endpoints = new LinkedHashMap<>();
+        stats.forEach((operation, endpointStats) -> endpoints.put(operation, endpointStats.toReport(measuredSeconds)));
+
+        Map<String, Object> report = new LinkedHashMap<>();
+        report.put("settings", settings);
+        report.put("endpoints", endpoints);
+        return report;
+    }
+
+    private void execute(String operation, long scheduled, boolean measured) {
+        boolean failed;
+        try {
+            failed = call(operation);
+        } catch (IOException | RuntimeException ex) {
+            failed = true;
+        }
+        long latency = System.nanoTime() - scheduled;
+        if (measured) {
+            stats.get(operation).record(latency, failed);
+        }
+    }
+
+    /* Returns true when the request failed */
+    private boolean call(String operation) throws IOException {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        Response response;
+        switch (operation) {
+            case "place":
+                String products = pickProducts(random).stream().map(id -> "productSet=" + id).collect(Collectors.joining("&"));
+                response = send("POST", "/api/v1/order/place?buyerEmailId=load@load.com&orderTime=" + LocalDateTime.now() + "&" + products, null);
+                if (response.status == 200) {
+                    orderIds.add(objectMapper.readTree(response.body).get("orderId").asLong());
+                }
+                break;
+            case "update":
+                /* Updates go to the hot products, the ones placements compete for */
+                long productId = productIds.get(random.nextInt(Math.min(intSetting("hotProducts"), productIds.size())));
+                response = send("PUT", "/api/v1/product/update%7D?productId=" + productId + "&name=Updated_" + productId
+                        + "&price=" + (1 + random.nextInt(10000) / 100f), null);
+                break;
+            case "range":
+                LocalDateTime now = LocalDateTime.now();
+                response = send("GET", "/api/v1/order/retrieve/page?limit=100&startTime=" + now.minusMinutes(10) + "&endTime=" + now, null);
+                break;
+            case "get":
+                response = send("GET", "/api/v1/order/" + randomOrderId(random), null);
+                break;
+            case "recalculate":
+                response = send("GET", "/api/v1/order/price/recalculate/" + randomOrderId(random), null);
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown operation " + operation);
+        }
+        return response.status >= 400;
+    }
+
+    /* linesPerOrder distinct products, hotShare of them from the hot products */
+    private Set<Long> pickProducts(Random random) {
+        int hotProducts = Math.min(intSetting("hotProducts"), productIds.size());
+        double hotShare = Double.parseDouble(settings.get("hotShare"));
+        Set<Long> picked = new HashSet<>();
+        int lines = Math.min(intSetting("linesPerOrder"), productIds.size());
+        while (picked.size() < lines) {
+            int bound = hotProducts > 0 && random.nextDouble() < hotShare ? hotProducts : productIds.size();
+            picked.add(productIds.get(random.nextInt(bound)));
+        }
+        return picked;
+    }
+
+    private long randomOrderId(Random random) {
+        synchronized (orderIds) {
+            return orderIds.get(random.nextInt(orderIds.size()));
+        }
+    }
+
+    private int intSetting(String key) {
+        return Integer.parseInt(settings.get(key));
+    }
+
+    private Response send(String method, String path, byte[] json) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(baseUrl + path).openConnection();
+        connection.setRequestMethod(method);
+        if (json != null) {
+            connection.setDoOutput(true);
+            connection.setRequestProperty("Content-Type", "application/json");
+            try (OutputStream out = connection.getOutputStream()) {
+                out.write(json);
+            }
+        }
+        int status = connection.getResponseCode();
+        /* The body is always read to the end, so that the connection can be reused */
+        InputStream in = status >= 400 ? connection.getErrorStream() : connection.getInputStream();
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        if (in != null) {
+            try (InputStream stream = in) {
+                byte[] buffer = new byte[8192];
+                for (int read; (read = stream.read(buffer)) != -1; ) {
+                    body.write(buffer, 0, read);
+                }
+            }
+        }
+        return new Response(status, body.toByteArray());
+    }
+
+    private static class Response {
+        private final int status;
+        private final byte[] body;
+
+        private Response(int status, byte[] body) {
+            this.status = status;
+            this.body = body;
+        }
+    }
+}
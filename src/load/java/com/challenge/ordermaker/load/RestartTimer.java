@@ -0,0 +1,217 @@
+package com.challenge.ordermaker.load;
+
+import com.challenge.ordermaker.OrdermakerApplication;
+import com.challenge.ordermaker.api.v1.request.OrderCreateRequest;
+import com.challenge.ordermaker.api.v1.request.ProductCreateRequest;
+import com.challenge.ordermaker.api.v1.response.Order;
+import com.challenge.ordermaker.api.v1.response.ProductWriteResult;
+import com.challenge.ordermaker.service.OrderService;
+import com.challenge.ordermaker.service.ProductService;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.io.File;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/* Measures how long the application takes to restart on a big persistent (file backed H2) database, and how fast the
+   first reads are after it.
+
+   The database at path is filled up to the given number of orders first, spread over the given years. Filling is
+   only done once, later runs on the same path start measuring right away. Then the application is started and
+   stopped restarts times. Every start reports the startup time, the heap in use after it, and the latency of a first
+   page of a one day range and of the first order reads. Settings are key=value arguments, see DEFAULTS. */
+public class RestartTimer {
+
+    private static final LocalDateTime FIRST_ORDER_TIME = LocalDateTime.of(2016, 1, 1, 0, 0);
+
+    private static final int BATCH_SIZE = 1000;
+
+    /* The application is restarted after this many orders while filling, so the file is compacted on the way */
+    private static final int FILL_SEGMENT = 200000;
+
+    private static final Map<String, String> DEFAULTS = new LinkedHashMap<>();
+
+    static {
+        DEFAULTS.put("path", "target/restart/ordermaker");
+        DEFAULTS.put("orders", "4000000");
+        DEFAULTS.put("years", "3");
+        DEFAULTS.put("catalogSize", "1000");
+        DEFAULTS.put("linesPerOrder", "5");
+        DEFAULTS.put("restarts", "3");
+        /* Empty means the value of application-persistent.properties */
+        DEFAULTS.put("cacheSizeKb", "");
+        DEFAULTS.put("pageSplitSize", "");
+        DEFAULTS.put("writeDelayMs", "");
+        DEFAULTS.put("compactOnShutdown", "");
+        DEFAULTS.put("maxCompactTimeMs", "");
+        DEFAULTS.put("out", "target/restart-result.json");
+    }
+
+    private final Map<String, String> settings;
+
+    private final ObjectMapper objectMapper = new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT);
+
+    private RestartTimer(Map<String, String> settings) {
+        this.settings = settings;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> settings = new LinkedHashMap<>(DEFAULTS);
+        for (String arg : args) {
+            String[] keyValue = arg.split("=", 2);
+            if (keyValue.length != 2 || !DEFAULTS.containsKey(keyValue[0])) {
+                throw new IllegalArgumentException("Unknown setting " + arg + ", known settings are " + DEFAULTS.keySet());
+            }
+            settings.put(keyValue[0], keyValue[1]);
+        }
+        new RestartTimer(settings).run();
+        System.exit(0);
+    }
+
+    private void run() throws Exception {
+        Map<String, Object> fill = fill();
+
+        List<Map<String, Object>> restarts = new ArrayList<>();
+        for (int i = 0; i < intSetting("restarts"); i++) {
+            restarts.add(restart());
+        }
+
+        Map<String, Object> report = new LinkedHashMap<>();
+        report.put("settings", settings);
+        report.put("databaseBytes", new File(settings.get("path") + ".mv.db").length());
+        report.put("fill", fill);
+        report.put("restarts", restarts);
+        String json = objectMapper.writeValueAsString(report);
+        System.out.println(json);
+        File out = new File(settings.get("out"));
+        if (out.getParentFile() != null) {
+            out.getParentFile().mkdirs();
+        }
+        objectMapper.writeValue(out, report);
+    }
+
+    private Map<String, Object> fill() {
+        long start = System.nanoTime();
+        int orders = intSetting("orders");
+        int placed = 0;
+        boolean full = false;
+        while (!full) {
+            try (ConfigurableApplicationContext context = start()) {
+                JdbcTemplate jdbcTemplate = context.getBean(JdbcTemplate.class);
+                OrderService orderService = context.getBean(OrderService.class);
+                List<Long> productIds = productIds(context);
+
+                int existing = jdbcTemplate.queryForObject("SELECT COUNT(*) FROM ORDERS", Integer.class);
+                int until = Math.min(orders, existing + FILL_SEGMENT);
+                long spacingSeconds = Math.max(1, intSetting("years") * 365L * 24 * 3600 / orders);
+                Random random = new Random(existing);
+                for (int from = existing; from < until; from += BATCH_SIZE) {
+                    List<OrderCreateRequest> requests = new ArrayList<>(BATCH_SIZE);
+                    for (int i = from; i < Math.min(from + BATCH_SIZE, until); i++) {
+                        Set<Long> products = new HashSet<>();
+                        while (products.size() < Math.min(intSetting("linesPerOrder"), productIds.size())) {
+                            products.add(productIds.get(random.nextInt(productIds.size())));
+                        }
+                        requests.add(new OrderCreateRequest("buyer" + random.nextInt(100000) + "@restart.com", products,
+                                FIRST_ORDER_TIME.plusSeconds(i * spacingSeconds)));
+                    }
+                    placed += orderService.placeOrders(requests).size();
+                }
+                full = until >= orders;
+            }
+        }
+        Map<String, Object> fill = new LinkedHashMap<>();
+        fill.put("ordersPlaced", placed);
+        fill.put("seconds", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) / 1000.0);
+        return fill;
+    }
+
+    private List<Long> productIds(ConfigurableApplicationContext context) {
+        ProductService productService = context.getBean(ProductService.class);
+        List<Long> productIds = new ArrayList<>();
+        productService.getAllActiveProducts().forEach(product -> productIds.add(product.getProductId()));
+        if (productIds.isEmpty()) {
+            Random random = new Random(42);
+            List<ProductCreateRequest> creates = new ArrayList<>();
+            for (int i = 0; i < intSetting("catalogSize"); i++) {
+                creates.add(new ProductCreateRequest("Product_" + i, 1 + random.nextInt(10000) / 100f));
+            }
+            for (ProductWriteResult created : productService.writeProducts(creates, Collections.emptyList()).getCreates()) {
+                productIds.add(created.getProduct().getProductId());
+            }
+        }
+        return productIds;
+    }
+
+    private Map<String, Object> restart() {
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("databaseBytes", new File(settings.get("path") + ".mv.db").length());
+        long start = System.nanoTime();
+        long stop;
+        try (ConfigurableApplicationContext context = start()) {
+            result.put("startupMs", millisSince(start));
+            System.gc();
+            result.put("heapUsedMb", (Runtime.getRuntime().totalMemory() - Runtime.getRuntime().freeMemory()) / (1024 * 1024));
+
+            /* A day nobody read since the start, somewhere in the middle of the data */
+            OrderService orderService = context.getBean(OrderService.class);
+            LocalDateTime day = FIRST_ORDER_TIME.plusDays(new Random().nextInt(intSetting("years") * 365));
+            long pageStart = System.nanoTime();
+            List<Order> page = orderService.getOrdersBetweenDates(day, day.plusDays(1), null, 100).getOrders();
+            result.put("firstPageMs", millisSince(pageStart));
+
+            long getStart = System.nanoTime();
+            page.forEach(order -> orderService.getOderForId(order.getOrderId()));
+            result.put("firstOrderReads", page.size());
+            result.put("firstOrderReadsMs", millisSince(getStart));
+            stop = System.nanoTime();
+        }
+        /* Closing includes the compaction of the file */
+        result.put("stopMs", millisSince(stop));
+        return result;
+    }
+
+    private ConfigurableApplicationContext start() {
+        /* Arguments, not default properties, those would lose against application-persistent.properties */
+        List<String> args = new ArrayList<>();
+        args.add("--server.port=0");
+        args.add("--ordermaker.h2.path=" + new File(settings.get("path")).getAbsolutePath());
+        args.add("--logging.level.root=WARN");
+        /* Filling writes batches of thousands of rows, every one of them is a slow statement */
+        args.add("--logging.level.com.challenge.ordermaker.metrics.SqlProfiler=ERROR");
+        addIfSet(args, "cacheSizeKb", "ordermaker.h2.cache-size-kb");
+        addIfSet(args, "pageSplitSize", "ordermaker.h2.page-split-size");
+        addIfSet(args, "writeDelayMs", "ordermaker.h2.write-delay-ms");
+        addIfSet(args, "compactOnShutdown", "ordermaker.h2.compact-on-shutdown");
+        addIfSet(args, "maxCompactTimeMs", "ordermaker.h2.max-compact-time-ms");
+        return new SpringApplicationBuilder(OrdermakerApplication.class)
+                .profiles("persistent")
+                .run(args.toArray(new String[0]));
+    }
+
+    private void addIfSet(List<String> args, String setting, String property) {
+        if (!settings.get(setting).isEmpty()) {
+            args.add("--" + property + "=" + settings.get(setting));
+        }
+    }
+
+    private static double millisSince(long start) {
+        return (System.nanoTime() - start) / 1e6;
+    }
+
+    private int intSetting(String key) {
+        return Integer.parseInt(settings.get(key));
+    }
+}
@@ -0,0 +1,73 @@
+package com.challenge.ordermaker.api.v1;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.cbor.MappingJackson2CborHttpMessageConverter;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.http.converter.smile.MappingJackson2SmileHttpMessageConverter;
+
+import java.util.Arrays;
+import java.util.List;
+
+/* Compact binary encodings of every response, for service to service calls. Clients ask for them with the Accept header,
+   JSON stays the default. Smile writes floats as binary and refers back to field names it already wrote, CBOR writes
+   floats as binary. Both are Jackson formats, so the response types are written with the same annotations and date
+   handling as JSON, without a schema to maintain.
+
+   The converters replace the ones Spring registers by default for these formats, so they come after JSON, and are
+   configured like the JSON ObjectMapper of the application */
+@Configuration
+public class BinaryFormats {
+
+    public static final String SMILE = "application/x-jackson-smile";
+
+    public static final String CBOR = "application/cbor";
+
+    public static final MediaType SMILE_TYPE = MediaType.parseMediaType(SMILE);
+
+    public static final MediaType CBOR_TYPE = MediaType.parseMediaType(CBOR);
+
+    private static final List<MediaType> FORMAT_TYPES = Arrays.asList(MediaType.APPLICATION_JSON, SMILE_TYPE, CBOR_TYPE);
+
+    private static final List<String> FORMAT_NAMES = Arrays.asList("json", "smile", "cbor");
+
+    @Bean
+    public MappingJackson2SmileHttpMessageConverter smileHttpMessageConverter(Jackson2ObjectMapperBuilder builder) {
+        return new MappingJackson2SmileHttpMessageConverter(mapper(builder, new SmileFactory()));
+    }
+
+    @Bean
+    public MappingJackson2CborHttpMessageConverter cborHttpMessageConverter(Jackson2ObjectMapperBuilder builder) {
+        return new MappingJackson2CborHttpMessageConverter(mapper(builder, new CBORFactory()));
+    }
+
+    /* json, smile or cbor, the format the converters write for the Accept header. JSON comes first, as with the converters,
+       and is also the answer without a header */
+    public static String formatOf(String accept) {
+        if (accept == null || accept.isEmpty()) {
+            return "json";
+        }
+        List<MediaType> acceptedTypes = MediaType.parseMediaTypes(accept);
+        MediaType.sortBySpecificityAndQuality(acceptedTypes);
+        for (MediaType acceptedType : acceptedTypes) {
+            for (int i = 0; i < FORMAT_TYPES.size(); i++) {
+                if (acceptedType.includes(FORMAT_TYPES.get(i))) {
+                    return FORMAT_NAMES.get(i);
+                }
+            }
+        }
+        return "json";
+    }
+
+    /* The builder is shared with the JSON ObjectMapper, it is only applied here, never changed */
+    private static ObjectMapper mapper(Jackson2ObjectMapperBuilder builder, JsonFactory factory) {
+        ObjectMapper mapper = new ObjectMapper(factory);
+        builder.configure(mapper);
+        return mapper;
+    }
+}
@@ -0,0 +1,74 @@
+package com.challenge.ordermaker.api.v1;
+
+import com.challenge.ordermaker.api.v1.request.OrderView;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Optional;
+import java.util.function.Predicate;
+
+/* Strong ETags of product and order responses, built from what the service already knows instead of hashing the body.
+   Every tag names the format of the body (see BinaryFormats.formatOf), and for orders the view, because a strong tag
+   must differ between representations.
+
+   catalog.<format>.<catalog revision>
+   product.<productId>.<format>.v<version>.<catalog revision>
+   order.<orderId>.<view>.<format>.<boot id>-<archive revision> */
+final class EntityTags {
+
+    private EntityTags() {
+    }
+
+    static String catalog(String accept, String catalogRevision) {
+        return quote("catalog." + BinaryFormats.formatOf(accept) + "." + catalogRevision);
+    }
+
+    static String product(long productId, int version, String accept, String catalogRevision) {
+        return quote(productPrefix(productId, accept) + version + "." + catalogRevision);
+    }
+
+    static String order(long orderId, OrderView view, String accept, String bootId, long archiveRevision) {
+        return quote("order." + orderId + "." + view.name().toLowerCase(Locale.ROOT) + "." + BinaryFormats.formatOf(accept)
+                + "." + bootId + "-" + archiveRevision);
+    }
+
+    /* A product tag the client holds for this product and format, taken while the catalog was at catalogRevision.
+       Nothing changed since, whatever version the tag names is still the current one */
+    static Optional<String> productAtRevision(String ifNoneMatch, long productId, String accept, String catalogRevision) {
+        String prefix = productPrefix(productId, accept);
+        return find(ifNoneMatch, tag -> tag.startsWith(prefix) && tag.endsWith("." + catalogRevision));
+    }
+
+    /* A product tag the client holds for this version of the product, taken at any catalog revision of this boot */
+    static Optional<String> productAtVersion(String ifNoneMatch, long productId, int version, String accept, String bootId) {
+        String prefix = productPrefix(productId, accept) + version + "." + bootId + "-";
+        return find(ifNoneMatch, tag -> tag.startsWith(prefix));
+    }
+
+    static boolean matches(String ifNoneMatch, String etag) {
+        return find(ifNoneMatch, etag.substring(1, etag.length() - 1)::equals).isPresent();
+    }
+
+    private static String productPrefix(long productId, String accept) {
+        return "product." + productId + "." + BinaryFormats.formatOf(accept) + ".v";
+    }
+
+    /* If-None-Match is a comma separated list of tags. It is compared weakly, so W/ in front of a tag is ignored */
+    private static Optional<String> find(String ifNoneMatch, Predicate<String> predicate) {
+        if (ifNoneMatch == null || ifNoneMatch.isEmpty()) {
+            return Optional.empty();
+        }
+        return Arrays.stream(ifNoneMatch.split(","))
+                .map(String::trim)
+                .map(tag -> tag.startsWith("W/") ? tag.substring(2) : tag)
+                .filter(tag -> tag.length() >= 2 && tag.startsWith("\"") && tag.endsWith("\""))
+                .map(tag -> tag.substring(1, tag.length() - 1))
+                .filter(predicate)
+                .findFirst()
+                .map(EntityTags::quote);
+    }
+
+    private static String quote(String tag) {
+        return "\"" + tag + "\"";
+    }
+}
@@ -1,55 +1,176 @@
 package com.challenge.ordermaker.api.v1;
 
+import com.challenge.ordermaker.api.v1.request.BuyerOrdersPageRequest;
+import com.challenge.ordermaker.api.v1.request.OrderBatchCreateRequest;
 import com.challenge.ordermaker.api.v1.request.OrderCreateRequest;
+import com.challenge.ordermaker.api.v1.request.OrderView;
+import com.challenge.ordermaker.api.v1.request.OrdersInRangePageRequest;
 import com.challenge.ordermaker.api.v1.request.OrdersInRangeRequest;
+import com.challenge.ordermaker.api.v1.request.ProductOrdersPageRequest;
 import com.challenge.ordermaker.api.v1.response.Order;
+import com.challenge.ordermaker.api.v1.response.OrderIdPage;
+import com.challenge.ordermaker.api.v1.response.OrderPage;
+import com.challenge.ordermaker.api.v1.response.OrderPlacementResult;
+import com.challenge.ordermaker.api.v1.response.RepricingProgress;
+import com.challenge.ordermaker.service.CatalogRevision;
+import com.challenge.ordermaker.service.OrderRepricer;
 import com.challenge.ordermaker.service.OrderService;
-import com.challenge.ordermaker.service.ProductService;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.http.converter.cbor.MappingJackson2CborHttpMessageConverter;
+import org.springframework.http.converter.smile.MappingJackson2SmileHttpMessageConverter;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.ResponseBody;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import javax.validation.Valid;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Set;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
 
 @RequiredArgsConstructor
 @RestController
 @RequestMapping("/api/v1/order")
 public class OrderController {
 
+    private static final String NDJSON = "application/x-ndjson";
+
+    private static final MediaType NDJSON_TYPE = MediaType.parseMediaType(NDJSON);
+
+    /* In order of preference when the Accept header allows more than one */
+    private static final List<MediaType> STREAM_TYPES = Arrays.asList(NDJSON_TYPE, BinaryFormats.SMILE_TYPE, BinaryFormats.CBOR_TYPE);
+
+    private static final String REPRICING_JOB_HEADER = "X-Repricing-Job";
+
+    private static final String UNKNOWN_PRODUCTS_HEADER = "X-Unknown-Product-Ids";
+
     private final OrderService orderService;
 
-    private final ProductService productService;
+    private final OrderRepricer orderRepricer;
+
+    private final CatalogRevision catalogRevision;
+
+    private final ObjectMapper objectMapper;
+
+    private final MappingJackson2SmileHttpMessageConverter smileHttpMessageConverter;
+
+    private final MappingJackson2CborHttpMessageConverter cborHttpMessageConverter;
+
+    @Value("${ordermaker.order.page.default-size:100}")
+    private int defaultPageSize;
 
     @PostMapping("/place")
     @ResponseBody
-    public ResponseEntity<Order> place(@Valid OrderCreateRequest orderCreateRequest) {
+    public ResponseEntity<?> place(@Valid OrderCreateRequest orderCreateRequest) {
 
-        /* Check if all products are valid. We use Foreign Key constraint, so the update will fail anyway even without this validation,
-        but cleaner to do validation here  */
-        boolean productNotFound = CheckIfAllProductsValid(orderCreateRequest.getProductSet());
-        if (productNotFound) {
+        if (orderCreateRequest.getProductSet() == null || orderCreateRequest.getProductSet().isEmpty()) {
             return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(null);
         }
 
-        return ResponseEntity.ok(orderService.placeOrder(orderCreateRequest));
+        /* Check if all products are valid. We use Foreign Key constraint, so the update will fail anyway even without this validation,
+        but cleaner to do validation here. All products are checked with one lookup. The body lists the unknown ones,
+        the same result as an order of /place/batch gets, and so does a header */
+        OrderPlacementResult result = orderService.tryPlaceOrder(orderCreateRequest);
+        if (!result.isPlaced()) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST)
+                    .header(UNKNOWN_PRODUCTS_HEADER, result.getUnknownProductIds().stream().map(String::valueOf).collect(Collectors.joining(",")))
+                    .body(result);
+        }
+
+        return ResponseEntity.ok(result.getOrder());
+    }
+
+    /* Places many orders in a few transactions. One result per order, in request order */
+    @PostMapping("/place/batch")
+    public ResponseEntity<List<OrderPlacementResult>> placeBatch(@Valid @RequestBody OrderBatchCreateRequest orderBatchCreateRequest) {
+        return ResponseEntity.ok(orderService.placeOrders(orderBatchCreateRequest.getOrders()));
     }
 
+    /* The read endpoints take view=ids|summary|full (default full), see OrderView. Smaller views do not read the products */
     @GetMapping("/retrieve")
-    public ResponseEntity<Set<Order>> getAll(@Valid OrdersInRangeRequest ordersInRangeRequest) {
-        return ResponseEntity.ok(orderService.getAllOrdersBetweenDates(ordersInRangeRequest.getStartTime(), ordersInRangeRequest.getEndTime()));
+    public ResponseEntity<Set<Order>> getAll(@Valid OrdersInRangeRequest ordersInRangeRequest,
+                                             @RequestParam(defaultValue = "full") OrderView view) {
+        return ResponseEntity.ok(orderService.getAllOrdersBetweenDates(ordersInRangeRequest.getStartTime(), ordersInRangeRequest.getEndTime(), view));
     }
 
+    @GetMapping("/retrieve/page")
+    public ResponseEntity<OrderPage> getPage(@Valid OrdersInRangePageRequest ordersInRangePageRequest,
+                                             @RequestParam(defaultValue = "full") OrderView view) {
+        int limit = ordersInRangePageRequest.getLimit() == null ? defaultPageSize : ordersInRangePageRequest.getLimit();
+        return ResponseEntity.ok(orderService.getOrdersBetweenDates(ordersInRangePageRequest.getStartTime(),
+                ordersInRangePageRequest.getEndTime(), ordersInRangePageRequest.getCursor(), limit, view));
+    }
+
+    /* The orders of one buyer, newest first, a page at a time. Takes a few index reads however many orders there are */
+    @GetMapping("/buyer")
+    public ResponseEntity<OrderPage> getForBuyer(@Valid BuyerOrdersPageRequest buyerOrdersPageRequest,
+                                                 @RequestParam(defaultValue = "full") OrderView view) {
+        int limit = buyerOrdersPageRequest.getLimit() == null ? defaultPageSize : buyerOrdersPageRequest.getLimit();
+        return ResponseEntity.ok(orderService.getOrdersOfBuyer(buyerOrdersPageRequest.getBuyerEmailId(),
+                buyerOrdersPageRequest.getCursor(), limit, view));
+    }
+
+    /* Ids of the orders holding a product, optionally at one version and within a time range, in orderId order.
+       A range scan of ORDERS_PRODUCTS, no order is read. nextCursor is the last id of the page */
+    @GetMapping("/by-product")
+    public ResponseEntity<OrderIdPage> getIdsForProduct(@Valid ProductOrdersPageRequest productOrdersPageRequest) {
+        int limit = productOrdersPageRequest.getLimit() == null ? defaultPageSize : productOrdersPageRequest.getLimit();
+        return ResponseEntity.ok(orderService.getOrderIdsWithProduct(productOrdersPageRequest.getProductId(),
+                productOrdersPageRequest.getVersion(), productOrdersPageRequest.getStartTime(),
+                productOrdersPageRequest.getEndTime(), productOrdersPageRequest.getCursor(), limit));
+    }
+
+    /* Same page as /by-product, with the orders in the requested view */
+    @GetMapping("/by-product/orders")
+    public ResponseEntity<OrderPage> getForProduct(@Valid ProductOrdersPageRequest productOrdersPageRequest,
+                                                   @RequestParam(defaultValue = "full") OrderView view) {
+        int limit = productOrdersPageRequest.getLimit() == null ? defaultPageSize : productOrdersPageRequest.getLimit();
+        return ResponseEntity.ok(orderService.getOrdersWithProduct(productOrdersPageRequest.getProductId(),
+                productOrdersPageRequest.getVersion(), productOrdersPageRequest.getStartTime(),
+                productOrdersPageRequest.getEndTime(), productOrdersPageRequest.getCursor(), limit, view));
+    }
+
+    /* Newline delimited JSON, one order per line, written while the orders are read from the database. The query runs
+       lazily, so neither the database nor the application holds the whole range. Smile or CBOR when accepted, see sequence */
+    @GetMapping(value = "/retrieve/stream", produces = {NDJSON, BinaryFormats.SMILE, BinaryFormats.CBOR})
+    public ResponseEntity<StreamingResponseBody> stream(@Valid OrdersInRangeRequest ordersInRangeRequest,
+                                                        @RequestParam(defaultValue = "full") OrderView view,
+                                                        @RequestHeader(value = HttpHeaders.ACCEPT, required = false) String accept) {
+        MediaType type = streamType(accept);
+        StreamingResponseBody body = sequence(type, line ->
+                orderService.streamOrdersBetweenDates(ordersInRangeRequest.getStartTime(), ordersInRangeRequest.getEndTime(), view, line::accept));
+        return ResponseEntity.ok().contentType(type).body(body);
+    }
+
+    /* A placed order never changes, so the tag only has to name the order, the view and the format. Until the next purge
+       a client holding the tag gets a 304 without the order being read */
     @GetMapping("/{orderId}")
-    public ResponseEntity<Order> get(@PathVariable Long orderId) {
-        return orderService.getOderForId(orderId)
-                .map(ResponseEntity::ok)
+    public ResponseEntity<Order> get(@PathVariable Long orderId, @RequestParam(defaultValue = "full") OrderView view,
+                                     @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch,
+                                     @RequestHeader(value = HttpHeaders.ACCEPT, required = false) String accept) {
+        String etag = EntityTags.order(orderId, view, accept, catalogRevision.getBootId(), orderService.getArchiveRevision());
+        if (EntityTags.matches(ifNoneMatch, etag)) {
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED).varyBy(HttpHeaders.ACCEPT).eTag(etag).build();
+        }
+        return orderService.getOderForId(orderId, view)
+                .map(order -> ResponseEntity.ok().varyBy(HttpHeaders.ACCEPT).eTag(etag).body(order))
                 .orElseGet(() -> ResponseEntity.notFound().build());
 
     }
@@ -60,11 +181,70 @@ public class OrderController {
 
     }
 
-    private boolean CheckIfAllProductsValid(Set<Long> productIds) {
-        if (productIds == null || productIds.isEmpty()) {
-            return true;
+    /* Reprices every order in the range against the current product prices. Newline delimited JSON, one line per order
+       with its original cost, current cost and the difference. The job id in the X-Repricing-Job header gives the progress */
+    @GetMapping(value = "/price/recalculate", produces = {NDJSON, BinaryFormats.SMILE, BinaryFormats.CBOR})
+    public ResponseEntity<StreamingResponseBody> recalculateAll(@Valid OrdersInRangeRequest ordersInRangeRequest,
+                                                                @RequestHeader(value = HttpHeaders.ACCEPT, required = false) String accept) {
+        MediaType type = streamType(accept);
+        String jobId = orderRepricer.createJob(ordersInRangeRequest.getStartTime(), ordersInRangeRequest.getEndTime());
+        StreamingResponseBody body = sequence(type, line -> orderRepricer.reprice(jobId, line::accept));
+        return ResponseEntity.ok().header(REPRICING_JOB_HEADER, jobId).contentType(type).body(body);
+    }
+
+    @GetMapping("/price/recalculate/jobs/{jobId}")
+    public ResponseEntity<RepricingProgress> recalculateProgress(@PathVariable String jobId) {
+        return orderRepricer.getProgress(jobId)
+                .map(ResponseEntity::ok)
+                .orElseGet(() -> ResponseEntity.notFound().build());
+    }
+
+    /* The most preferred stream type the client accepts, newline delimited JSON without an Accept header */
+    private static MediaType streamType(String accept) {
+        if (accept == null || accept.isEmpty()) {
+            return NDJSON_TYPE;
         }
-        return productIds.stream().map(productService::getLatestVersionNumber).anyMatch(count -> count == 0);
+        List<MediaType> acceptedTypes = MediaType.parseMediaTypes(accept);
+        MediaType.sortBySpecificityAndQuality(acceptedTypes);
+        for (MediaType acceptedType : acceptedTypes) {
+            for (MediaType streamType : STREAM_TYPES) {
+                if (acceptedType.includes(streamType)) {
+                    return streamType;
+                }
+            }
+        }
+        return NDJSON_TYPE;
     }
-}
 
+    /* One root value per item, written with the ObjectMapper of the type. JSON values end with a newline.
+       Smile and CBOR values need no separator, their readers read one root value after the other */
+    private StreamingResponseBody sequence(MediaType type, Consumer<Consumer<Object>> producer) {
+        ObjectMapper mapper = type.equals(BinaryFormats.SMILE_TYPE) ? smileHttpMessageConverter.getObjectMapper()
+                : type.equals(BinaryFormats.CBOR_TYPE) ? cborHttpMessageConverter.getObjectMapper()
+                : objectMapper;
+        boolean newlines = type.equals(NDJSON_TYPE);
+        return outputStream -> {
+            JsonGenerator generator = mapper.getFactory().createGenerator(outputStream);
+            if (newlines) {
+                generator.setRootValueSeparator(null);
+            }
+            try {
+                producer.accept(value -> writeValue(generator, value, newlines));
+            } catch (UncheckedIOException ex) {
+                throw ex.getCause();
+            }
+            generator.flush();
+        };
+    }
+
+    private void writeValue(JsonGenerator generator, Object value, boolean newline) {
+        try {
+            generator.writeObject(value);
+            if (newline) {
+                generator.writeRaw('\n');
+            }
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+}
@@ -0,0 +1,15 @@
+package com.challenge.ordermaker.api.v1;
+
+import com.challenge.ordermaker.api.v1.request.OrderView;
+import org.springframework.core.convert.converter.Converter;
+import org.springframework.stereotype.Component;
+
+/* Binds the view request parameter in lower case, view=ids instead of view=IDS. An unknown view is a 400 */
+@Component
+public class OrderViewConverter implements Converter<String, OrderView> {
+
+    @Override
+    public OrderView convert(String source) {
+        return OrderView.parse(source);
+    }
+}
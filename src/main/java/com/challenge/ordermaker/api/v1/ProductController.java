@@ -1,19 +1,33 @@
 package com.challenge.ordermaker.api.v1;
 
+import com.challenge.ordermaker.api.v1.request.OrdersInRangeRequest;
+import com.challenge.ordermaker.api.v1.request.ProductBatchRequest;
 import com.challenge.ordermaker.api.v1.request.ProductCreateRequest;
 import com.challenge.ordermaker.api.v1.request.ProductUpdateRequest;
+import com.challenge.ordermaker.api.v1.request.SalesGrouping;
 import com.challenge.ordermaker.api.v1.response.Product;
+import com.challenge.ordermaker.api.v1.response.ProductBatchResult;
+import com.challenge.ordermaker.api.v1.response.ProductSales;
+import com.challenge.ordermaker.dao.ProductDao;
+import com.challenge.ordermaker.service.CatalogRevision;
 import com.challenge.ordermaker.service.ProductService;
 import lombok.RequiredArgsConstructor;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.PutMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 
 import javax.validation.Valid;
+import java.util.List;
+import java.util.Optional;
 import java.util.Set;
 
 @RequiredArgsConstructor
@@ -23,25 +37,79 @@ public class ProductController {
 
     private final ProductService productService;
 
+    private final CatalogRevision catalogRevision;
+
     @PostMapping("/create")
     public ResponseEntity<Product> createProduct(@Valid ProductCreateRequest productCreateRequest) {
         return ResponseEntity.ok(productService.createProduct(productCreateRequest));
     }
 
+    /* Creates and updates many products at once, in transactions of bounded size. One result per item, in request order */
+    @PostMapping("/batch")
+    public ResponseEntity<ProductBatchResult> batch(@Valid @RequestBody ProductBatchRequest productBatchRequest) {
+        return ResponseEntity.ok(productService.writeProducts(productBatchRequest.getCreates(), productBatchRequest.getUpdates()));
+    }
+
+    /* Tagged with the catalog revision. A client that already has the current catalog gets a 304, and the catalog
+       is not read at all */
     @GetMapping("/retrieve")
-    public ResponseEntity<Set<Product>> getAll() {
-        return ResponseEntity.ok(productService.getAllActiveProducts());
+    public ResponseEntity<Set<Product>> getAll(@RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch,
+                                               @RequestHeader(value = HttpHeaders.ACCEPT, required = false) String accept) {
+        String current = EntityTags.catalog(accept, catalogRevision.current());
+        if (EntityTags.matches(ifNoneMatch, current)) {
+            return notModified(current);
+        }
+
+        CatalogRevision.Read<Set<Product>> read = catalogRevision.read(productService::getAllActiveProducts);
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok().varyBy(HttpHeaders.ACCEPT);
+        if (read.getRevision() != null) {
+            response.eTag(EntityTags.catalog(accept, read.getRevision()));
+        }
+        return response.body(read.getValue());
     }
 
+    /* Tagged with the product version. While the catalog revision is the one of the client's tag, the 304 needs no lookup.
+       After any product write the product is looked up, and its version decides */
     @GetMapping("/{productId}")
-    public ResponseEntity<Product> get(@PathVariable Long productId) {
-        return productService.getActiveProductForId(productId)
-                .map(ResponseEntity::ok)
-                .orElseGet(() -> ResponseEntity.notFound().build());
+    public ResponseEntity<Product> get(@PathVariable Long productId,
+                                       @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch,
+                                       @RequestHeader(value = HttpHeaders.ACCEPT, required = false) String accept) {
+        Optional<String> unchanged = EntityTags.productAtRevision(ifNoneMatch, productId, accept, catalogRevision.current());
+        if (unchanged.isPresent()) {
+            return notModified(unchanged.get());
+        }
+
+        CatalogRevision.Read<Optional<ProductDao>> read = catalogRevision.read(() -> productService.getActiveProductDaoForId(productId));
+        if (!read.getValue().isPresent()) {
+            return ResponseEntity.notFound().build();
+        }
+        ProductDao product = read.getValue().get();
+        if (read.getRevision() == null) {
+            return ResponseEntity.ok().varyBy(HttpHeaders.ACCEPT).body(ProductService.mapDaoToProduct(product));
+        }
+
+        String etag = EntityTags.product(productId, product.getVersion(), accept, read.getRevision());
+        if (EntityTags.productAtVersion(ifNoneMatch, productId, product.getVersion(), accept, catalogRevision.getBootId()).isPresent()) {
+            return notModified(etag);
+        }
+        return ResponseEntity.ok().varyBy(HttpHeaders.ACCEPT).eTag(etag).body(ProductService.mapDaoToProduct(product));
+    }
+
+    /* Units sold and revenue per product for orders placed in the range, by=product|version|hour (default product),
+       optionally for one product. Summed from the hourly rollup, so the range is widened to whole hours */
+    @GetMapping("/sales")
+    public ResponseEntity<List<ProductSales>> sales(@Valid OrdersInRangeRequest ordersInRangeRequest,
+                                                    @RequestParam(required = false) Long productId,
+                                                    @RequestParam(defaultValue = "product") SalesGrouping by) {
+        return ResponseEntity.ok(productService.getSales(ordersInRangeRequest.getStartTime(), ordersInRangeRequest.getEndTime(), productId, by));
     }
 
     @PutMapping("/update}")
     public ResponseEntity<Product> update(ProductUpdateRequest productUpdateRequest) {
         return ResponseEntity.ok(productService.updateProduct(productUpdateRequest));
     }
+
+    private static <T> ResponseEntity<T> notModified(String etag) {
+        return ResponseEntity.status(HttpStatus.NOT_MODIFIED).varyBy(HttpHeaders.ACCEPT).eTag(etag).build();
+    }
 }
@@ -0,0 +1,15 @@
+package com.challenge.ordermaker.api.v1;
+
+import com.challenge.ordermaker.api.v1.request.SalesGrouping;
+import org.springframework.core.convert.converter.Converter;
+import org.springframework.stereotype.Component;
+
+/* Binds the by request parameter in lower case, like OrderViewConverter. An unknown grouping is a 400 */
+@Component
+public class SalesGroupingConverter implements Converter<String, SalesGrouping> {
+
+    @Override
+    public SalesGrouping convert(String source) {
+        return SalesGrouping.parse(source);
+    }
+}
@@ -0,0 +1,24 @@
+package com.challenge.ordermaker.api.v1.request;
+
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+
+import javax.validation.constraints.Max;
+import javax.validation.constraints.Min;
+import javax.validation.constraints.NotBlank;
+
+@RequiredArgsConstructor
+@Getter
+public class BuyerOrdersPageRequest {
+
+    /* In any case, surrounding spaces are ignored */
+    @NotBlank
+    private final String buyerEmailId;
+
+    /* nextCursor of the previous page, empty for the first page */
+    private final String cursor;
+
+    @Min(1)
+    @Max(1000)
+    private final Integer limit;
+}
@@ -0,0 +1,19 @@
+package com.challenge.ordermaker.api.v1.request;
+
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+
+import javax.validation.Valid;
+import javax.validation.constraints.NotEmpty;
+import javax.validation.constraints.Size;
+import java.util.List;
+
+@Getter
+@RequiredArgsConstructor
+public class OrderBatchCreateRequest {
+
+    @NotEmpty
+    @Size(max = 10000)
+    @Valid
+    private final List<OrderCreateRequest> orders;
+}
@@ -7,6 +7,7 @@ import org.springframework.format.annotation.DateTimeFormat;
 import javax.validation.constraints.NotBlank;
 import javax.validation.constraints.NotEmpty;
 import javax.validation.constraints.NotNull;
+import javax.validation.constraints.Size;
 import java.time.LocalDateTime;
 import java.util.Set;
 
@@ -14,7 +15,9 @@ import java.util.Set;
 @RequiredArgsConstructor
 public class OrderCreateRequest {
 
+    /* ORDERS.buyerEmailId is a VARCHAR(500) */
     @NotBlank
+    @Size(max = 500)
     private final String buyerEmailId;
 
     @NotEmpty
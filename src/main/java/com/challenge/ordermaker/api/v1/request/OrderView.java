@@ -0,0 +1,14 @@
+package com.challenge.ordermaker.api.v1.request;
+
+import java.util.Locale;
+
+/* How much of an order a response holds, the view request parameter. Every view has the order id, buyer, time and cost.
+   FULL adds the products with name and price, IDS only the product ids and SUMMARY no products at all */
+public enum OrderView {
+    IDS, SUMMARY, FULL;
+
+    /* view=ids|summary|full, in any case */
+    public static OrderView parse(String value) {
+        return valueOf(value.trim().toUpperCase(Locale.ROOT));
+    }
+}
@@ -0,0 +1,30 @@
+package com.challenge.ordermaker.api.v1.request;
+
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import org.springframework.format.annotation.DateTimeFormat;
+
+import javax.validation.constraints.Max;
+import javax.validation.constraints.Min;
+import javax.validation.constraints.NotNull;
+import java.time.LocalDateTime;
+
+@RequiredArgsConstructor
+@Getter
+public class OrdersInRangePageRequest {
+
+    @NotNull
+    @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME)
+    private final LocalDateTime startTime;
+
+    @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME)
+    @NotNull
+    private final LocalDateTime endTime;
+
+    /* nextCursor of the previous page, empty for the first page */
+    private final String cursor;
+
+    @Min(1)
+    @Max(1000)
+    private final Integer limit;
+}
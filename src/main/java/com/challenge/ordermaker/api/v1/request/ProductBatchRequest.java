@@ -0,0 +1,21 @@
+package com.challenge.ordermaker.api.v1.request;
+
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+
+import javax.validation.Valid;
+import javax.validation.constraints.Size;
+import java.util.List;
+
+@Getter
+@RequiredArgsConstructor
+public class ProductBatchRequest {
+
+    @Size(max = 50000)
+    @Valid
+    private final List<ProductCreateRequest> creates;
+
+    @Size(max = 50000)
+    @Valid
+    private final List<ProductUpdateRequest> updates;
+}
@@ -1,18 +1,30 @@
 package com.challenge.ordermaker.api.v1.request;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import lombok.Getter;
 import lombok.RequiredArgsConstructor;
 
+import javax.validation.constraints.AssertTrue;
 import javax.validation.constraints.NotBlank;
 import javax.validation.constraints.NotNull;
+import javax.validation.constraints.Size;
 
 @Getter
 @RequiredArgsConstructor
 public class ProductCreateRequest {
 
+    /* PRODUCTS.name is a VARCHAR(500) */
     @NotBlank
+    @Size(max = 500)
     private final String name;
 
     @NotNull
     private final float price;
-}
\ No newline at end of file
+
+    /* NaN and the infinities do not fit the DECIMAL price column */
+    @JsonIgnore
+    @AssertTrue(message = "must be a finite number")
+    public boolean isPriceFinite() {
+        return Float.isFinite(price);
+    }
+}
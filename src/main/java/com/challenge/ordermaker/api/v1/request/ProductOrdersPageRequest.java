@@ -0,0 +1,35 @@
+package com.challenge.ordermaker.api.v1.request;
+
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import org.springframework.format.annotation.DateTimeFormat;
+
+import javax.validation.constraints.Max;
+import javax.validation.constraints.Min;
+import javax.validation.constraints.NotNull;
+import java.time.LocalDateTime;
+
+@RequiredArgsConstructor
+@Getter
+public class ProductOrdersPageRequest {
+
+    @NotNull
+    private final Long productId;
+
+    /* Only orders placed with this version of the product, any version when empty */
+    private final Integer version;
+
+    /* Optional bounds on the order time, both included */
+    @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME)
+    private final LocalDateTime startTime;
+
+    @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME)
+    private final LocalDateTime endTime;
+
+    /* nextCursor of the previous page, empty for the first page */
+    private final String cursor;
+
+    @Min(1)
+    @Max(1000)
+    private final Integer limit;
+}
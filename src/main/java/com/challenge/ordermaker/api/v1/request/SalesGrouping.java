@@ -0,0 +1,14 @@
+package com.challenge.ordermaker.api.v1.request;
+
+import java.util.Locale;
+
+/* The by request parameter of the sales report. PRODUCT sums the whole range per product, VERSION per product version
+   and HOUR per product and hour */
+public enum SalesGrouping {
+    PRODUCT, VERSION, HOUR;
+
+    /* by=product|version|hour, in any case */
+    public static SalesGrouping parse(String value) {
+        return valueOf(value.trim().toUpperCase(Locale.ROOT));
+    }
+}
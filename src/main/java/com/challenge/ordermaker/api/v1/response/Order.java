@@ -1,5 +1,6 @@
 package com.challenge.ordermaker.api.v1.response;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
 import lombok.Getter;
 import lombok.RequiredArgsConstructor;
 
@@ -7,18 +8,24 @@ import java.time.LocalDateTime;
 import java.util.Set;
 
 
+/* Fields that the requested view leaves out are null and not written at all */
 @Getter
 @RequiredArgsConstructor
+@JsonInclude(JsonInclude.Include.NON_NULL)
 public class Order {
     private final long orderId;
     private final String buyerEmailId;
     private final LocalDateTime orderTime;
 
+    /* Only with view=ids */
+    private final Set<Long> productIds;
+
     /* In real world scenario, I would only send back ids of product to clients.
        Clients can then request for details of any product if required, using product endpoint.
        But here, we are sending the entire product as part of JSON response to make it easier to view responses.
        We are anyway need to get all products for an order to calculate the order price. So, this does not bring any
        extra complexity. So, Its is nice to see entire products in response.
+       Clients that only need ids or totals ask for view=ids or view=summary, and the products are not read at all.
       */
     private final Set<Product> products;
 
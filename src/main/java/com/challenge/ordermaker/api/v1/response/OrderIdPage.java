@@ -0,0 +1,16 @@
+package com.challenge.ordermaker.api.v1.response;
+
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+
+import java.util.List;
+
+@Getter
+@RequiredArgsConstructor
+public class OrderIdPage {
+    private final List<Long> orderIds;
+
+    /* Pass it back as cursor to get the next page. null when there are no more orders. A page that filters by version
+       or time may be short, or empty, and still have a next one */
+    private final String nextCursor;
+}
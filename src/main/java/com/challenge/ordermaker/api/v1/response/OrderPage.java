@@ -0,0 +1,15 @@
+package com.challenge.ordermaker.api.v1.response;
+
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+
+import java.util.List;
+
+@Getter
+@RequiredArgsConstructor
+public class OrderPage {
+    private final List<Order> orders;
+
+    /* Pass it back as cursor to get the next page. null when there are no more orders */
+    private final String nextCursor;
+}
@@ -0,0 +1,37 @@
+package com.challenge.ordermaker.api.v1.response;
+
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+
+import java.util.Collections;
+import java.util.Set;
+
+@Getter
+@RequiredArgsConstructor
+public class OrderPlacementResult {
+
+    /* null when the order was not placed */
+    private final Order order;
+
+    /* Products of the request that do not exist. Empty when the order was placed */
+    private final Set<Long> unknownProductIds;
+
+    /* Why the order was not placed although its products exist. null when it was placed or had unknown products */
+    private final String error;
+
+    public static OrderPlacementResult placed(Order order) {
+        return new OrderPlacementResult(order, Collections.emptySet(), null);
+    }
+
+    public static OrderPlacementResult unknownProducts(Set<Long> unknownProductIds) {
+        return new OrderPlacementResult(null, unknownProductIds, null);
+    }
+
+    public static OrderPlacementResult failed(String error) {
+        return new OrderPlacementResult(null, Collections.emptySet(), error);
+    }
+
+    public boolean isPlaced() {
+        return order != null;
+    }
+}
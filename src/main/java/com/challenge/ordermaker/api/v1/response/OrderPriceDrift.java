@@ -0,0 +1,18 @@
+package com.challenge.ordermaker.api.v1.response;
+
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+
+import java.time.LocalDateTime;
+
+@Getter
+@RequiredArgsConstructor
+public class OrderPriceDrift {
+    private final long orderId;
+    private final LocalDateTime orderTime;
+    private final float originalCost;
+    private final float currentCost;
+
+    /* currentCost - originalCost, positive when the order would cost more today */
+    private final float difference;
+}
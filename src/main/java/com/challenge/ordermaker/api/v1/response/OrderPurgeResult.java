@@ -0,0 +1,17 @@
+package com.challenge.ordermaker.api.v1.response;
+
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+
+@Getter
+@RequiredArgsConstructor
+public class OrderPurgeResult {
+
+    /* Orders placed before the cutoff when the request came in */
+    private final int matchingOrders;
+
+    /* Zero for a dry run */
+    private final int purgedOrders;
+
+    private final int maxOrders;
+}
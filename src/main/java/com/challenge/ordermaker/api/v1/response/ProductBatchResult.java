@@ -0,0 +1,17 @@
+package com.challenge.ordermaker.api.v1.response;
+
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+
+import java.util.List;
+
+@Getter
+@RequiredArgsConstructor
+public class ProductBatchResult {
+
+    /* One result per create request, in request order */
+    private final List<ProductWriteResult> creates;
+
+    /* One result per update request, in request order */
+    private final List<ProductWriteResult> updates;
+}
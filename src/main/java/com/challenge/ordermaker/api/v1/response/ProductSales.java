@@ -0,0 +1,19 @@
+package com.challenge.ordermaker.api.v1.response;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+
+import java.time.LocalDateTime;
+
+/* Units sold and revenue of a product. version and hourStart are only written when the report is grouped by them */
+@Getter
+@RequiredArgsConstructor
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class ProductSales {
+    private final long productId;
+    private final Integer version;
+    private final LocalDateTime hourStart;
+    private final long units;
+    private final double revenue;
+}
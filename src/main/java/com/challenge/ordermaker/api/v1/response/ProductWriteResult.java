@@ -0,0 +1,23 @@
+package com.challenge.ordermaker.api.v1.response;
+
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+
+@Getter
+@RequiredArgsConstructor
+public class ProductWriteResult {
+
+    /* null when the write failed */
+    private final Product product;
+
+    /* null when the write succeeded */
+    private final String error;
+
+    public static ProductWriteResult written(Product product) {
+        return new ProductWriteResult(product, null);
+    }
+
+    public static ProductWriteResult failed(String error) {
+        return new ProductWriteResult(null, error);
+    }
+}
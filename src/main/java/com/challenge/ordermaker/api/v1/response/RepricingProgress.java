@@ -0,0 +1,21 @@
+package com.challenge.ordermaker.api.v1.response;
+
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+
+import java.time.LocalDateTime;
+
+@Getter
+@RequiredArgsConstructor
+public class RepricingProgress {
+
+    public enum State {RUNNING, DONE, FAILED}
+
+    private final String jobId;
+    private final LocalDateTime startTime;
+    private final LocalDateTime endTime;
+    private final int chunksTotal;
+    private final int chunksDone;
+    private final long ordersRepriced;
+    private final State state;
+}
@@ -0,0 +1,19 @@
+package com.challenge.ordermaker.dao;
+
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+
+import java.sql.Timestamp;
+
+@Getter
+@RequiredArgsConstructor
+public class OrderPriceDriftDao {
+    private final long orderId;
+    private final Timestamp orderTime;
+
+    /* Sum of the product versions the order was placed with */
+    private final float originalCost;
+
+    /* Sum of the latest versions of the same products */
+    private final float currentCost;
+}
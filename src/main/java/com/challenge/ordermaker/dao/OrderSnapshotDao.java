@@ -0,0 +1,14 @@
+package com.challenge.ordermaker.dao;
+
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+
+import java.util.Set;
+
+@Getter
+@RequiredArgsConstructor
+public class OrderSnapshotDao {
+    private final OrderDao order;
+    private final Set<ProductDao> products;
+    private final float orderCost;
+}
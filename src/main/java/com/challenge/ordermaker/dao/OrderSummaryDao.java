@@ -0,0 +1,16 @@
+package com.challenge.ordermaker.dao;
+
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+
+import java.util.Set;
+
+@Getter
+@RequiredArgsConstructor
+public class OrderSummaryDao {
+    private final OrderDao order;
+    private final float orderCost;
+
+    /* null unless the product ids were asked for */
+    private final Set<Long> productIds;
+}
@@ -0,0 +1,13 @@
+package com.challenge.ordermaker.dao;
+
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+
+import java.util.Set;
+
+@Getter
+@RequiredArgsConstructor
+public class OrderWithProductsDao {
+    private final OrderDao order;
+    private final Set<ProductDao> products;
+}
@@ -0,0 +1,23 @@
+package com.challenge.ordermaker.dao;
+
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+
+import java.sql.Timestamp;
+
+@Getter
+@RequiredArgsConstructor
+public class ProductSalesDao {
+    private final long productId;
+
+    /* null unless grouped by version */
+    private final Integer version;
+
+    /* null unless grouped by hour */
+    private final Timestamp hourStart;
+
+    /* Number of order lines, an order holds a product at most once */
+    private final long units;
+
+    private final double revenue;
+}
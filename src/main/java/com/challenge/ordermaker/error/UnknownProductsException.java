@@ -0,0 +1,17 @@
+package com.challenge.ordermaker.error;
+
+import lombok.Getter;
+
+import java.util.Set;
+
+/* An order names products that do not exist. Thrown before anything of the order is written */
+@Getter
+public class UnknownProductsException extends ResourceNotFoundException {
+
+    private final Set<Long> unknownProductIds;
+
+    public UnknownProductsException(Set<Long> unknownProductIds) {
+        super("productId not found");
+        this.unknownProductIds = unknownProductIds;
+    }
+}
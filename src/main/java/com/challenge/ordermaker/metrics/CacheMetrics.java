@@ -0,0 +1,52 @@
+package com.challenge.ordermaker.metrics;
+
+import com.challenge.ordermaker.repo.ActiveProductCatalog;
+import com.challenge.ordermaker.repo.VersionedProductCache;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Component;
+
+import java.util.function.ToDoubleFunction;
+
+/* Hits, misses, hit ratio and size of the in memory product caches, tagged with the cache name. The hit ratio leaves
+   out reads that bypassed an oversized catalog */
+@Component
+@RequiredArgsConstructor
+public class CacheMetrics implements MeterBinder {
+
+    private final ActiveProductCatalog activeProductCatalog;
+
+    private final VersionedProductCache versionedProductCache;
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        bind(registry, "catalog", activeProductCatalog, ActiveProductCatalog::getHitCount, ActiveProductCatalog::getMissCount,
+                ActiveProductCatalog::size);
+        /* Neither a hit nor a miss: the catalog is too big to be cached and the read went to the database */
+        FunctionCounter.builder("ordermaker.cache.gets", activeProductCatalog, ActiveProductCatalog::getBypassCount)
+                .tag("cache", "catalog").tag("result", "bypass").register(registry);
+        bind(registry, "product-versions", versionedProductCache, VersionedProductCache::getHitCount,
+                VersionedProductCache::getMissCount, VersionedProductCache::size);
+    }
+
+    private static <T> void bind(MeterRegistry registry, String cache, T target,
+                                 ToDoubleFunction<T> hits, ToDoubleFunction<T> misses, ToDoubleFunction<T> size) {
+        FunctionCounter.builder("ordermaker.cache.gets", target, hits)
+                .tag("cache", cache).tag("result", "hit").register(registry);
+        FunctionCounter.builder("ordermaker.cache.gets", target, misses)
+                .tag("cache", cache).tag("result", "miss").register(registry);
+        /* Since startup. A ratio over a time window comes from the two counters above */
+        Gauge.builder("ordermaker.cache.hit.ratio", target, t -> hitRatio(hits.applyAsDouble(t), misses.applyAsDouble(t)))
+                .tag("cache", cache).register(registry);
+        Gauge.builder("ordermaker.cache.size", target, size)
+                .tag("cache", cache).register(registry);
+    }
+
+    static double hitRatio(double hits, double misses) {
+        double gets = hits + misses;
+        return gets == 0 ? Double.NaN : hits / gets;
+    }
+}
@@ -0,0 +1,138 @@
+package com.challenge.ordermaker.metrics;
+
+import org.springframework.jdbc.datasource.DelegatingDataSource;
+
+import javax.sql.DataSource;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Map;
+import java.util.TreeMap;
+
+/* Counts every statement execution, batch execution, commit and rollback as one database round trip
+   of the calling thread, see RoundTripCounter, and hands every statement execution to the SQL profiler.
+   Everything else is passed through unchanged. */
+class InstrumentedDataSource extends DelegatingDataSource {
+
+    private final SqlProfiler sqlProfiler;
+
+    InstrumentedDataSource(DataSource targetDataSource, SqlProfiler sqlProfiler) {
+        super(targetDataSource);
+        this.sqlProfiler = sqlProfiler;
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        return instrumentedConnection(super.getConnection());
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        return instrumentedConnection(super.getConnection(username, password));
+    }
+
+    private Connection instrumentedConnection(Connection connection) {
+        return proxy(Connection.class, (proxy, method, args) -> {
+            String name = method.getName();
+            if (name.equals("commit") || name.equals("rollback")) {
+                RoundTripCounter.increment();
+            }
+            Object result = invoke(connection, method, args);
+            /* prepareStatement and prepareCall get the SQL up front, createStatement only on execute */
+            String sql = args != null && args.length > 0 && args[0] instanceof String ? (String) args[0] : null;
+            if (result instanceof CallableStatement) {
+                return instrumentedStatement(CallableStatement.class, (Statement) result, connection, sql);
+            }
+            if (result instanceof PreparedStatement) {
+                return instrumentedStatement(PreparedStatement.class, (Statement) result, connection, sql);
+            }
+            if (result instanceof Statement) {
+                return instrumentedStatement(Statement.class, (Statement) result, connection, null);
+            }
+            return result;
+        });
+    }
+
+    private Statement instrumentedStatement(Class<? extends Statement> type, Statement statement, Connection connection, String preparedSql) {
+        /* Parameters of the last execution, by index. The slow query log explains the statement with them */
+        Map<Integer, Object> parameters = new TreeMap<>();
+        return proxy(type, (proxy, method, args) -> {
+            String name = method.getName();
+            if (name.startsWith("set") && args != null && args.length >= 2 && args[0] instanceof Integer) {
+                parameters.put((Integer) args[0], args[1]);
+            } else if (name.equals("clearParameters")) {
+                parameters.clear();
+            }
+            if (!name.startsWith("execute")) {
+                return invoke(statement, method, args);
+            }
+
+            RoundTripCounter.increment();
+            String sql = args != null && args.length > 0 && args[0] instanceof String ? (String) args[0] : preparedSql;
+            long start = System.nanoTime();
+            Object result = invoke(statement, method, args);
+            long elapsed = System.nanoTime() - start;
+            if (sql == null) {
+                return result;
+            }
+
+            boolean batch = name.equals("executeBatch") || name.equals("executeLargeBatch");
+            SqlProfiler.StatementStats stats = sqlProfiler.record(sql, elapsed, updateCount(result));
+            if (stats != null && sqlProfiler.isSlow(elapsed)) {
+                sqlProfiler.logSlow(sql, elapsed, connection, batch ? null : parameters);
+            }
+            if (stats != null && result instanceof ResultSet) {
+                return countingResultSet((ResultSet) result, stats);
+            }
+            return result;
+        });
+    }
+
+    /* Rows are added to the statement while they are read */
+    private static ResultSet countingResultSet(ResultSet resultSet, SqlProfiler.StatementStats stats) {
+        return proxy(ResultSet.class, (proxy, method, args) -> {
+            Object result = invoke(resultSet, method, args);
+            if (method.getName().equals("next") && Boolean.TRUE.equals(result)) {
+                stats.addRows(1);
+            }
+            return result;
+        });
+    }
+
+    private static long updateCount(Object result) {
+        if (result instanceof Integer || result instanceof Long) {
+            return ((Number) result).longValue();
+        }
+        long rows = 0;
+        if (result instanceof int[]) {
+            for (int count : (int[]) result) {
+                rows += Math.max(count, 0);
+            }
+        } else if (result instanceof long[]) {
+            for (long count : (long[]) result) {
+                rows += Math.max(count, 0);
+            }
+        }
+        return rows;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T proxy(Class<T> type, InvocationHandler handler) {
+        return (T) Proxy.newProxyInstance(InstrumentedDataSource.class.getClassLoader(), new Class<?>[]{type}, handler);
+    }
+
+    private static Object invoke(Object target, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException ex) {
+            throw ex.getCause();
+        }
+    }
+}
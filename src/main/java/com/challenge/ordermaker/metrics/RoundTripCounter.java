@@ -0,0 +1,29 @@
+package com.challenge.ordermaker.metrics;
+
+/* Counts the database round trips made by the current thread between start and stop.
+   Threads that never called start are not counted, so background work does not need any cleanup. */
+final class RoundTripCounter {
+
+    private static final ThreadLocal<long[]> COUNT = new ThreadLocal<>();
+
+    private RoundTripCounter() {
+    }
+
+    static void start() {
+        COUNT.set(new long[1]);
+    }
+
+    /* Returns the round trips since start. 0 if start was never called */
+    static long stop() {
+        long[] count = COUNT.get();
+        COUNT.remove();
+        return count == null ? 0 : count[0];
+    }
+
+    static void increment() {
+        long[] count = COUNT.get();
+        if (count != null) {
+            count[0]++;
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package com.challenge.ordermaker.metrics;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.Ordered;
+import org.springframework.web.filter.OncePerRequestFilter;
+import org.springframework.web.servlet.HandlerMapping;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.sql.DataSource;
+import java.io.IOException;
+
+/* Database round trips per HTTP request, as the ordermaker.db.round-trips summary tagged with the method and the
+   uri pattern of the request. Work handed to other threads (streamed responses, repricing chunks) is not counted. */
+@Configuration
+public class RoundTripMetrics {
+
+    static final String METRIC = "ordermaker.db.round-trips";
+
+    /* The data source also feeds the SQL profiler. The profiler is looked up when the data source is created,
+       post processors are created too early for it */
+    @Bean
+    public static BeanPostProcessor instrumentedDataSourcePostProcessor(ObjectProvider<SqlProfiler> sqlProfiler) {
+        return new BeanPostProcessor() {
+            @Override
+            public Object postProcessAfterInitialization(Object bean, String beanName) {
+                if (bean instanceof DataSource && !(bean instanceof InstrumentedDataSource)) {
+                    return new InstrumentedDataSource((DataSource) bean, sqlProfiler.getObject());
+                }
+                return bean;
+            }
+        };
+    }
+
+    @Bean
+    public OncePerRequestFilter roundTripFilter(ObjectProvider<MeterRegistry> meterRegistry) {
+        return new RoundTripFilter(meterRegistry);
+    }
+
+    private static class RoundTripFilter extends OncePerRequestFilter implements Ordered {
+
+        private final ObjectProvider<MeterRegistry> meterRegistry;
+
+        private RoundTripFilter(ObjectProvider<MeterRegistry> meterRegistry) {
+            this.meterRegistry = meterRegistry;
+        }
+
+        @Override
+        protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
+                throws ServletException, IOException {
+            RoundTripCounter.start();
+            try {
+                filterChain.doFilter(request, response);
+            } finally {
+                long roundTrips = RoundTripCounter.stop();
+                /* Set by Spring MVC once a handler is found, so the tag does not grow with every order id */
+                Object pattern = request.getAttribute(HandlerMapping.BEST_MATCHING_PATTERN_ATTRIBUTE);
+                DistributionSummary.builder(METRIC)
+                        .baseUnit("round-trips")
+                        .tag("method", request.getMethod())
+                        .tag("uri", pattern == null ? "UNKNOWN" : pattern.toString())
+                        .register(meterRegistry.getObject())
+                        .record(roundTrips);
+            }
+        }
+
+        @Override
+        public int getOrder() {
+            return Ordered.HIGHEST_PRECEDENCE;
+        }
+    }
+}
@@ -0,0 +1,173 @@
+package com.challenge.ordermaker.metrics;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+/* Aggregates every executed statement by its normalised SQL text: calls, total and max time and rows.
+   Literals become ?, whitespace is collapsed and IN lists of any length are one entry, so the statements of
+   NamedParameterJdbcTemplate expanding (:productIds) all end up together.
+
+   Statements slower than the threshold are logged with the plan H2 reports for them. The plan comes from a plain
+   EXPLAIN on the connection the statement ran on, which plans it without running it, so it neither repeats the slow
+   work nor takes locks in the caller's transaction. SELECT .. FOR UPDATE is not explained at all, its transaction
+   holds row locks that other orders wait for. The log has the normalised SQL and only the types of the parameters,
+   the values are buyer data such as email addresses. */
+@Component
+public class SqlProfiler {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SqlProfiler.class);
+
+    /* Normalising is a few regular expressions. The SQL strings are constants, so the result is kept */
+    private static final int MAX_NORMALISED = 10000;
+
+    /* Possessive quantifiers over character classes run in a loop. Repeated groups recurse once per repetition,
+       which overflows the stack on a batch sized IN list */
+    private static final Pattern STRING_LITERAL = Pattern.compile("'[^']*+(?:''[^']*+)*+'");
+
+    private static final Pattern NUMBER_LITERAL = Pattern.compile("(?<![\\w.])-?\\d+(?:\\.\\d+)?");
+
+    private static final Pattern IN_LIST = Pattern.compile("(?i)\\bIN\\s*\\(\\s*\\?[\\s?,]*+\\)");
+
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+
+    /* Statements H2 has a plan for. DDL, SHUTDOWN and the like are logged without one */
+    private static final Pattern EXPLAINABLE = Pattern.compile("(SELECT|INSERT|UPDATE|DELETE|MERGE|WITH)\\b");
+
+    private static final Pattern LOCKING = Pattern.compile("\\bFOR\\s+UPDATE\\b");
+
+    private final boolean enabled;
+
+    private final long slowThresholdNanos;
+
+    private final Map<String, StatementStats> statements = new ConcurrentHashMap<>();
+
+    private final Map<String, String> normalised = new ConcurrentHashMap<>();
+
+    public SqlProfiler(@Value("${ordermaker.sql.profiler.enabled:true}") boolean enabled,
+                       @Value("${ordermaker.sql.slow-threshold-ms:200}") long slowThresholdMs) {
+        this.enabled = enabled;
+        this.slowThresholdNanos = TimeUnit.MILLISECONDS.toNanos(slowThresholdMs);
+    }
+
+    /* Returns the statistics the statement was added to, null if profiling is off */
+    StatementStats record(String sql, long elapsedNanos, long rows) {
+        if (!enabled) {
+            return null;
+        }
+        StatementStats stats = statements.computeIfAbsent(normalise(sql), StatementStats::new);
+        stats.calls.increment();
+        stats.totalNanos.add(elapsedNanos);
+        stats.maxNanos.accumulate(elapsedNanos);
+        stats.addRows(rows);
+        return stats;
+    }
+
+    boolean isSlow(long elapsedNanos) {
+        return elapsedNanos >= slowThresholdNanos;
+    }
+
+    void logSlow(String sql, long elapsedNanos, Connection connection, Map<Integer, Object> parameters) {
+        LOG.warn(describeSlow(sql, elapsedNanos, connection, parameters));
+    }
+
+    /* Explains the statement on the connection it ran on, so it sees the same schema. parameters is null for batches,
+       they are logged without a plan, like statements H2 cannot explain and statements that lock rows */
+    String describeSlow(String sql, long elapsedNanos, Connection connection, Map<Integer, Object> parameters) {
+        String message = "Slow SQL (" + TimeUnit.NANOSECONDS.toMillis(elapsedNanos) + " ms): " + normalise(sql);
+        String upper = sql.trim().toUpperCase(Locale.ROOT);
+        if (parameters == null || !EXPLAINABLE.matcher(upper).lookingAt() || LOCKING.matcher(upper).find()) {
+            return message;
+        }
+        StringBuilder plan = new StringBuilder();
+        try (PreparedStatement statement = connection.prepareStatement("EXPLAIN " + sql)) {
+            for (Map.Entry<Integer, Object> parameter : parameters.entrySet()) {
+                statement.setObject(parameter.getKey(), parameter.getValue());
+            }
+            try (ResultSet resultSet = statement.executeQuery()) {
+                while (resultSet.next()) {
+                    plan.append(resultSet.getString(1)).append('\n');
+                }
+            }
+        } catch (SQLException ex) {
+            plan.append("no plan: ").append(ex.getMessage());
+        }
+        /* H2 prints the statement back in the plan, with its string literals */
+        return message + "\nparameters: " + parameterTypes(parameters) + "\n" + STRING_LITERAL.matcher(plan).replaceAll("?");
+    }
+
+    private static List<String> parameterTypes(Map<Integer, Object> parameters) {
+        return parameters.values().stream()
+                .map(value -> value == null ? "null" : value.getClass().getSimpleName())
+                .collect(Collectors.toList());
+    }
+
+    /* Slowest total time first */
+    public List<SqlStatementStats> getStatements() {
+        return statements.values().stream()
+                .map(StatementStats::toResponse)
+                .sorted(Comparator.comparingDouble(SqlStatementStats::getTotalMs).reversed())
+                .collect(Collectors.toList());
+    }
+
+    public void reset() {
+        statements.clear();
+    }
+
+    String normalise(String sql) {
+        String known = normalised.get(sql);
+        if (known != null) {
+            return known;
+        }
+        String result = STRING_LITERAL.matcher(sql).replaceAll("?");
+        result = NUMBER_LITERAL.matcher(result).replaceAll("?");
+        result = IN_LIST.matcher(result).replaceAll("IN (?...)");
+        result = WHITESPACE.matcher(result).replaceAll(" ").trim();
+        if (result.endsWith(";")) {
+            result = result.substring(0, result.length() - 1).trim();
+        }
+        if (normalised.size() < MAX_NORMALISED) {
+            normalised.put(sql, result);
+        }
+        return result;
+    }
+
+    static final class StatementStats {
+        private final String sql;
+        private final LongAdder calls = new LongAdder();
+        private final LongAdder totalNanos = new LongAdder();
+        private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+        private final LongAdder rows = new LongAdder();
+
+        private StatementStats(String sql) {
+            this.sql = sql;
+        }
+
+        void addRows(long count) {
+            rows.add(count);
+        }
+
+        private SqlStatementStats toResponse() {
+            long callCount = calls.sum();
+            double totalMs = totalNanos.sum() / 1e6;
+            return new SqlStatementStats(sql, callCount, totalMs, callCount == 0 ? 0 : totalMs / callCount,
+                    maxNanos.get() / 1e6, rows.sum());
+        }
+    }
+}
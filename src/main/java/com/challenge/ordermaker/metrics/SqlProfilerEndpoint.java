@@ -0,0 +1,29 @@
+package com.challenge.ordermaker.metrics;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.boot.actuate.endpoint.annotation.DeleteOperation;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+
+/* /actuator/sql lists the profiled statements, slowest total time first. DELETE starts over, for example before a
+   load test */
+@Component
+@Endpoint(id = "sql")
+@RequiredArgsConstructor
+public class SqlProfilerEndpoint {
+
+    private final SqlProfiler sqlProfiler;
+
+    @ReadOperation
+    public List<SqlStatementStats> statements() {
+        return sqlProfiler.getStatements();
+    }
+
+    @DeleteOperation
+    public void reset() {
+        sqlProfiler.reset();
+    }
+}
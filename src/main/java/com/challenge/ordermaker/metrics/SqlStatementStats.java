@@ -0,0 +1,22 @@
+package com.challenge.ordermaker.metrics;
+
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+
+@Getter
+@RequiredArgsConstructor
+public class SqlStatementStats {
+
+    private final String sql;
+
+    private final long calls;
+
+    private final double totalMs;
+
+    private final double meanMs;
+
+    private final double maxMs;
+
+    /* Rows read for queries, rows changed for updates and batches */
+    private final long rows;
+}
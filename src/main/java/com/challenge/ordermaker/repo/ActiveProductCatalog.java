@@ -0,0 +1,143 @@
+package com.challenge.ordermaker.repo;
+
+import com.challenge.ordermaker.dao.ProductDao;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntSupplier;
+import java.util.function.Supplier;
+
+/* In memory snapshot of all active products.
+   Readers only do a volatile read of an immutable snapshot, so they never lock and never touch JDBC.
+   Writers (product create/update, after their transaction committed) build a new snapshot and swap it in.
+   Writes are rare compared to reads, so copying the snapshot on every write is cheap enough. */
+@Component
+public class ActiveProductCatalog {
+
+    private final Object writeLock = new Object();
+
+    private final LongAdder hits = new LongAdder();
+
+    private final LongAdder misses = new LongAdder();
+
+    private final LongAdder bypasses = new LongAdder();
+
+    private final int maxSize;
+
+    private volatile Snapshot snapshot;
+
+    /* Set when the catalog did not fit into maxSize. We then stop caching and always read from the database */
+    private volatile boolean oversized;
+
+    /* Set by a write while oversized. The next read counts the products again, and caches them if they fit by then */
+    private volatile boolean recount;
+
+    public ActiveProductCatalog(@Value("${ordermaker.cache.catalog.max-size:100000}") int maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    /* Returns the current snapshot, loading it first if required. null means the catalog is too big to be cached, the
+       read then bypasses the catalog. counter tells, without loading them, whether the products fit again */
+    Snapshot getSnapshot(Supplier<Set<ProductDao>> loader, IntSupplier counter) {
+        Snapshot current = snapshot;
+        if (current != null) {
+            hits.increment();
+            return current;
+        }
+        if (oversized && !recount) {
+            bypasses.increment();
+            return null;
+        }
+
+        /* A write waiting here is applied on top of what we load, so we never install a stale snapshot */
+        synchronized (writeLock) {
+            if (oversized && recount) {
+                recount = false;
+                oversized = counter.getAsInt() > maxSize;
+            }
+            if (oversized) {
+                bypasses.increment();
+                return null;
+            }
+            misses.increment();
+            if (snapshot == null) {
+                Set<ProductDao> products = loader.get();
+                if (products.size() > maxSize) {
+                    oversized = true;
+                } else {
+                    snapshot = new Snapshot(products);
+                }
+            }
+            return snapshot;
+        }
+    }
+
+    /* Write through of committed products. Older versions never replace newer ones, whatever order the writers come in */
+    void apply(Collection<ProductDao> products) {
+        synchronized (writeLock) {
+            Snapshot current = snapshot;
+            if (current == null) {
+                recount = oversized;
+                return;
+            }
+            Map<Long, ProductDao> copy = new HashMap<>(current.products);
+            for (ProductDao product : products) {
+                ProductDao existing = copy.get(product.getProductId());
+                if (existing == null || existing.getVersion() < product.getVersion()) {
+                    copy.put(product.getProductId(), product);
+                }
+            }
+            if (copy.size() > maxSize) {
+                oversized = true;
+                snapshot = null;
+            } else {
+                snapshot = new Snapshot(copy.values());
+            }
+        }
+    }
+
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    /* Reads that went to the database because the catalog is too big to be cached */
+    public long getBypassCount() {
+        return bypasses.sum();
+    }
+
+    public int size() {
+        Snapshot current = snapshot;
+        return current == null ? 0 : current.products.size();
+    }
+
+    static final class Snapshot {
+        private final Map<Long, ProductDao> products;
+        private final Set<ProductDao> all;
+
+        private Snapshot(Collection<ProductDao> products) {
+            Map<Long, ProductDao> byId = new HashMap<>(products.size() * 2);
+            products.forEach(product -> byId.put(product.getProductId(), product));
+            this.products = Collections.unmodifiableMap(byId);
+            this.all = Collections.unmodifiableSet(new HashSet<>(byId.values()));
+        }
+
+        ProductDao get(long productId) {
+            return products.get(productId);
+        }
+
+        Set<ProductDao> getAll() {
+            return all;
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package com.challenge.ordermaker.repo;
+
+import com.challenge.ordermaker.api.v1.request.ProductCreateRequest;
+import com.challenge.ordermaker.api.v1.request.ProductUpdateRequest;
+import com.challenge.ordermaker.dao.ProductDao;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.context.annotation.Primary;
+import org.springframework.dao.EmptyResultDataAccessException;
+import org.springframework.stereotype.Repository;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/* Serves active product reads from the in memory catalog and writes through to it.
+   Product versions are served from the versioned product cache.
+   Everything else goes straight to the database repository. */
+@Primary
+@Repository
+public class CachingProductRepository implements ProductRepository {
+
+    private final ProductRepository delegate;
+
+    private final ActiveProductCatalog catalog;
+
+    private final VersionedProductCache versionedProductCache;
+
+    @Autowired
+    public CachingProductRepository(@Qualifier("h2ProductRepository") ProductRepository delegate,
+                                    ActiveProductCatalog catalog,
+                                    VersionedProductCache versionedProductCache) {
+        this.delegate = delegate;
+        this.catalog = catalog;
+        this.versionedProductCache = versionedProductCache;
+    }
+
+    @Override
+    public Set<ProductDao> getAllActive() {
+        ActiveProductCatalog.Snapshot snapshot = catalog.getSnapshot(delegate::getAllActive, delegate::countActive);
+        if (snapshot == null) {
+            return delegate.getAllActive();
+        }
+        return snapshot.getAll();
+    }
+
+    @Override
+    public int countActive() {
+        return delegate.countActive();
+    }
+
+    @Override
+    public ProductDao getActiveForId(long productId) {
+        ActiveProductCatalog.Snapshot snapshot = catalog.getSnapshot(delegate::getAllActive, delegate::countActive);
+        if (snapshot == null) {
+            return delegate.getActiveForId(productId);
+        }
+        ProductDao product = snapshot.get(productId);
+        if (product == null) {
+            throw new EmptyResultDataAccessException(1);
+        }
+        return product;
+    }
+
+    @Override
+    public Map<Long, ProductDao> getActiveForIds(Set<Long> productIds) {
+        ActiveProductCatalog.Snapshot snapshot = catalog.getSnapshot(delegate::getAllActive, delegate::countActive);
+        if (snapshot == null) {
+            return delegate.getActiveForIds(productIds);
+        }
+        Map<Long, ProductDao> results = new HashMap<>();
+        for (Long productId : productIds) {
+            ProductDao product = snapshot.get(productId);
+            if (product != null) {
+                results.put(productId, product);
+            }
+        }
+        return results;
+    }
+
+    @Override
+    public Map<Long, ProductDao> readActiveForIds(Set<Long> productIds) {
+        return delegate.readActiveForIds(productIds);
+    }
+
+    @Override
+    public ProductDao getForVersion(long productId, int version) {
+        ProductDao product = versionedProductCache.get(productId, version);
+        if (product == null) {
+            product = versionedProductCache.put(delegate.getForVersion(productId, version));
+        }
+        return product;
+    }
+
+    @Override
+    public ProductDao save(ProductCreateRequest product) {
+        ProductDao saved = delegate.save(product);
+        catalog.apply(Collections.singleton(saved));
+        versionedProductCache.put(saved);
+        return saved;
+    }
+
+    @Override
+    public ProductDao update(ProductUpdateRequest productUpdateRequest) {
+        ProductDao updated = delegate.update(productUpdateRequest);
+        catalog.apply(Collections.singleton(updated));
+        versionedProductCache.put(updated);
+        return updated;
+    }
+
+    @Override
+    public List<ProductDao> saveAll(List<ProductCreateRequest> products) {
+        List<ProductDao> saved = delegate.saveAll(products);
+        catalog.apply(saved);
+        saved.forEach(versionedProductCache::put);
+        return saved;
+    }
+
+    @Override
+    public List<ProductDao> updateAll(List<ProductUpdateRequest> productUpdateRequests) {
+        List<ProductDao> updated = delegate.updateAll(productUpdateRequests);
+        List<ProductDao> applied = updated.stream().filter(Objects::nonNull).collect(Collectors.toList());
+        catalog.apply(applied);
+        applied.forEach(versionedProductCache::put);
+        return updated;
+    }
+
+    @Override
+    public Map<Long, Integer> getLatestVersionNumbers(Set<Long> productIds) {
+        return delegate.getLatestVersionNumbers(productIds);
+    }
+
+    @Override
+    public Map<Long, ProductDao> lockLatestProducts(Set<Long> productIds) {
+        return delegate.lockLatestProducts(productIds);
+    }
+}
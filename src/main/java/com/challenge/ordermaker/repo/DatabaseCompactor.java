@@ -0,0 +1,46 @@
+package com.challenge.ordermaker.repo;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+/* Compacts a file backed H2 when the application stops.
+   MVStore appends changed pages to the file and reuses the space of old pages only slowly, so after heavy writes most
+   of the file can be free space. A plain close leaves it like that. SHUTDOWN COMPACT moves the live pages together for
+   up to MAX_COMPACT_TIME and truncates the file, so the next start opens a small file.
+   It stops in a phase after OrderBatchWriter and OrderRepricer, which wait for the orders they are writing and the
+   chunks they are repricing, and before any bean is destroyed, so the connection pool is still open. The web server
+   only stops after the beans are destroyed, a request still running then fails on the closed database. */
+@Component
+@ConditionalOnProperty("ordermaker.h2.compact-on-shutdown")
+public class DatabaseCompactor implements SmartLifecycle {
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    private volatile boolean running;
+
+    @Override
+    public void start() {
+        running = true;
+    }
+
+    @Override
+    public void stop() {
+        running = false;
+        jdbcTemplate.execute("SHUTDOWN COMPACT");
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    /* Phases stop from the highest down, the writers are in DEFAULT_PHASE */
+    @Override
+    public int getPhase() {
+        return DEFAULT_PHASE - 1;
+    }
+}
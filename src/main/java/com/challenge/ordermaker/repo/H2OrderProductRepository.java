@@ -6,7 +6,11 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.stereotype.Repository;
 
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 
 @Repository
@@ -30,4 +34,46 @@ public class H2OrderProductRepository implements OrderProductRepository {
 
         return results;
     }
+
+    @Override
+    public List<Long> retrieveOrderIdsForProduct(long productId, Integer version, LocalDateTime startTime, LocalDateTime endTime,
+                                                 long afterOrderId, long untilOrderId, int limit) {
+        /* A range scan of ORDER_PRODUCT_ALL_INDEX (productId, orderId, version) between the two order ids. H2 only reads
+           the index in its own order, and stops after limit rows, when the ORDER BY starts with the same columns. Left
+           to itself it may pick ORDER_PRODUCT_INDEX and sort every line of the product, so the index is named. The
+           version is in the index, lines of other versions are skipped without reading the table */
+        List<Object> args = new ArrayList<>();
+        args.add(productId);
+        args.add(afterOrderId);
+        args.add(untilOrderId);
+        String where = "where op.productId = ? and op.orderId > ? and op.orderId <= ? ";
+        if (version != null) {
+            where += "and op.version = ? ";
+            args.add(version);
+        }
+
+        /* The time of every line read is a primary key lookup in ORDERS, lines outside the bounds are skipped.
+           As a join H2 would start from ORDERS instead */
+        if (startTime != null) {
+            where += "and (SELECT o.orderTime FROM ORDERS o where o.orderId = op.orderId) >= ? ";
+            args.add(Timestamp.valueOf(startTime));
+        }
+        if (endTime != null) {
+            where += "and (SELECT o.orderTime FROM ORDERS o where o.orderId = op.orderId) <= ? ";
+            args.add(Timestamp.valueOf(endTime));
+        }
+        args.add(limit);
+
+        return jdbcTemplate.queryForList("SELECT op.orderId FROM ORDERS_PRODUCTS op USE INDEX (ORDER_PRODUCT_ALL_INDEX) " +
+                where + "ORDER BY op.productId, op.orderId LIMIT ?", Long.class, args.toArray());
+    }
+
+    @Override
+    public Long findOrderIdOfLineForProduct(long productId, long afterOrderId, int lines) {
+        /* Walks ORDER_PRODUCT_ALL_INDEX alone, the table is not read */
+        List<Long> orderIds = jdbcTemplate.queryForList("SELECT op.orderId FROM ORDERS_PRODUCTS op USE INDEX (ORDER_PRODUCT_ALL_INDEX) " +
+                "where op.productId = ? and op.orderId > ? ORDER BY op.productId, op.orderId LIMIT 1 OFFSET ?",
+                Long.class, productId, afterOrderId, lines - 1);
+        return orderIds.isEmpty() ? null : orderIds.get(0);
+    }
 }
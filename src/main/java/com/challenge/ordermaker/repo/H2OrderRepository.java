@@ -2,15 +2,37 @@ package com.challenge.ordermaker.repo;
 
 import com.challenge.ordermaker.api.v1.request.OrderCreateRequest;
 import com.challenge.ordermaker.dao.OrderDao;
+import com.challenge.ordermaker.dao.OrderPriceDriftDao;
+import com.challenge.ordermaker.dao.OrderSnapshotDao;
+import com.challenge.ordermaker.dao.OrderSummaryDao;
+import com.challenge.ordermaker.dao.OrderWithProductsDao;
+import com.challenge.ordermaker.dao.ProductDao;
+import com.challenge.ordermaker.error.UnknownProductsException;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.jdbc.core.ArgumentPreparedStatementSetter;
+import org.springframework.jdbc.core.ConnectionCallback;
 import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
 import org.springframework.stereotype.Repository;
 
 import javax.transaction.Transactional;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
 import java.sql.Timestamp;
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
 import java.util.Set;
+import java.util.TreeSet;
+import java.util.function.Consumer;
 
 @Repository
 public class H2OrderRepository implements OrderRepository {
@@ -21,24 +43,255 @@ public class H2OrderRepository implements OrderRepository {
     @Autowired
     private ProductRepository productRepository;
 
+    @Autowired
+    private IdAllocator idAllocator;
+
+    @Autowired
+    private ProductSalesRepository productSalesRepository;
+
+    private static final int SNAPSHOT_BACKFILL_BATCH = 1000;
+
+    /* Rows per round trip of a streamed range, only used when H2 runs as a server */
+    private static final int STREAM_FETCH_SIZE = 1000;
+
+    private static final String ORDER_WITH_PRODUCTS_COLUMNS =
+            "SELECT o.orderId, o.buyerEmailId, o.orderTime, p.productId, p.name, p.price, p.version, p.latest ";
+
+    private static final String ORDER_WITH_PRODUCTS_JOINS =
+            "JOIN ORDERS_PRODUCTS op ON op.orderId = o.orderId " +
+                    "JOIN PRODUCTS p ON p.productId = op.productId and p.version = op.version ";
+
+
+    @Override
+    public List<OrderWithProductsDao> retrieveAllWithProductsBetween(LocalDateTime startTime, LocalDateTime endTime) {
+        List<OrderWithProductsDao> results = new ArrayList<>();
+        streamAllWithProductsBetween(startTime, endTime, results::add);
+        return results;
+    }
+
+    @Override
+    public void streamAllWithProductsBetween(LocalDateTime startTime, LocalDateTime endTime, Consumer<OrderWithProductsDao> consumer) {
+        /* One joined query instead of one ORDERS_PRODUCTS and one PRODUCTS query per order */
+        OrderAssembler assembler = new OrderAssembler(consumer);
+        queryLazily(ORDER_WITH_PRODUCTS_COLUMNS +
+                        "FROM ORDERS o " + ORDER_WITH_PRODUCTS_JOINS +
+                        "where o.orderTime >= ? and o.orderTime <= ? ORDER BY o.orderTime, o.orderId",
+                assembler, Timestamp.valueOf(startTime), Timestamp.valueOf(endTime));
+        assembler.finish();
+    }
 
     @Override
-    public Set<OrderDao> retrieveAllBetween(LocalDateTime startTime, LocalDateTime endTime) {
-        Set<OrderDao> results = new HashSet<>();
-        jdbcTemplate.query("SELECT orderId, buyerEmailId, orderTime FROM ORDERS where orderTime >= ? and orderTime <= ?",
+    public List<OrderWithProductsDao> retrieveWithProductsBetween(LocalDateTime startTime, LocalDateTime endTime,
+                                                                  LocalDateTime afterTime, long afterOrderId, int limit) {
+        List<Object> args = new ArrayList<>();
+        String page = orderPage(startTime, endTime, afterTime, afterOrderId, limit, args);
+
+        List<OrderWithProductsDao> results = new ArrayList<>();
+        queryOrdersWithProducts(ORDER_WITH_PRODUCTS_COLUMNS +
+                        "FROM " + page + ORDER_WITH_PRODUCTS_JOINS +
+                        "ORDER BY o.orderTime, o.orderId",
+                results::add, args.toArray());
+        return results;
+    }
+
+    @Override
+    public void streamSummariesBetween(LocalDateTime startTime, LocalDateTime endTime, boolean withProductIds, Consumer<OrderSummaryDao> consumer) {
+        SummaryAssembler assembler = new SummaryAssembler(consumer, withProductIds);
+        queryLazily(summaryColumns(withProductIds) +
+                        "FROM ORDERS o " + summaryJoins(withProductIds) +
+                        "where o.orderTime >= ? and o.orderTime <= ? ORDER BY o.orderTime, o.orderId",
+                assembler, Timestamp.valueOf(startTime), Timestamp.valueOf(endTime));
+        assembler.finish();
+    }
+
+    @Override
+    public List<OrderSummaryDao> retrieveSummariesBetween(LocalDateTime startTime, LocalDateTime endTime,
+                                                         LocalDateTime afterTime, long afterOrderId, int limit, boolean withProductIds) {
+        List<Object> args = new ArrayList<>();
+        String page = orderPage(startTime, endTime, afterTime, afterOrderId, limit, args);
+
+        List<OrderSummaryDao> results = new ArrayList<>();
+        querySummaries(summaryColumns(withProductIds) +
+                        "FROM " + page + summaryJoins(withProductIds) +
+                        "ORDER BY o.orderTime, o.orderId",
+                withProductIds, results::add, args.toArray());
+        return results;
+    }
+
+    @Override
+    public Optional<OrderSummaryDao> getSummary(long orderId, boolean withProductIds) {
+        List<OrderSummaryDao> results = new ArrayList<>(1);
+        querySummaries(summaryColumns(withProductIds) +
+                        "FROM ORDERS o " + summaryJoins(withProductIds) + "where o.orderId = ?",
+                withProductIds, results::add, orderId);
+        return results.stream().findFirst();
+    }
+
+    @Override
+    public List<OrderWithProductsDao> retrieveWithProductsForBuyer(String buyerEmailId, LocalDateTime beforeTime, long beforeOrderId, int limit) {
+        List<Object> args = new ArrayList<>();
+        String page = buyerPage(buyerEmailId, beforeTime, beforeOrderId, limit, args);
+
+        List<OrderWithProductsDao> results = new ArrayList<>();
+        queryOrdersWithProducts(ORDER_WITH_PRODUCTS_COLUMNS +
+                        "FROM " + page + ORDER_WITH_PRODUCTS_JOINS +
+                        "ORDER BY o.orderTime DESC, o.orderId DESC",
+                results::add, args.toArray());
+        return results;
+    }
+
+    @Override
+    public List<OrderSummaryDao> retrieveSummariesForBuyer(String buyerEmailId, LocalDateTime beforeTime, long beforeOrderId,
+                                                           int limit, boolean withProductIds) {
+        List<Object> args = new ArrayList<>();
+        String page = buyerPage(buyerEmailId, beforeTime, beforeOrderId, limit, args);
+
+        List<OrderSummaryDao> results = new ArrayList<>();
+        querySummaries(summaryColumns(withProductIds) +
+                        "FROM " + page + summaryJoins(withProductIds) +
+                        "ORDER BY o.orderTime DESC, o.orderId DESC",
+                withProductIds, results::add, args.toArray());
+        return results;
+    }
+
+    @Override
+    public List<OrderWithProductsDao> retrieveWithProductsForIds(List<Long> orderIds) {
+        List<OrderWithProductsDao> results = new ArrayList<>();
+        if (!orderIds.isEmpty()) {
+            queryOrdersWithProducts(ORDER_WITH_PRODUCTS_COLUMNS +
+                            "FROM ORDERS o " + ORDER_WITH_PRODUCTS_JOINS +
+                            "where o.orderId IN (" + placeholders(orderIds.size()) + ") ORDER BY o.orderId",
+                    results::add, orderIds.toArray());
+        }
+        return results;
+    }
+
+    @Override
+    public List<OrderSummaryDao> retrieveSummariesForIds(List<Long> orderIds, boolean withProductIds) {
+        List<OrderSummaryDao> results = new ArrayList<>();
+        if (!orderIds.isEmpty()) {
+            querySummaries(summaryColumns(withProductIds) +
+                            "FROM ORDERS o " + summaryJoins(withProductIds) +
+                            "where o.orderId IN (" + placeholders(orderIds.size()) + ") ORDER BY o.orderId",
+                    withProductIds, results::add, orderIds.toArray());
+        }
+        return results;
+    }
+
+    private static String placeholders(int count) {
+        return String.join(", ", Collections.nCopies(count, "?"));
+    }
+
+    /* Same keyset pagination as orderPage, newest first, on ORDER_BUYER_INDEX. H2 only reads that index in its own order,
+       and stops after limit rows, when the ORDER BY names the key column too. Without it all orders of the buyer are
+       read and sorted */
+    private static String buyerPage(String buyerEmailId, LocalDateTime beforeTime, long beforeOrderId, int limit, List<Object> args) {
+        args.add(buyerEmailId);
+        String keyset = "";
+        if (beforeTime != null) {
+            keyset = "and orderTime <= ? and (orderTime < ? or (orderTime = ? and orderId < ?)) ";
+            args.addAll(Arrays.asList(Timestamp.valueOf(beforeTime), Timestamp.valueOf(beforeTime), Timestamp.valueOf(beforeTime), beforeOrderId));
+        }
+        args.add(limit);
+        return "(SELECT orderId, buyerEmailId, orderTime FROM ORDERS " +
+                "where buyerEmailKey = LOWER(TRIM(?)) " + keyset +
+                "ORDER BY buyerEmailKey, orderTime DESC, orderId DESC LIMIT ?) o ";
+    }
+
+    /* Keyset pagination on (orderTime, orderId). The limit applies to orders, not to their lines,
+       so the page of orders is selected first, as the derived table o, and then joined with its lines */
+    private static String orderPage(LocalDateTime startTime, LocalDateTime endTime,
+                                    LocalDateTime afterTime, long afterOrderId, int limit, List<Object> args) {
+        args.addAll(Arrays.asList(Timestamp.valueOf(startTime), Timestamp.valueOf(endTime)));
+        String keyset = "";
+        if (afterTime != null) {
+            /* The extra orderTime >= ? moves the start of the ORDER_TIME_INDEX range scan to the cursor,
+               so deep pages cost the same as the first one */
+            keyset = "and orderTime >= ? and (orderTime > ? or (orderTime = ? and orderId > ?)) ";
+            args.addAll(Arrays.asList(Timestamp.valueOf(afterTime), Timestamp.valueOf(afterTime), Timestamp.valueOf(afterTime), afterOrderId));
+        }
+        args.add(limit);
+        return "(SELECT orderId, buyerEmailId, orderTime FROM ORDERS " +
+                "where orderTime >= ? and orderTime <= ? " + keyset +
+                "ORDER BY orderTime, orderId LIMIT ?) o ";
+    }
+
+    /* The cost comes from the order snapshot, a primary key lookup. Only orders placed before snapshots were written
+       sum the prices of their lines */
+    private static String summaryColumns(boolean withProductIds) {
+        return "SELECT o.orderId, o.buyerEmailId, o.orderTime, COALESCE(s.orderCost, " +
+                "(SELECT SUM(p.price) FROM ORDERS_PRODUCTS lp JOIN PRODUCTS p ON p.productId = lp.productId and p.version = lp.version " +
+                "where lp.orderId = o.orderId)) AS orderCost" + (withProductIds ? ", op.productId " : " ");
+    }
+
+    /* Product ids are read from the lines alone, PRODUCTS is not joined */
+    private static String summaryJoins(boolean withProductIds) {
+        return "LEFT JOIN ORDER_SNAPSHOTS s ON s.orderId = o.orderId " +
+                (withProductIds ? "JOIN ORDERS_PRODUCTS op ON op.orderId = o.orderId " : "");
+    }
+
+    private void querySummaries(String sql, boolean withProductIds, Consumer<OrderSummaryDao> consumer, Object... args) {
+        SummaryAssembler assembler = new SummaryAssembler(consumer, withProductIds);
+        jdbcTemplate.query(sql, assembler, args);
+        assembler.finish();
+    }
+
+    @Override
+    public List<OrderPriceDriftDao> retrievePriceDriftBetween(LocalDateTime from, LocalDateTime until) {
+        /* Every line is joined once with the version it was placed with and once with the current head of its product.
+           The database sums both per order, only one row per order comes back */
+        List<OrderPriceDriftDao> results = new ArrayList<>();
+        jdbcTemplate.query("SELECT o.orderId, o.orderTime, SUM(p.price) AS originalCost, SUM(h.price) AS currentCost " +
+                        "FROM ORDERS o JOIN ORDERS_PRODUCTS op ON op.orderId = o.orderId " +
+                        "JOIN PRODUCTS p ON p.productId = op.productId and p.version = op.version " +
+                        "JOIN PRODUCT_HEADS h ON h.productId = op.productId " +
+                        "where o.orderTime >= ? and o.orderTime < ? " +
+                        "GROUP BY o.orderTime, o.orderId ORDER BY o.orderTime, o.orderId",
                 resultSet -> {
-                    long orderId = resultSet.getLong("orderId");
-                    results.add(
-                            new OrderDao(
-                                    orderId,
-                                    resultSet.getString("buyerEmailId"),
-                                    resultSet.getTimestamp("orderTime")
-                            ));
-                }, Timestamp.valueOf(startTime), Timestamp.valueOf(endTime));
+                    results.add(new OrderPriceDriftDao(
+                            resultSet.getLong("orderId"),
+                            resultSet.getTimestamp("orderTime"),
+                            resultSet.getFloat("originalCost"),
+                            resultSet.getFloat("currentCost")
+                    ));
+                }, Timestamp.valueOf(from), Timestamp.valueOf(until));
 
         return results;
     }
 
+    /* For ranges of any size. By default H2 builds the whole result of a query before it returns the first row.
+       With LAZY_QUERY_EXECUTION it computes each row when it is fetched, but only if it does not have to sort: the
+       query must start from ORDERS, whose ORDER_TIME_INDEX gives the order of the rows. Left to itself H2 may start the
+       join from the smaller PRODUCTS table, so FORCE_JOIN_ORDER keeps the tables in the order they are written.
+       Both are session settings, they are reset before the connection goes back to the pool */
+    private void queryLazily(String sql, RowCallbackHandler handler, Object... args) {
+        jdbcTemplate.execute((ConnectionCallback<Void>) connection -> {
+            try (Statement statement = connection.createStatement()) {
+                statement.execute("SET LAZY_QUERY_EXECUTION 1");
+                statement.execute("SET FORCE_JOIN_ORDER TRUE");
+                try (PreparedStatement query = connection.prepareStatement(sql)) {
+                    query.setFetchSize(STREAM_FETCH_SIZE);
+                    new ArgumentPreparedStatementSetter(args).setValues(query);
+                    try (ResultSet resultSet = query.executeQuery()) {
+                        while (resultSet.next()) {
+                            handler.processRow(resultSet);
+                        }
+                    }
+                } finally {
+                    statement.execute("SET FORCE_JOIN_ORDER FALSE");
+                    statement.execute("SET LAZY_QUERY_EXECUTION 0");
+                }
+            }
+            return null;
+        });
+    }
+
+    private void queryOrdersWithProducts(String sql, Consumer<OrderWithProductsDao> consumer, Object... args) {
+        OrderAssembler assembler = new OrderAssembler(consumer);
+        jdbcTemplate.query(sql, assembler, args);
+        assembler.finish();
+    }
+
     @Override
     public OrderDao get(long orderId) {
         return jdbcTemplate.queryForObject(
@@ -50,36 +303,282 @@ public class H2OrderRepository implements OrderRepository {
                 ), orderId);
     }
 
+    @Override
+    public Optional<OrderSnapshotDao> getSnapshot(long orderId) {
+        /* One primary key lookup, the lines and the total were fixed when the order was placed */
+        return jdbcTemplate.query(
+                "SELECT orderId, buyerEmailId, orderTime, orderCost, productLines FROM ORDER_SNAPSHOTS where orderId = ?",
+                resultSet -> resultSet.next() ? Optional.of(new OrderSnapshotDao(
+                        new OrderDao(
+                                orderId,
+                                resultSet.getString("buyerEmailId"),
+                                resultSet.getTimestamp("orderTime")
+                        ),
+                        OrderSnapshotCodec.decode(resultSet.getBytes("productLines")),
+                        resultSet.getFloat("orderCost"))) : Optional.empty(), orderId);
+    }
+
+
+    @Override
+    public int countAllBefore(LocalDateTime cutoff) {
+        return jdbcTemplate.queryForObject("SELECT COUNT(*) FROM ORDERS where orderTime < ?", Integer.class, Timestamp.valueOf(cutoff));
+    }
+
+    @Transactional   /* Lines and orders go together */
+    @Override
+    public int purgeOldestBefore(LocalDateTime cutoff, int limit) {
+        /* The ids come from a range scan on ORDER_TIME_INDEX, the deletes are lookups by orderId, so the cost of a batch
+           depends on its size and not on what is kept. PRODUCT_SALES_HOURLY is left alone, sales reports still cover
+           purged orders */
+        List<Long> orderIds = jdbcTemplate.queryForList("SELECT orderId FROM ORDERS where orderTime < ? ORDER BY orderTime, orderId LIMIT ?",
+                Long.class, Timestamp.valueOf(cutoff), limit);
+        if (orderIds.isEmpty()) {
+            return 0;
+        }
+        String in = "IN (" + placeholders(orderIds.size()) + ")";
+        Object[] ids = orderIds.toArray();
+        jdbcTemplate.update("DELETE FROM ORDERS_PRODUCTS where orderId " + in, ids);
+        jdbcTemplate.update("DELETE FROM ORDER_SNAPSHOTS where orderId " + in, ids);
+        return jdbcTemplate.update("DELETE FROM ORDERS where orderId " + in, ids);
+    }
 
     @Transactional   /* Make sure that the write to two tables are atomic */
     @Override
-    public OrderDao save(OrderCreateRequest request) {
-        long id = jdbcTemplate.queryForObject("SELECT SQ_ORDER_ID.nextval from dual;", Long.class);
+    public OrderWithProductsDao save(OrderCreateRequest request) {
+        /* Get the latest version of all products when creating order,
+           This need to be done using a row level locking to avoid a race condition.
+           ie, some other transaction change the version after we read it and before we insert into junction table.
+           The same statement tells which products do not exist, before anything is written
+        */
+        Map<Long, ProductDao> latestProducts = productRepository.lockLatestProducts(request.getProductSet());
+        requireKnownProducts(request.getProductSet(), latestProducts);
+
+        long id = idAllocator.nextOrderId();
 
         OrderDao orderDao = new OrderDao(id, request.getBuyerEmailId(), Timestamp.valueOf(request.getOrderTime()));
 
         jdbcTemplate.update("insert into ORDERS (orderId, buyerEmailId, orderTime)  VALUES (?, ?, ?)",
                 orderDao.getOrderId(), orderDao.getBuyerEmailId(), orderDao.getOrderTime());
 
-        updateProductListInAssociationTable(request, orderDao);
+        Set<ProductDao> products = updateProductListInAssociationTable(request, orderDao, latestProducts);
 
-        return orderDao;
+        OrderWithProductsDao order = new OrderWithProductsDao(orderDao, products);
+        insertReadModels(Collections.singletonList(order));
+        return order;
     }
 
-    private void updateProductListInAssociationTable(OrderCreateRequest request, OrderDao orderDao) {
-        request.getProductSet().forEach(productId ->
-                jdbcTemplate.update("insert into ORDERS_PRODUCTS (orderId, productId, version)  VALUES (?, ?, ?)",
-                        orderDao.getOrderId(),
-                        productId,
-                        lockProductAndGetLatestVersionNumber(productId)));
+    @Transactional   /* All orders of the batch, and their lines, are committed together */
+    @Override
+    public List<OrderWithProductsDao> saveAll(List<OrderCreateRequest> requests) {
+        Set<Long> productIds = new HashSet<>();
+        requests.forEach(request -> productIds.addAll(request.getProductSet()));
+
+        /* Same row level locking as a single order, but one statement for every product of the batch */
+        Map<Long, ProductDao> latestProducts = productRepository.lockLatestProducts(productIds);
+        requireKnownProducts(productIds, latestProducts);
+
+        List<OrderWithProductsDao> results = new ArrayList<>(requests.size());
+        List<Object[]> orderRows = new ArrayList<>(requests.size());
+        List<Object[]> lineRows = new ArrayList<>();
+        for (int i = 0; i < requests.size(); i++) {
+            OrderCreateRequest request = requests.get(i);
+            OrderDao orderDao = new OrderDao(idAllocator.nextOrderId(), request.getBuyerEmailId(), Timestamp.valueOf(request.getOrderTime()));
+            orderRows.add(new Object[]{orderDao.getOrderId(), orderDao.getBuyerEmailId(), orderDao.getOrderTime()});
+
+            Set<ProductDao> products = new HashSet<>();
+            for (Long productId : request.getProductSet()) {
+                ProductDao product = latestProducts.get(productId);
+                products.add(product);
+                lineRows.add(new Object[]{orderDao.getOrderId(), productId, product.getVersion()});
+            }
+            results.add(new OrderWithProductsDao(orderDao, products));
+        }
+
+        jdbcTemplate.batchUpdate("insert into ORDERS (orderId, buyerEmailId, orderTime)  VALUES (?, ?, ?)", orderRows);
+        jdbcTemplate.batchUpdate("insert into ORDERS_PRODUCTS (orderId, productId, version)  VALUES (?, ?, ?)", lineRows);
+        insertReadModels(results);
+
+        return results;
     }
 
-    private int lockProductAndGetLatestVersionNumber(long productId) {
-        /* Get the latest version of product when creating order,
-           This need to be done using a row level locking to avoid a race condition.
-           ie, some other transaction change the version after we read it and before we insert into junction table
-        */
-        productRepository.lockProduct(productId);
-        return productRepository.getLatestVersionNumber(productId);
+    @Transactional   /* A version conflict on any line rolls back the whole order */
+    @Override
+    public OrderWithProductsDao saveOptimistic(OrderCreateRequest request, Map<Long, ProductDao> resolvedProducts) {
+        /* Plain read, no row is locked, concurrent orders for the same product do not wait for each other. The caller
+           usually resolved the products from the catalog. Without them this is a retry after a conflict, and the
+           catalog may still hold the version that conflicted, so the heads are read from the table */
+        Map<Long, ProductDao> latestProducts = resolvedProducts != null ? resolvedProducts : productRepository.readActiveForIds(request.getProductSet());
+        requireKnownProducts(request.getProductSet(), latestProducts);
+
+        OrderDao orderDao = new OrderDao(idAllocator.nextOrderId(), request.getBuyerEmailId(), Timestamp.valueOf(request.getOrderTime()));
+
+        List<Object[]> rows = new ArrayList<>(request.getProductSet().size());
+        Set<ProductDao> products = new HashSet<>();
+        for (Long productId : request.getProductSet()) {
+            ProductDao product = latestProducts.get(productId);
+            products.add(product);
+            rows.add(new Object[]{orderDao.getOrderId(), productId, product.getVersion()});
+        }
+
+        jdbcTemplate.update("insert into ORDERS (orderId, buyerEmailId, orderTime)  VALUES (?, ?, ?)",
+                orderDao.getOrderId(), orderDao.getBuyerEmailId(), orderDao.getOrderTime());
+
+        /* The version check and the insert are one statement. A line is only written while the head is still at the version we read */
+        int[] inserted = jdbcTemplate.batchUpdate("insert into ORDERS_PRODUCTS (orderId, productId, version) " +
+                "SELECT ?, productId, version FROM PRODUCT_HEADS where productId = ? and version = ?", rows);
+        for (int count : inserted) {
+            if (count != 1) {
+                throw new OptimisticLockingFailureException("Product changed while placing order " + orderDao.getOrderId());
+            }
+        }
+
+        OrderWithProductsDao order = new OrderWithProductsDao(orderDao, products);
+        insertReadModels(Collections.singletonList(order));
+        return order;
+    }
+
+    /* The read models of an order, its snapshot and its sales, are written in the same transaction as the order itself */
+    private void insertReadModels(List<OrderWithProductsDao> orders) {
+        insertSnapshots(jdbcTemplate, orders);
+        productSalesRepository.addSales(orders);
+    }
+
+    private static void insertSnapshots(JdbcTemplate jdbcTemplate, List<OrderWithProductsDao> orders) {
+        List<Object[]> rows = new ArrayList<>(orders.size());
+        for (OrderWithProductsDao order : orders) {
+            List<ProductDao> lines = OrderSnapshotCodec.sortedLines(order.getProducts());
+            rows.add(new Object[]{order.getOrder().getOrderId(), order.getOrder().getBuyerEmailId(), order.getOrder().getOrderTime(),
+                    OrderSnapshotCodec.orderCost(lines), OrderSnapshotCodec.encode(lines)});
+        }
+        jdbcTemplate.batchUpdate("insert into ORDER_SNAPSHOTS (orderId, buyerEmailId, orderTime, orderCost, productLines)  VALUES (?, ?, ?, ?, ?)", rows);
+    }
+
+    /* Orders placed before ORDER_SNAPSHOTS existed get their snapshot, SNAPSHOT_BACKFILL_BATCH orders at a time in orderId
+       order, so that every order is read with one primary key lookup. Run by SchemaInitializer after a changed data.sql,
+       orders that have a snapshot are skipped. Returns the number of snapshots written */
+    static int backfillSnapshots(JdbcTemplate jdbcTemplate) {
+        int written = 0;
+        long afterOrderId = 0;
+        while (true) {
+            List<Long> orderIds = jdbcTemplate.queryForList("SELECT o.orderId FROM ORDERS o where o.orderId > ? and " +
+                            "NOT EXISTS (SELECT 1 FROM ORDER_SNAPSHOTS s where s.orderId = o.orderId) ORDER BY o.orderId LIMIT ?",
+                    Long.class, afterOrderId, SNAPSHOT_BACKFILL_BATCH);
+            if (orderIds.isEmpty()) {
+                return written;
+            }
+
+            List<OrderWithProductsDao> orders = new ArrayList<>(orderIds.size());
+            OrderAssembler assembler = new OrderAssembler(orders::add);
+            jdbcTemplate.query(ORDER_WITH_PRODUCTS_COLUMNS + "FROM ORDERS o " + ORDER_WITH_PRODUCTS_JOINS +
+                    "where o.orderId IN (" + placeholders(orderIds.size()) + ") ORDER BY o.orderId", assembler, orderIds.toArray());
+            assembler.finish();
+            insertSnapshots(jdbcTemplate, orders);
+
+            written += orders.size();
+            afterOrderId = orderIds.get(orderIds.size() - 1);
+        }
+    }
+
+    private Set<ProductDao> updateProductListInAssociationTable(OrderCreateRequest request, OrderDao orderDao,
+                                                                Map<Long, ProductDao> latestProducts) {
+        List<Object[]> rows = new ArrayList<>(request.getProductSet().size());
+        Set<ProductDao> products = new HashSet<>();
+        for (Long productId : request.getProductSet()) {
+            ProductDao product = latestProducts.get(productId);
+            products.add(product);
+            rows.add(new Object[]{orderDao.getOrderId(), productId, product.getVersion()});
+        }
+
+        jdbcTemplate.batchUpdate("insert into ORDERS_PRODUCTS (orderId, productId, version)  VALUES (?, ?, ?)", rows);
+        return products;
+    }
+
+    private static void requireKnownProducts(Set<Long> productIds, Map<Long, ProductDao> latestProducts) {
+        Set<Long> unknownProductIds = new TreeSet<>();
+        for (Long productId : productIds) {
+            if (!latestProducts.containsKey(productId)) {
+                unknownProductIds.add(productId);
+            }
+        }
+        if (!unknownProductIds.isEmpty()) {
+            throw new UnknownProductsException(unknownProductIds);
+        }
+    }
+
+    /* Rows come back grouped by order, so every order is assembled in a single pass over the result set
+       and handed over as soon as its last line has been read */
+    private static class OrderAssembler implements RowCallbackHandler {
+        private final Consumer<OrderWithProductsDao> consumer;
+        private OrderWithProductsDao current;
+
+        private OrderAssembler(Consumer<OrderWithProductsDao> consumer) {
+            this.consumer = consumer;
+        }
+
+        @Override
+        public void processRow(ResultSet resultSet) throws SQLException {
+            long orderId = resultSet.getLong("orderId");
+            if (current == null || current.getOrder().getOrderId() != orderId) {
+                finish();
+                current = new OrderWithProductsDao(
+                        new OrderDao(
+                                orderId,
+                                resultSet.getString("buyerEmailId"),
+                                resultSet.getTimestamp("orderTime")
+                        ), new HashSet<>());
+            }
+            current.getProducts().add(new ProductDao(
+                    resultSet.getLong("productId"),
+                    resultSet.getString("name"),
+                    resultSet.getFloat("price"),
+                    resultSet.getInt("version"),
+                    resultSet.getBoolean("latest")
+            ));
+        }
+
+        private void finish() {
+            if (current != null) {
+                consumer.accept(current);
+                current = null;
+            }
+        }
+    }
+
+    /* Same single pass as OrderAssembler. Without product ids there is one row per order */
+    private static class SummaryAssembler implements RowCallbackHandler {
+        private final Consumer<OrderSummaryDao> consumer;
+        private final boolean withProductIds;
+        private OrderSummaryDao current;
+
+        private SummaryAssembler(Consumer<OrderSummaryDao> consumer, boolean withProductIds) {
+            this.consumer = consumer;
+            this.withProductIds = withProductIds;
+        }
+
+        @Override
+        public void processRow(ResultSet resultSet) throws SQLException {
+            long orderId = resultSet.getLong("orderId");
+            if (current == null || current.getOrder().getOrderId() != orderId) {
+                finish();
+                current = new OrderSummaryDao(
+                        new OrderDao(
+                                orderId,
+                                resultSet.getString("buyerEmailId"),
+                                resultSet.getTimestamp("orderTime")
+                        ),
+                        resultSet.getFloat("orderCost"),
+                        withProductIds ? new HashSet<>() : null);
+            }
+            if (withProductIds) {
+                current.getProductIds().add(resultSet.getLong("productId"));
+            }
+        }
+
+        private void finish() {
+            if (current != null) {
+                consumer.accept(current);
+                current = null;
+            }
+        }
     }
-}
\ No newline at end of file
+}
@@ -4,13 +4,24 @@ import com.challenge.ordermaker.api.v1.request.ProductCreateRequest;
 import com.challenge.ordermaker.api.v1.request.ProductUpdateRequest;
 import com.challenge.ordermaker.dao.ProductDao;
 import com.challenge.ordermaker.error.ResourceNotFoundException;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
 import org.springframework.stereotype.Repository;
 
 import javax.transaction.Transactional;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
+import java.util.TreeSet;
 
 @Repository
 public class H2ProductRepository implements ProductRepository {
@@ -18,10 +29,19 @@ public class H2ProductRepository implements ProductRepository {
     @Autowired
     private JdbcTemplate jdbcTemplate;
 
+    @Autowired
+    private NamedParameterJdbcTemplate namedParameterJdbcTemplate;
+
+    @Autowired
+    private IdAllocator idAllocator;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
     @Override
     public Set<ProductDao> getAllActive() {
         Set<ProductDao> results = new HashSet<>();
-        jdbcTemplate.query("SELECT productId, name, price, version, latest FROM ACTIVE_PRODUCTS",
+        jdbcTemplate.query("SELECT productId, name, price, version, TRUE AS latest FROM PRODUCT_HEADS",
                 resultSet -> {
                     results.add(new ProductDao(
                             resultSet.getLong("productId"),
@@ -35,10 +55,20 @@ public class H2ProductRepository implements ProductRepository {
         return results;
     }
 
+    @Override
+    public Map<Long, ProductDao> readActiveForIds(Set<Long> productIds) {
+        return getActiveForIds(productIds);
+    }
+
+    @Override
+    public int countActive() {
+        return jdbcTemplate.queryForObject("SELECT COUNT(*) FROM PRODUCT_HEADS", Integer.class);
+    }
+
     @Override
     public ProductDao getActiveForId(long productId) {
         return jdbcTemplate.queryForObject(
-                "SELECT productId, name, price, version, latest FROM ACTIVE_PRODUCTS where productId = ?",
+                "SELECT productId, name, price, version, TRUE AS latest FROM PRODUCT_HEADS where productId = ?",
                 (resultSet, i) -> new ProductDao(
                         resultSet.getLong("productId"),
                         resultSet.getString("name"),
@@ -48,30 +78,53 @@ public class H2ProductRepository implements ProductRepository {
                 ), productId);
     }
 
+    @Override
+    public Map<Long, ProductDao> getActiveForIds(Set<Long> productIds) {
+        Map<Long, ProductDao> results = new HashMap<>();
+        namedParameterJdbcTemplate.query(
+                "SELECT productId, name, price, version, TRUE AS latest FROM PRODUCT_HEADS where productId IN (:productIds)",
+                new MapSqlParameterSource("productIds", productIds),
+                resultSet -> {
+                    ProductDao dao = new ProductDao(
+                            resultSet.getLong("productId"),
+                            resultSet.getString("name"),
+                            resultSet.getFloat("price"),
+                            resultSet.getInt("version"),
+                            resultSet.getBoolean("latest"));
+                    results.put(dao.getProductId(), dao);
+                });
+
+        return results;
+    }
+
     @Override
     public ProductDao getForVersion(long productId, int version) {
         return jdbcTemplate.queryForObject(
-                "SELECT productId, name, price, version, latest FROM PRODUCTS where version = ? and productId = ?",
+                "SELECT productId, name, price, version FROM PRODUCTS where version = ? and productId = ?",
                 (resultSet, i) -> new ProductDao(
                         resultSet.getLong("productId"),
                         resultSet.getString("name"),
                         resultSet.getFloat("price"),
                         resultSet.getInt("version"),
-                        resultSet.getBoolean("latest")
+                        false
                 ), version, productId);
     }
 
+    @Transactional  /* The history row and the head row are written together */
     @Override
     public ProductDao save(ProductCreateRequest request) {
-        long id = jdbcTemplate.queryForObject("SELECT SQ_PRODUCT_ID.nextval from dual;", Long.class);
+        long id = idAllocator.nextProductId();
 
-        /* do we need transaction ?  If update fails after fetching an, we loose an id, but it does not matter*/
+        /* If insert fails after fetching an id, we loose an id, but it does not matter*/
 
         ProductDao productDao = new ProductDao(id, request.getName(), request.getPrice(), 1, true);
 
         jdbcTemplate.update("insert into PRODUCTS (productId, name, price, version, latest)  VALUES (?, ?, ?, ?, ?)",
                 productDao.getProductId(), productDao.getName(), productDao.getPrice(), productDao.getVersion(), productDao.isLatest());
 
+        jdbcTemplate.update("insert into PRODUCT_HEADS (productId, name, price, version)  VALUES (?, ?, ?, ?)",
+                productDao.getProductId(), productDao.getName(), productDao.getPrice(), productDao.getVersion());
+
         return productDao;
     }
 
@@ -80,7 +133,9 @@ public class H2ProductRepository implements ProductRepository {
     public ProductDao update(ProductUpdateRequest request) {
         long productId = request.getProductId();
 
-        int version = getLatestVersionNumber(productId);
+        /* Locking the head row makes concurrent updates (and order placements) of the same product wait for us */
+        int version = jdbcTemplate.query("SELECT version FROM PRODUCT_HEADS where productId = ? FOR UPDATE",
+                resultSet -> resultSet.next() ? resultSet.getInt("version") : 0, productId);
 
         if (version == 0) {
             throw new ResourceNotFoundException("productId not found");
@@ -92,24 +147,122 @@ public class H2ProductRepository implements ProductRepository {
         jdbcTemplate.update("insert into PRODUCTS (productId, name, price, version, latest)  VALUES (?, ?, ?, ?, ?)",
                 productDao.getProductId(), productDao.getName(), productDao.getPrice(), productDao.getVersion(), productDao.isLatest());
 
+        jdbcTemplate.update("UPDATE PRODUCT_HEADS set name = ?, price = ?, version = ? where productId = ?",
+                productDao.getName(), productDao.getPrice(), productDao.getVersion(), productDao.getProductId());
+
         return productDao;
     }
 
+    @Transactional  /* All products of the batch are created together */
     @Override
-    public int getLatestVersionNumber(long productId) {
-        return jdbcTemplate.queryForObject("SELECT count(*) FROM PRODUCTS where productId = ?", Integer.class, productId);
+    public List<ProductDao> saveAll(List<ProductCreateRequest> requests) {
+        List<ProductDao> results = new ArrayList<>(requests.size());
+        List<Object[]> productRows = new ArrayList<>(requests.size());
+        List<Object[]> headRows = new ArrayList<>(requests.size());
+        for (int i = 0; i < requests.size(); i++) {
+            ProductDao productDao = new ProductDao(idAllocator.nextProductId(), requests.get(i).getName(), requests.get(i).getPrice(), 1, true);
+            results.add(productDao);
+            productRows.add(new Object[]{productDao.getProductId(), productDao.getName(), productDao.getPrice(), productDao.getVersion(), productDao.isLatest()});
+            headRows.add(new Object[]{productDao.getProductId(), productDao.getName(), productDao.getPrice(), productDao.getVersion()});
+        }
+
+        jdbcTemplate.batchUpdate("insert into PRODUCTS (productId, name, price, version, latest)  VALUES (?, ?, ?, ?, ?)", productRows);
+        jdbcTemplate.batchUpdate("insert into PRODUCT_HEADS (productId, name, price, version)  VALUES (?, ?, ?, ?)", headRows);
+
+        return results;
     }
 
+    @Transactional  /* All updates of the batch are applied together. ProductService hands in chunks of bounded size */
     @Override
-    public void lockProduct(long productId) {
-        jdbcTemplate.queryForObject(
-                "SELECT productId, name, price, version, latest FROM PRODUCTS where latest = TRUE and productId = ? FOR UPDATE",
-                (resultSet, i) -> new ProductDao(
-                        resultSet.getLong("productId"),
-                        resultSet.getString("name"),
-                        resultSet.getFloat("price"),
-                        resultSet.getInt("version"),
-                        resultSet.getBoolean("latest")
-                ), productId);
+    public List<ProductDao> updateAll(List<ProductUpdateRequest> requests) {
+        Set<Long> productIds = new HashSet<>();
+        requests.forEach(request -> productIds.add(request.getProductId()));
+
+        /* One statement locks the head rows and resolves the current version of every product in the batch */
+        Map<Long, Integer> originalVersions = new HashMap<>();
+        namedParameterJdbcTemplate.query(
+                "SELECT productId, version FROM PRODUCT_HEADS where productId IN (:productIds) FOR UPDATE",
+                new MapSqlParameterSource("productIds", productIds),
+                resultSet -> {
+                    originalVersions.put(resultSet.getLong("productId"), resultSet.getInt("version"));
+                });
+
+        /* A product can be updated more than once in the same batch, every update gets its own version.
+           Only the last one is the latest, so we never need to flip the flag of a row written by this batch */
+        Map<Long, ProductDao> heads = new LinkedHashMap<>();
+        List<ProductDao> results = new ArrayList<>(requests.size());
+        for (ProductUpdateRequest request : requests) {
+            Integer originalVersion = originalVersions.get(request.getProductId());
+            if (originalVersion == null) {
+                results.add(null);
+                continue;
+            }
+            ProductDao previous = heads.get(request.getProductId());
+            int version = (previous == null ? originalVersion : previous.getVersion()) + 1;
+            ProductDao productDao = new ProductDao(request.getProductId(), request.getName(), request.getPrice(), version, true);
+            heads.put(productDao.getProductId(), productDao);
+            results.add(productDao);
+        }
+
+        List<Object[]> flagRows = new ArrayList<>(heads.size());
+        List<Object[]> headRows = new ArrayList<>(heads.size());
+        heads.values().forEach(head -> {
+            flagRows.add(new Object[]{originalVersions.get(head.getProductId()), head.getProductId()});
+            headRows.add(new Object[]{head.getName(), head.getPrice(), head.getVersion(), head.getProductId()});
+        });
+        List<Object[]> productRows = new ArrayList<>(results.size());
+        results.stream().filter(Objects::nonNull).forEach(productDao ->
+                productRows.add(new Object[]{productDao.getProductId(), productDao.getName(), productDao.getPrice(), productDao.getVersion(),
+                        heads.get(productDao.getProductId()) == productDao}));
+
+        jdbcTemplate.batchUpdate("UPDATE PRODUCTS set latest='false' where version= ? and productId =?;", flagRows);
+        jdbcTemplate.batchUpdate("insert into PRODUCTS (productId, name, price, version, latest)  VALUES (?, ?, ?, ?, ?)", productRows);
+        jdbcTemplate.batchUpdate("UPDATE PRODUCT_HEADS set name = ?, price = ?, version = ? where productId = ?", headRows);
+
+        return results;
+    }
+
+    @Override
+    public Map<Long, Integer> getLatestVersionNumbers(Set<Long> productIds) {
+        /* Primary key lookups, independent of how many versions the products have. Products that do not exist are
+           simply missing from the result */
+        Map<Long, Integer> results = new HashMap<>();
+        namedParameterJdbcTemplate.query(
+                "SELECT productId, version FROM PRODUCT_HEADS where productId IN (:productIds)",
+                new MapSqlParameterSource("productIds", productIds),
+                resultSet -> {
+                    results.put(resultSet.getLong("productId"), resultSet.getInt("version"));
+                });
+
+        return results;
+    }
+
+    @Override
+    public Map<Long, ProductDao> lockLatestProducts(Set<Long> productIds) {
+        /* One statement locks the head row of every product and gives back its latest version. The ids are bound in
+           ascending order and H2 locks the rows as it reads them from the primary key, in productId order whatever the
+           order of the IN list. Concurrent orders so always take their locks in the same order and cannot deadlock */
+        Map<Long, ProductDao> results = new HashMap<>();
+        lockWaitTimer("lockLatestProducts").record(() -> namedParameterJdbcTemplate.query(
+                "SELECT productId, name, price, version, TRUE AS latest FROM PRODUCT_HEADS where productId IN (:productIds) " +
+                        "ORDER BY productId FOR UPDATE",
+                new MapSqlParameterSource("productIds", new TreeSet<>(productIds)),
+                resultSet -> {
+                    ProductDao dao = new ProductDao(
+                            resultSet.getLong("productId"),
+                            resultSet.getString("name"),
+                            resultSet.getFloat("price"),
+                            resultSet.getInt("version"),
+                            resultSet.getBoolean("latest"));
+                    results.put(dao.getProductId(), dao);
+                }));
+
+        return results;
+    }
+
+    /* Time spent in the FOR UPDATE statements. They are single row primary key reads, so under contention this is
+       almost entirely the wait for another transaction to release the product rows */
+    private Timer lockWaitTimer(String method) {
+        return meterRegistry.timer("ordermaker.product.lock.wait", "method", method);
     }
-}
\ No newline at end of file
+}
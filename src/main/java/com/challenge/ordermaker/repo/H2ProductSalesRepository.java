@@ -0,0 +1,190 @@
+package com.challenge.ordermaker.repo;
+
+import com.challenge.ordermaker.api.v1.request.SalesGrouping;
+import com.challenge.ordermaker.dao.OrderWithProductsDao;
+import com.challenge.ordermaker.dao.ProductDao;
+import com.challenge.ordermaker.dao.ProductSalesDao;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.TreeMap;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/* PRODUCT_SALES_HOURLY has one row per (hourStart, productId, version, stripe). Placing orders adds to the rows of
+   their lines, reports sum the rows of the hours they cover, stripes included, and never read ORDERS_PRODUCTS.
+
+   Every order of a popular product in the same hour would update the same row, and wait for the transaction that
+   updated it last to commit. So a transaction adding sales takes a stripe that no other open transaction has, and
+   only updates rows of that stripe. The lowest free stripe is taken, so an hour has as many rows per product version
+   as orders were placed at the same time, which the connection pool bounds */
+@Repository
+@RequiredArgsConstructor
+public class H2ProductSalesRepository implements ProductSalesRepository {
+
+    private static final String ADD_SALES = "UPDATE PRODUCT_SALES_HOURLY SET units = units + ?, revenue = revenue + ? " +
+            "where hourStart = ? and productId = ? and version = ? and stripe = ?";
+
+    private static final String CREATE_HOUR = "INSERT INTO PRODUCT_SALES_HOURLY (hourStart, productId, version, stripe, units, revenue) " +
+            "SELECT ?, ?, ?, ?, 0, 0 FROM DUAL where NOT EXISTS " +
+            "(SELECT 1 FROM PRODUCT_SALES_HOURLY where hourStart = ? and productId = ? and version = ? and stripe = ?)";
+
+    /* Sorted, so that the rows of a stripe are always written in the same order */
+    private static final Comparator<HourlySales> ROW_ORDER = Comparator.comparing(HourlySales::getHourStart)
+            .thenComparingLong(HourlySales::getProductId)
+            .thenComparingInt(HourlySales::getVersion);
+
+    @Autowired
+    private final JdbcTemplate jdbcTemplate;
+
+    /* Stripes no open transaction holds. More are created when all of them are taken */
+    private final Queue<Integer> freeStripes = new PriorityBlockingQueue<>();
+
+    private final AtomicInteger stripes = new AtomicInteger();
+
+    @Override
+    public void addSales(List<OrderWithProductsDao> orders) {
+        /* A batch of orders touches every row once, however many of its orders sold the product in that hour */
+        Map<HourlySales, HourlySales> rows = new TreeMap<>(ROW_ORDER);
+        for (OrderWithProductsDao order : orders) {
+            Timestamp hourStart = Timestamp.valueOf(order.getOrder().getOrderTime().toLocalDateTime().truncatedTo(ChronoUnit.HOURS));
+            for (ProductDao product : order.getProducts()) {
+                HourlySales key = new HourlySales(hourStart, product.getProductId(), product.getVersion());
+                rows.computeIfAbsent(key, k -> k).add(product.getPrice());
+            }
+        }
+        if (rows.isEmpty()) {
+            return;
+        }
+
+        int stripe = takeStripe();
+        boolean released = false;
+        try {
+            List<HourlySales> sales = new ArrayList<>(rows.keySet());
+            int[] updated = jdbcTemplate.batchUpdate(ADD_SALES, salesArgs(sales, stripe));
+            List<HourlySales> newHours = new ArrayList<>();
+            for (int i = 0; i < updated.length; i++) {
+                if (updated[i] == 0) {
+                    newHours.add(sales.get(i));
+                }
+            }
+            if (!newHours.isEmpty()) {
+                createHours(newHours, stripe);
+                jdbcTemplate.batchUpdate(ADD_SALES, salesArgs(newHours, stripe));
+            }
+            released = releaseWithTransaction(stripe);
+        } finally {
+            if (!released) {
+                freeStripes.add(stripe);
+            }
+        }
+    }
+
+    private int takeStripe() {
+        Integer stripe = freeStripes.poll();
+        return stripe != null ? stripe : stripes.getAndIncrement();
+    }
+
+    /* The row locks of the stripe are held until the transaction ends, so the stripe is only free again after that.
+       Returns false without a transaction, the caller frees it right away */
+    private boolean releaseWithTransaction(int stripe) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            return false;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+            @Override
+            public void afterCompletion(int status) {
+                freeStripes.add(stripe);
+            }
+        });
+        return true;
+    }
+
+    /* The first order of a product in an hour on a stripe creates its empty row. A stripe is only used by one
+       transaction at a time, but the row may have been created by a transaction of another application sharing the
+       database. H2 then makes our insert wait until it committed. Should the insert still fail on the primary key, the
+       batch is simply run again: creating an empty row is skipped when it exists */
+    private void createHours(List<HourlySales> newHours, int stripe) {
+        List<Object[]> args = new ArrayList<>(newHours.size());
+        for (HourlySales row : newHours) {
+            args.add(new Object[]{row.getHourStart(), row.getProductId(), row.getVersion(), stripe,
+                    row.getHourStart(), row.getProductId(), row.getVersion(), stripe});
+        }
+        try {
+            jdbcTemplate.batchUpdate(CREATE_HOUR, args);
+        } catch (DuplicateKeyException ex) {
+            jdbcTemplate.batchUpdate(CREATE_HOUR, args);
+        }
+    }
+
+    private static List<Object[]> salesArgs(List<HourlySales> sales, int stripe) {
+        List<Object[]> args = new ArrayList<>(sales.size());
+        for (HourlySales row : sales) {
+            args.add(new Object[]{row.getUnits(), row.getRevenue(), row.getHourStart(), row.getProductId(), row.getVersion(), stripe});
+        }
+        return args;
+    }
+
+    @Override
+    public List<ProductSalesDao> retrieveBetween(LocalDateTime startTime, LocalDateTime endTime, Long productId, SalesGrouping grouping) {
+        String groupColumns = grouping == SalesGrouping.VERSION ? "productId, version"
+                : grouping == SalesGrouping.HOUR ? "productId, hourStart"
+                : "productId";
+
+        /* A range scan of the primary key, or of PRODUCT_SALES_PRODUCT_INDEX for one product */
+        List<Object> args = new ArrayList<>();
+        args.add(Timestamp.valueOf(startTime.truncatedTo(ChronoUnit.HOURS)));
+        args.add(Timestamp.valueOf(endTime));
+        String product = "";
+        if (productId != null) {
+            product = "and productId = ? ";
+            args.add(productId);
+        }
+
+        List<ProductSalesDao> results = new ArrayList<>();
+        jdbcTemplate.query("SELECT " + groupColumns + ", SUM(units) AS units, SUM(revenue) AS revenue " +
+                        "FROM PRODUCT_SALES_HOURLY where hourStart >= ? and hourStart <= ? " + product +
+                        "GROUP BY " + groupColumns + " ORDER BY " + groupColumns,
+                resultSet -> {
+                    results.add(new ProductSalesDao(
+                            resultSet.getLong("productId"),
+                            grouping == SalesGrouping.VERSION ? resultSet.getInt("version") : null,
+                            grouping == SalesGrouping.HOUR ? resultSet.getTimestamp("hourStart") : null,
+                            resultSet.getLong("units"),
+                            resultSet.getDouble("revenue")
+                    ));
+                }, args.toArray());
+
+        return results;
+    }
+
+    /* One row of PRODUCT_SALES_HOURLY, and what a batch of orders adds to it */
+    @Getter
+    @RequiredArgsConstructor
+    private static class HourlySales {
+        private final Timestamp hourStart;
+        private final long productId;
+        private final int version;
+        private long units;
+        private double revenue;
+
+        private void add(float price) {
+            units++;
+            revenue += price;
+        }
+    }
+}
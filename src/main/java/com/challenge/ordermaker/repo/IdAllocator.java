@@ -0,0 +1,96 @@
+package com.challenge.ordermaker.repo;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/* Hands out order and product ids from memory.
+   The sequences are set to increment by blockSize, so every nextval reserves a block of blockSize ids
+   [value, value + increment). Ids of a block are handed out with a lock free counter, the database is only asked
+   for the next block once the current one is used up.
+   The sequence always points after the last reserved block, so ids are never reused after a restart,
+   even when blockSize changes. Unused ids of a block are lost on restart, just like a rolled back nextval. */
+@Component
+public class IdAllocator {
+
+    static final String ORDER_SEQUENCE = "SQ_ORDER_ID";
+
+    static final String PRODUCT_SEQUENCE = "SQ_PRODUCT_ID";
+
+    private final JdbcTemplate jdbcTemplate;
+
+    private final int blockSize;
+
+    private final SequenceBlocks orderIds;
+
+    private final SequenceBlocks productIds;
+
+    public IdAllocator(JdbcTemplate jdbcTemplate, @Value("${ordermaker.id.block-size:50}") int blockSize) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.blockSize = blockSize;
+        this.orderIds = new SequenceBlocks(ORDER_SEQUENCE);
+        this.productIds = new SequenceBlocks(PRODUCT_SEQUENCE);
+    }
+
+    /* Applied once the application is up. SchemaInitializer created the sequences together with the data source */
+    @EventListener(ApplicationReadyEvent.class)
+    public void applyBlockSize() {
+        jdbcTemplate.execute("ALTER SEQUENCE " + ORDER_SEQUENCE + " INCREMENT BY " + blockSize);
+        jdbcTemplate.execute("ALTER SEQUENCE " + PRODUCT_SEQUENCE + " INCREMENT BY " + blockSize);
+    }
+
+    public long nextOrderId() {
+        return orderIds.next();
+    }
+
+    public long nextProductId() {
+        return productIds.next();
+    }
+
+    private final class SequenceBlocks {
+        private final String sequence;
+        private volatile Block current = new Block(0, 0);
+
+        private SequenceBlocks(String sequence) {
+            this.sequence = sequence;
+        }
+
+        private long next() {
+            while (true) {
+                Block block = current;
+                long id = block.next.getAndIncrement();
+                if (id < block.end) {
+                    return id;
+                }
+                refill(block);
+            }
+        }
+
+        private synchronized void refill(Block exhausted) {
+            /* Another thread may have refilled while we waited for the lock */
+            if (current == exhausted) {
+                current = jdbcTemplate.query(
+                        "SELECT " + sequence + ".nextval AS blockStart, INCREMENT FROM INFORMATION_SCHEMA.SEQUENCES where SEQUENCE_NAME = ?",
+                        resultSet -> {
+                            resultSet.next();
+                            long start = resultSet.getLong("blockStart");
+                            return new Block(start, start + resultSet.getLong("INCREMENT"));
+                        }, sequence);
+            }
+        }
+    }
+
+    private static final class Block {
+        private final AtomicLong next;
+        private final long end;
+
+        private Block(long start, long end) {
+            this.next = new AtomicLong(start);
+            this.end = end;
+        }
+    }
+}
@@ -2,9 +2,20 @@ package com.challenge.ordermaker.repo;
 
 import com.challenge.ordermaker.dao.OrderProductDao;
 
+import java.time.LocalDateTime;
+import java.util.List;
 import java.util.Set;
 
 public interface OrderProductRepository {
 
     Set<OrderProductDao> getAllForOrderId(long orderId);
+
+    /* Ids of the orders holding the product, at any version when version is null. Only orders placed from startTime
+       and until endTime when they are given. In orderId order after afterOrderId and up to untilOrderId, at most limit */
+    List<Long> retrieveOrderIdsForProduct(long productId, Integer version, LocalDateTime startTime, LocalDateTime endTime,
+                                          long afterOrderId, long untilOrderId, int limit);
+
+    /* orderId of the line that is lines lines after afterOrderId among the lines of the product, in orderId order.
+       null when fewer are left */
+    Long findOrderIdOfLineForProduct(long productId, long afterOrderId, int lines);
 }
@@ -2,16 +2,72 @@ package com.challenge.ordermaker.repo;
 
 import com.challenge.ordermaker.api.v1.request.OrderCreateRequest;
 import com.challenge.ordermaker.dao.OrderDao;
+import com.challenge.ordermaker.dao.OrderPriceDriftDao;
+import com.challenge.ordermaker.dao.OrderSnapshotDao;
+import com.challenge.ordermaker.dao.OrderSummaryDao;
+import com.challenge.ordermaker.dao.OrderWithProductsDao;
+import com.challenge.ordermaker.dao.ProductDao;
 
 import java.time.LocalDateTime;
-import java.util.Set;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.Consumer;
 
 
 public interface OrderRepository {
 
-    Set<OrderDao> retrieveAllBetween(LocalDateTime startTime, LocalDateTime endTime);
+    List<OrderWithProductsDao> retrieveAllWithProductsBetween(LocalDateTime startTime, LocalDateTime endTime);
+
+    void streamAllWithProductsBetween(LocalDateTime startTime, LocalDateTime endTime, Consumer<OrderWithProductsDao> consumer);
+
+    List<OrderWithProductsDao> retrieveWithProductsBetween(LocalDateTime startTime, LocalDateTime endTime,
+                                                           LocalDateTime afterTime, long afterOrderId, int limit);
+
+    /* Orders with their cost and, if withProductIds, the ids of their products. No product row is read.
+       Same order and paging as the methods above */
+    void streamSummariesBetween(LocalDateTime startTime, LocalDateTime endTime, boolean withProductIds, Consumer<OrderSummaryDao> consumer);
+
+    List<OrderSummaryDao> retrieveSummariesBetween(LocalDateTime startTime, LocalDateTime endTime,
+                                                   LocalDateTime afterTime, long afterOrderId, int limit, boolean withProductIds);
+
+    Optional<OrderSummaryDao> getSummary(long orderId, boolean withProductIds);
+
+    /* Orders of one buyer, newest first: before (beforeTime, beforeOrderId) in (orderTime, orderId) order, or from the
+       newest when beforeTime is null. The address is compared lower case and trimmed */
+    List<OrderWithProductsDao> retrieveWithProductsForBuyer(String buyerEmailId, LocalDateTime beforeTime, long beforeOrderId, int limit);
+
+    List<OrderSummaryDao> retrieveSummariesForBuyer(String buyerEmailId, LocalDateTime beforeTime, long beforeOrderId, int limit, boolean withProductIds);
+
+    /* The orders with these ids in orderId order, the ones that do not exist are left out */
+    List<OrderWithProductsDao> retrieveWithProductsForIds(List<Long> orderIds);
+
+    List<OrderSummaryDao> retrieveSummariesForIds(List<Long> orderIds, boolean withProductIds);
+
+    /* Original and current cost of every order with from <= orderTime < until, in (orderTime, orderId) order */
+    List<OrderPriceDriftDao> retrievePriceDriftBetween(LocalDateTime from, LocalDateTime until);
 
     OrderDao get(long orderId);
 
-    OrderDao save(OrderCreateRequest order);
+    /* Every order has one, orders placed before snapshots were written got theirs from the schema initializer.
+       Empty when the order does not exist */
+    Optional<OrderSnapshotDao> getSnapshot(long orderId);
+
+    /* The order as placed, with the versions of its products it was placed with */
+    OrderWithProductsDao save(OrderCreateRequest order);
+
+    List<OrderWithProductsDao> saveAll(List<OrderCreateRequest> orders);
+
+    /* Places the order without locking any product. Every line is inserted only if the product is still at the
+       version that was read, otherwise nothing is written and an OptimisticLockingFailureException is thrown.
+       resolvedProducts are the latest products as already read by the caller, null to read them here from the
+       product heads, past the catalog */
+    OrderWithProductsDao saveOptimistic(OrderCreateRequest order, Map<Long, ProductDao> resolvedProducts);
+
+    /* The number of orders placed before the cutoff, what purging up to it would remove */
+    int countAllBefore(LocalDateTime cutoff);
+
+    /* Deletes at most limit of the oldest orders placed before the cutoff, with their lines and snapshots, in one
+       transaction. Returns the number of orders deleted, less than limit once none is left before the cutoff */
+    int purgeOldestBefore(LocalDateTime cutoff, int limit);
 }
@@ -0,0 +1,80 @@
+package com.challenge.ordermaker.repo;
+
+import com.challenge.ordermaker.dao.ProductDao;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/* Binary form of the lines of a placed order, as kept in ORDER_SNAPSHOTS.
+   Layout: format version, line count, then productId, version, price and name of every line in productId order */
+final class OrderSnapshotCodec {
+
+    private static final byte FORMAT_VERSION = 1;
+
+    private OrderSnapshotCodec() {
+    }
+
+    static List<ProductDao> sortedLines(Collection<ProductDao> products) {
+        List<ProductDao> lines = new ArrayList<>(products);
+        lines.sort(Comparator.comparingLong(ProductDao::getProductId));
+        return lines;
+    }
+
+    /* Summed in productId order with float arithmetic, same as the service does, so a stored total
+       is identical to one recomputed from the lines */
+    static float orderCost(List<ProductDao> lines) {
+        float total = 0f;
+        for (ProductDao line : lines) {
+            total += line.getPrice();
+        }
+        return total;
+    }
+
+    static byte[] encode(List<ProductDao> lines) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(8 + lines.size() * 32);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeByte(FORMAT_VERSION);
+            out.writeInt(lines.size());
+            for (ProductDao line : lines) {
+                out.writeLong(line.getProductId());
+                out.writeInt(line.getVersion());
+                out.writeFloat(line.getPrice());
+                out.writeUTF(line.getName());
+            }
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+        return bytes.toByteArray();
+    }
+
+    /* The latest flag is not part of a snapshot, it describes the catalog and not the order */
+    static Set<ProductDao> decode(byte[] encoded) {
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(encoded))) {
+            byte format = in.readByte();
+            if (format != FORMAT_VERSION) {
+                throw new IllegalStateException("Unknown order snapshot format " + format);
+            }
+            int count = in.readInt();
+            Set<ProductDao> lines = new HashSet<>(count * 2);
+            for (int i = 0; i < count; i++) {
+                long productId = in.readLong();
+                int version = in.readInt();
+                float price = in.readFloat();
+                lines.add(new ProductDao(productId, in.readUTF(), price, version, false));
+            }
+            return lines;
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+}
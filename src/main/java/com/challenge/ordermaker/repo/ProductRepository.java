@@ -4,21 +4,41 @@ import com.challenge.ordermaker.api.v1.request.ProductCreateRequest;
 import com.challenge.ordermaker.api.v1.request.ProductUpdateRequest;
 import com.challenge.ordermaker.dao.ProductDao;
 
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 public interface ProductRepository {
 
     Set<ProductDao> getAllActive();
 
+    /* The number of active products, without reading them */
+    int countActive();
+
     ProductDao getActiveForId(long productId);
 
+    /* Latest version of every product, without locking. Products that do not exist are missing from the result */
+    Map<Long, ProductDao> getActiveForIds(Set<Long> productIds);
+
+    /* Same as getActiveForIds, but always read from the database, never from the catalog. For a retry after a product
+       changed under an order, when the catalog may not have the new version yet */
+    Map<Long, ProductDao> readActiveForIds(Set<Long> productIds);
+
+    /* The product as it was at that version. Whether the version is still the latest one changes with every update
+       and is up to the catalog, latest is always false here */
     ProductDao getForVersion(long productId, int version);
 
     ProductDao save(ProductCreateRequest product);
 
     ProductDao update(ProductUpdateRequest productUpdateRequest);
 
-    int getLatestVersionNumber(long productId);
+    List<ProductDao> saveAll(List<ProductCreateRequest> products);
+
+    /* One result per request, in request order. null for products that do not exist */
+    List<ProductDao> updateAll(List<ProductUpdateRequest> productUpdateRequests);
+
+    Map<Long, Integer> getLatestVersionNumbers(Set<Long> productIds);
 
-    void lockProduct(long productId);
+    /* Locks the head row of every product, in productId order, and returns the latest versions */
+    Map<Long, ProductDao> lockLatestProducts(Set<Long> productIds);
 }
@@ -0,0 +1,19 @@
+package com.challenge.ordermaker.repo;
+
+import com.challenge.ordermaker.api.v1.request.SalesGrouping;
+import com.challenge.ordermaker.dao.OrderWithProductsDao;
+import com.challenge.ordermaker.dao.ProductSalesDao;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+/* Units and revenue per product version and hour of order time, kept up to date by every placed order */
+public interface ProductSalesRepository {
+
+    /* Adds the lines of the orders to their hours. Runs in the transaction that places the orders */
+    void addSales(List<OrderWithProductsDao> orders);
+
+    /* Sums the hours from the one holding startTime up to the one holding endTime, both included.
+       All products when productId is null. Ordered by product, then version or hour */
+    List<ProductSalesDao> retrieveBetween(LocalDateTime startTime, LocalDateTime endTime, Long productId, SalesGrouping grouping);
+}
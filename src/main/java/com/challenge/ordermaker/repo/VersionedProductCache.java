@@ -0,0 +1,133 @@
+package com.challenge.ordermaker.repo;
+
+import com.challenge.ordermaker.dao.ProductDao;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/* Bounded LRU cache of product versions keyed by (productId, version).
+   Only the name and the price are kept, they never change once a version is inserted (an update adds a new version),
+   so entries never need invalidation. The latest flag of the row does change, it is not cached and always false.
+   The cache is split into independently locked segments so concurrent readers rarely wait on each other. */
+@Component
+public class VersionedProductCache {
+
+    private static final int SEGMENT_COUNT = 16;
+
+    private final Segment[] segments = new Segment[SEGMENT_COUNT];
+
+    private final LongAdder hits = new LongAdder();
+
+    private final LongAdder misses = new LongAdder();
+
+    public VersionedProductCache(@Value("${ordermaker.cache.product-versions.max-size:100000}") int maxSize) {
+        int segmentSize = Math.max(1, maxSize / SEGMENT_COUNT);
+        for (int i = 0; i < SEGMENT_COUNT; i++) {
+            segments[i] = new Segment(segmentSize);
+        }
+    }
+
+    ProductDao get(long productId, int version) {
+        Key key = new Key(productId, version);
+        Segment segment = segmentFor(key);
+        Entry entry;
+        synchronized (segment) {
+            entry = segment.get(key);
+        }
+        if (entry == null) {
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        return new ProductDao(productId, entry.name, entry.price, version, false);
+    }
+
+    /* Returns the product as get serves it */
+    ProductDao put(ProductDao product) {
+        Key key = new Key(product.getProductId(), product.getVersion());
+        Segment segment = segmentFor(key);
+        synchronized (segment) {
+            segment.put(key, new Entry(product.getName(), product.getPrice()));
+        }
+        return new ProductDao(product.getProductId(), product.getName(), product.getPrice(), product.getVersion(), false);
+    }
+
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    public int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                size += segment.size();
+            }
+        }
+        return size;
+    }
+
+    private Segment segmentFor(Key key) {
+        return segments[(key.hash ^ (key.hash >>> 16)) & (SEGMENT_COUNT - 1)];
+    }
+
+    private static final class Segment extends LinkedHashMap<Key, Entry> {
+        private final int maxSize;
+
+        private Segment(int maxSize) {
+            super(16, 0.75f, true);
+            this.maxSize = maxSize;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Key, Entry> eldest) {
+            return size() > maxSize;
+        }
+    }
+
+    private static final class Entry {
+        private final String name;
+        private final float price;
+
+        private Entry(String name, float price) {
+            this.name = name;
+            this.price = price;
+        }
+    }
+
+    /* Primitive fields and a precomputed hash, no boxed Long/Integer pair */
+    private static final class Key {
+        private final long productId;
+        private final int version;
+        private final int hash;
+
+        private Key(long productId, int version) {
+            this.productId = productId;
+            this.version = version;
+            this.hash = 31 * Long.hashCode(productId) + version;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return productId == other.productId && version == other.version;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
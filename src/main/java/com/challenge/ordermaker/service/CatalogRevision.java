@@ -0,0 +1,57 @@
+package com.challenge.ordermaker.service;
+
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Component;
+
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/* Revision of the whole product catalog, the ETag of catalog responses. It lives in memory only, so it starts with the
+   id of this boot: the revisions of two runs never look the same, even when the database was reset in between.
+
+   Every product write bumps it when it starts and again when it is committed. A read is only tied to a revision when
+   no write started or was running while it read, so a revision never stands for two different catalogs. */
+@Component
+public class CatalogRevision {
+
+    @Getter
+    private final String bootId = UUID.randomUUID().toString().substring(0, 8);
+
+    private final AtomicLong revision = new AtomicLong();
+
+    private final AtomicInteger writers = new AtomicInteger();
+
+    public String current() {
+        return bootId + "-" + revision.get();
+    }
+
+    public <T> T write(Supplier<T> write) {
+        writers.incrementAndGet();
+        revision.incrementAndGet();
+        try {
+            return write.get();
+        } finally {
+            revision.incrementAndGet();
+            writers.decrementAndGet();
+        }
+    }
+
+    /* The revision is null when a write overlapped the read, the result must then not be tagged */
+    public <T> Read<T> read(Supplier<T> read) {
+        long before = revision.get();
+        boolean quiet = writers.get() == 0;
+        T value = read.get();
+        boolean stable = quiet && revision.get() == before;
+        return new Read<>(value, stable ? bootId + "-" + before : null);
+    }
+
+    @Getter
+    @RequiredArgsConstructor
+    public static class Read<T> {
+        private final T value;
+        private final String revision;
+    }
+}
@@ -0,0 +1,74 @@
+package com.challenge.ordermaker.service;
+
+import com.challenge.ordermaker.api.v1.request.OrderCreateRequest;
+import com.challenge.ordermaker.dao.OrderWithProductsDao;
+import com.challenge.ordermaker.dao.ProductDao;
+import com.challenge.ordermaker.repo.OrderRepository;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+/* Places single orders without product row locks (ordermaker.order.placement.optimistic=true).
+
+   The product versions are read without locking and checked again by the inserts. When a product was updated
+   in between, the order is rolled back and placed again with the new versions, at most maxAttempts times.
+   Before each retry it sleeps a random time up to retryBackoffMs, doubled with every attempt, so orders that
+   conflicted with the same update do not all come back at once. The retry reads the products from the product heads,
+   the catalog may not have the new version yet.
+   Orders for the same product only conflict with updates of that product, not with each other. Their sales rollup rows
+   do not make them wait either, see H2ProductSalesRepository. */
+@Component
+public class OptimisticOrderWriter {
+
+    private final OrderRepository orderRepository;
+
+    private final boolean enabled;
+
+    private final int maxAttempts;
+
+    private final long retryBackoffMs;
+
+    public OptimisticOrderWriter(OrderRepository orderRepository,
+                                 @Value("${ordermaker.order.placement.optimistic:false}") boolean enabled,
+                                 @Value("${ordermaker.order.placement.max-attempts:5}") int maxAttempts,
+                                 @Value("${ordermaker.order.placement.retry-backoff-ms:2}") long retryBackoffMs) {
+        this.orderRepository = orderRepository;
+        this.enabled = enabled;
+        this.maxAttempts = maxAttempts;
+        this.retryBackoffMs = retryBackoffMs;
+    }
+
+    boolean isEnabled() {
+        return enabled;
+    }
+
+    /* resolvedProducts, when given, are used for the first attempt. Retries read the products again */
+    OrderWithProductsDao save(OrderCreateRequest request, Map<Long, ProductDao> resolvedProducts) {
+        Map<Long, ProductDao> products = resolvedProducts;
+        for (int attempt = 1; ; attempt++) {
+            try {
+                return orderRepository.saveOptimistic(request, products);
+            } catch (OptimisticLockingFailureException ex) {
+                if (attempt >= maxAttempts) {
+                    throw ex;
+                }
+                try {
+                    Thread.sleep(backoffMillis(retryBackoffMs, attempt));
+                } catch (InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                    throw ex;
+                }
+                products = null;
+            }
+        }
+    }
+
+    /* Anywhere from 0 to retryBackoffMs * 2^(attempt - 1), at most 2^10 times retryBackoffMs */
+    static long backoffMillis(long retryBackoffMs, int attempt) {
+        long bound = retryBackoffMs << Math.min(attempt - 1, 10);
+        return bound <= 0 ? 0 : ThreadLocalRandom.current().nextLong(bound + 1);
+    }
+}
@@ -0,0 +1,196 @@
+package com.challenge.ordermaker.service;
+
+import com.challenge.ordermaker.api.v1.request.OrderCreateRequest;
+import com.challenge.ordermaker.dao.OrderWithProductsDao;
+import com.challenge.ordermaker.repo.OrderRepository;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+
+/* Writes orders in batches: one transaction, one sequence query and one batch insert per table for many orders.
+
+   Bulk placements are split into chunks of chunkSize orders, one transaction per chunk. The orders of a failed chunk
+   are written again one by one, so only the orders that fail on their own fail. The chunks before it stay committed
+   and the ones after it are still written.
+
+   With group commit enabled (window > 0), concurrent single order placements are collected as well.
+   The first order to arrive writes right away when no other group is being written. Otherwise it waits for the
+   running writes, at most the window and only until the batch is full, with the orders that join in the meantime,
+   then writes the whole batch and wakes the others up.
+
+   When the application stops, the groups being written and the orders waiting for one are waited for, at most
+   STOP_TIMEOUT_SECONDS, before DatabaseCompactor closes the database. */
+@Component
+public class OrderBatchWriter implements SmartLifecycle {
+
+    private static final long STOP_TIMEOUT_SECONDS = 30;
+
+    private final OrderRepository orderRepository;
+
+    private final long groupCommitWindowNanos;
+
+    private final int maxGroupSize;
+
+    private final int chunkSize;
+
+    private final Object lock = new Object();
+
+    private List<PendingOrder> pending = new ArrayList<>();
+
+    /* Groups being written, guarded by lock */
+    private int writing;
+
+    private volatile boolean running;
+
+    public OrderBatchWriter(OrderRepository orderRepository,
+                            @Value("${ordermaker.order.group-commit.window-ms:0}") long groupCommitWindowMs,
+                            @Value("${ordermaker.order.group-commit.max-size:100}") int maxGroupSize,
+                            @Value("${ordermaker.order.batch.chunk-size:500}") int chunkSize) {
+        this.orderRepository = orderRepository;
+        this.groupCommitWindowNanos = TimeUnit.MILLISECONDS.toNanos(groupCommitWindowMs);
+        this.maxGroupSize = maxGroupSize;
+        this.chunkSize = chunkSize;
+    }
+
+    @Override
+    public void start() {
+        running = true;
+    }
+
+    @Override
+    public void stop() {
+        running = false;
+        synchronized (lock) {
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(STOP_TIMEOUT_SECONDS);
+            long remaining = deadline - System.nanoTime();
+            while ((writing > 0 || !pending.isEmpty()) && remaining > 0) {
+                try {
+                    TimeUnit.NANOSECONDS.timedWait(lock, remaining);
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                remaining = deadline - System.nanoTime();
+            }
+        }
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    boolean isGroupCommitEnabled() {
+        return groupCommitWindowNanos > 0;
+    }
+
+    /* One result per request, in request order. The result of an order that could not be written completes with the failure */
+    List<CompletableFuture<OrderWithProductsDao>> saveAll(List<OrderCreateRequest> requests) {
+        List<CompletableFuture<OrderWithProductsDao>> results = new ArrayList<>(requests.size());
+        for (int from = 0; from < requests.size(); from += chunkSize) {
+            List<OrderCreateRequest> chunk = requests.subList(from, Math.min(from + chunkSize, requests.size()));
+            try {
+                orderRepository.saveAll(chunk).forEach(saved -> results.add(CompletableFuture.completedFuture(saved)));
+            } catch (RuntimeException chunkFailure) {
+                /* One bad order must not fail the others. Write them one by one to find out which one failed */
+                for (OrderCreateRequest request : chunk) {
+                    CompletableFuture<OrderWithProductsDao> result = new CompletableFuture<>();
+                    try {
+                        result.complete(saveAlone(request));
+                    } catch (RuntimeException ex) {
+                        result.completeExceptionally(ex);
+                    }
+                    results.add(result);
+                }
+            }
+        }
+        return results;
+    }
+
+    OrderWithProductsDao saveInGroup(OrderCreateRequest request) {
+        PendingOrder order = new PendingOrder(request);
+        boolean leader;
+        synchronized (lock) {
+            pending.add(order);
+            leader = pending.size() == 1;
+            if (pending.size() >= maxGroupSize) {
+                lock.notifyAll();
+            }
+        }
+
+        if (leader) {
+            writeGroup(collectGroup());
+        }
+
+        try {
+            return order.result.join();
+        } catch (CompletionException ex) {
+            throw ex.getCause() instanceof RuntimeException ? (RuntimeException) ex.getCause() : ex;
+        }
+    }
+
+    private List<PendingOrder> collectGroup() {
+        synchronized (lock) {
+            long deadline = System.nanoTime() + groupCommitWindowNanos;
+            long remaining = groupCommitWindowNanos;
+            while (pending.size() < maxGroupSize && writing > 0 && remaining > 0) {
+                try {
+                    TimeUnit.NANOSECONDS.timedWait(lock, remaining);
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+                remaining = deadline - System.nanoTime();
+            }
+            List<PendingOrder> group = pending;
+            pending = new ArrayList<>();
+            writing++;
+            return group;
+        }
+    }
+
+    private void writeGroup(List<PendingOrder> group) {
+        List<OrderCreateRequest> requests = new ArrayList<>(group.size());
+        group.forEach(order -> requests.add(order.request));
+        try {
+            List<OrderWithProductsDao> saved = orderRepository.saveAll(requests);
+            for (int i = 0; i < group.size(); i++) {
+                group.get(i).result.complete(saved.get(i));
+            }
+        } catch (RuntimeException groupFailure) {
+            /* One bad order must not fail the others. Write them one by one to find out which one failed */
+            for (PendingOrder order : group) {
+                try {
+                    order.result.complete(saveAlone(order.request));
+                } catch (RuntimeException ex) {
+                    order.result.completeExceptionally(ex);
+                }
+            }
+        } finally {
+            synchronized (lock) {
+                writing--;
+                lock.notifyAll();
+            }
+        }
+    }
+
+    private OrderWithProductsDao saveAlone(OrderCreateRequest request) {
+        return orderRepository.saveAll(Collections.singletonList(request)).get(0);
+    }
+
+    private static class PendingOrder {
+        private final OrderCreateRequest request;
+        private final CompletableFuture<OrderWithProductsDao> result = new CompletableFuture<>();
+
+        private PendingOrder(OrderCreateRequest request) {
+            this.request = request;
+        }
+    }
+}
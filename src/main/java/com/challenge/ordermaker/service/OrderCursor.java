@@ -0,0 +1,33 @@
+package com.challenge.ordermaker.service;
+
+import com.challenge.ordermaker.error.BadRequestException;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.Base64;
+
+/* Position of the last order of a page, (orderTime, orderId), as an opaque url safe token */
+@Getter
+@RequiredArgsConstructor
+class OrderCursor {
+    private final LocalDateTime orderTime;
+    private final long orderId;
+
+    String encode() {
+        String value = orderTime + "|" + orderId;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    static OrderCursor decode(String token) {
+        try {
+            String value = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8);
+            int separator = value.lastIndexOf('|');
+            return new OrderCursor(LocalDateTime.parse(value.substring(0, separator)), Long.parseLong(value.substring(separator + 1)));
+        } catch (IllegalArgumentException | IndexOutOfBoundsException | DateTimeParseException ex) {
+            throw new BadRequestException("invalid cursor");
+        }
+    }
+}
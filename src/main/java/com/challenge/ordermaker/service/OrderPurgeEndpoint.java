@@ -0,0 +1,61 @@
+package com.challenge.ordermaker.service;
+
+import com.challenge.ordermaker.api.v1.response.OrderPurgeResult;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.endpoint.InvalidEndpointRequestException;
+import org.springframework.boot.actuate.endpoint.annotation.DeleteOperation;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDateTime;
+import java.time.format.DateTimeParseException;
+
+/* Deletes old orders for good, together with their lines and snapshots. It is an operator action, not part of the
+   order API, so it lives under /actuator/orderpurge.
+   GET ?before=<ISO date time> is a dry run that counts the orders placed before the cutoff.
+   DELETE ?before=..&expectedOrders=n purges them, but only when n is still the count the dry run returned, so that a
+   mistyped cutoff is refused instead of deleting more than was looked at. A purge of more than maxOrders is refused,
+   an older cutoff keeps it below */
+@Component
+@Endpoint(id = "orderpurge")
+public class OrderPurgeEndpoint {
+
+    private final OrderService orderService;
+
+    private final int maxOrders;
+
+    public OrderPurgeEndpoint(OrderService orderService,
+                              @Value("${ordermaker.order.purge.max-orders:100000}") int maxOrders) {
+        this.orderService = orderService;
+        this.maxOrders = maxOrders;
+    }
+
+    @ReadOperation
+    public OrderPurgeResult preview(String before) {
+        return new OrderPurgeResult(orderService.countOrdersBefore(parse(before)), 0, maxOrders);
+    }
+
+    @DeleteOperation
+    public OrderPurgeResult purge(String before, int expectedOrders) {
+        LocalDateTime cutoff = parse(before);
+        int matchingOrders = orderService.countOrdersBefore(cutoff);
+        if (matchingOrders != expectedOrders) {
+            throw new InvalidEndpointRequestException("expectedOrders is " + expectedOrders + " but " + matchingOrders
+                    + " orders were placed before " + cutoff, "Purge not confirmed");
+        }
+        if (matchingOrders > maxOrders) {
+            throw new InvalidEndpointRequestException(matchingOrders + " orders were placed before " + cutoff
+                    + ", more than the " + maxOrders + " a purge may remove", "Purge too large");
+        }
+        return new OrderPurgeResult(matchingOrders, orderService.purgeOrdersBefore(cutoff, matchingOrders), maxOrders);
+    }
+
+    private static LocalDateTime parse(String before) {
+        try {
+            return LocalDateTime.parse(before);
+        } catch (DateTimeParseException ex) {
+            throw new InvalidEndpointRequestException("before must be an ISO date time: " + before, "Invalid cutoff");
+        }
+    }
+}
@@ -0,0 +1,208 @@
+package com.challenge.ordermaker.service;
+
+import com.challenge.ordermaker.api.v1.response.OrderPriceDrift;
+import com.challenge.ordermaker.api.v1.response.RepricingProgress;
+import com.challenge.ordermaker.dao.OrderPriceDriftDao;
+import com.challenge.ordermaker.repo.OrderRepository;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/* Reprices every order of a time range against the current product prices.
+
+   The range is cut into chunks of chunkSize, each one computed from the end of the previous one when it is submitted, so
+   a long range costs no memory up front. Each chunk is a single aggregate query that joins the lines with the
+   versions they were placed with and with the current product heads, so no order is hydrated.
+   Up to parallelism chunks of a job run at the same time on a shared, bounded executor. Results are handed to the
+   consumer chunk by chunk in time order, so at most parallelism chunks of results are held in memory. */
+@Component
+public class OrderRepricer implements SmartLifecycle {
+
+    private static final int RETAINED_JOBS = 100;
+
+    private static final long STOP_TIMEOUT_SECONDS = 30;
+
+    private final OrderRepository orderRepository;
+
+    private final Duration chunkSize;
+
+    private final int parallelism;
+
+    private final ThreadPoolExecutor executor;
+
+    private volatile boolean running;
+
+    /* The most recent jobs, running or finished, so that their progress can be looked up */
+    private final Map<String, Job> jobs = Collections.synchronizedMap(new LinkedHashMap<String, Job>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Job> eldest) {
+            return size() > RETAINED_JOBS;
+        }
+    });
+
+    public OrderRepricer(OrderRepository orderRepository,
+                         @Value("${ordermaker.order.reprice.chunk-minutes:1440}") long chunkMinutes,
+                         @Value("${ordermaker.order.reprice.threads:4}") int parallelism) {
+        if (chunkMinutes <= 0) {
+            throw new IllegalArgumentException("ordermaker.order.reprice.chunk-minutes must be positive, was " + chunkMinutes);
+        }
+        this.orderRepository = orderRepository;
+        this.chunkSize = Duration.ofMinutes(chunkMinutes);
+        this.parallelism = parallelism;
+
+        AtomicInteger threadNumber = new AtomicInteger();
+        /* When the queue is full the submitting request thread runs the chunk itself, which slows the jobs down
+           instead of queueing without bound */
+        this.executor = new ThreadPoolExecutor(parallelism, parallelism, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(parallelism * 16),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "order-repricer-" + threadNumber.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                },
+                new ThreadPoolExecutor.CallerRunsPolicy());
+        this.executor.allowCoreThreadTimeOut(true);
+    }
+
+    /* Registers a job. Nothing runs until reprice is called with it */
+    public String createJob(LocalDateTime startTime, LocalDateTime endTime) {
+        Job job = new Job(UUID.randomUUID().toString(), startTime, endTime, countChunks(startTime, endTime));
+        jobs.put(job.jobId, job);
+        return job.jobId;
+    }
+
+    public Optional<RepricingProgress> getProgress(String jobId) {
+        return Optional.ofNullable(jobs.get(jobId)).map(Job::progress);
+    }
+
+    public void reprice(String jobId, Consumer<OrderPriceDrift> consumer) {
+        Job job = jobs.get(jobId);
+        if (job == null) {
+            throw new IllegalArgumentException("Unknown repricing job " + jobId);
+        }
+
+        /* Half open chunks [from, until). The last one ends just after endTime, because the range itself is inclusive */
+        LocalDateTime end = job.endTime.plusNanos(1);
+        LocalDateTime from = job.startTime;
+        Deque<Future<List<OrderPriceDriftDao>>> inFlight = new ArrayDeque<>(parallelism);
+        try {
+            while (from.isBefore(end) || !inFlight.isEmpty()) {
+                while (from.isBefore(end) && inFlight.size() < parallelism) {
+                    LocalDateTime chunkStart = from;
+                    LocalDateTime until = from.plus(chunkSize);
+                    LocalDateTime chunkEnd = until.isBefore(end) ? until : end;
+                    inFlight.add(executor.submit(() -> orderRepository.retrievePriceDriftBetween(chunkStart, chunkEnd)));
+                    from = chunkEnd;
+                }
+                List<OrderPriceDriftDao> drifts = inFlight.poll().get();
+                drifts.forEach(dao -> consumer.accept(mapDaoToPriceDrift(dao)));
+                job.ordersRepriced.addAndGet(drifts.size());
+                job.chunksDone.incrementAndGet();
+            }
+            job.state = RepricingProgress.State.DONE;
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw failed(job, inFlight, new IllegalStateException("Repricing job " + jobId + " was interrupted", ex));
+        } catch (ExecutionException ex) {
+            throw failed(job, inFlight, ex.getCause() instanceof RuntimeException ? (RuntimeException) ex.getCause() : new IllegalStateException(ex.getCause()));
+        } catch (RuntimeException ex) {
+            throw failed(job, inFlight, ex);
+        }
+    }
+
+    @Override
+    public void start() {
+        running = true;
+    }
+
+    /* Before DatabaseCompactor closes the database. Running chunks are interrupted and waited for */
+    @Override
+    public void stop() {
+        running = false;
+        shutdown();
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+        try {
+            executor.awaitTermination(STOP_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private RuntimeException failed(Job job, Deque<Future<List<OrderPriceDriftDao>>> inFlight, RuntimeException cause) {
+        job.state = RepricingProgress.State.FAILED;
+        inFlight.forEach(future -> future.cancel(true));
+        return cause;
+    }
+
+    /* The number of chunks reprice cuts the inclusive range into, the last one may be shorter than chunkSize */
+    private int countChunks(LocalDateTime startTime, LocalDateTime endTime) {
+        if (endTime.isBefore(startTime)) {
+            return 0;
+        }
+        Duration range = Duration.between(startTime, endTime).plusNanos(1);
+        long chunkSeconds = chunkSize.getSeconds();
+        long chunks = range.getSeconds() / chunkSeconds + (range.getSeconds() % chunkSeconds != 0 || range.getNano() != 0 ? 1 : 0);
+        if (chunks > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Repricing range of " + chunks + " chunks is too long");
+        }
+        return (int) chunks;
+    }
+
+    private static OrderPriceDrift mapDaoToPriceDrift(OrderPriceDriftDao dao) {
+        return new OrderPriceDrift(dao.getOrderId(),
+                dao.getOrderTime().toLocalDateTime(),
+                dao.getOriginalCost(),
+                dao.getCurrentCost(),
+                dao.getCurrentCost() - dao.getOriginalCost());
+    }
+
+    private static class Job {
+        private final String jobId;
+        private final LocalDateTime startTime;
+        private final LocalDateTime endTime;
+        private final int chunksTotal;
+        private final AtomicInteger chunksDone = new AtomicInteger();
+        private final AtomicLong ordersRepriced = new AtomicLong();
+        private volatile RepricingProgress.State state = RepricingProgress.State.RUNNING;
+
+        private Job(String jobId, LocalDateTime startTime, LocalDateTime endTime, int chunksTotal) {
+            this.jobId = jobId;
+            this.startTime = startTime;
+            this.endTime = endTime;
+            this.chunksTotal = chunksTotal;
+        }
+
+        private RepricingProgress progress() {
+            return new RepricingProgress(jobId, startTime, endTime, chunksTotal, chunksDone.get(), ordersRepriced.get(), state);
+        }
+    }
+}
@@ -1,11 +1,21 @@
 package com.challenge.ordermaker.service;
 
 import com.challenge.ordermaker.api.v1.request.OrderCreateRequest;
+import com.challenge.ordermaker.api.v1.request.OrderView;
 import com.challenge.ordermaker.api.v1.response.Order;
+import com.challenge.ordermaker.api.v1.response.OrderIdPage;
+import com.challenge.ordermaker.api.v1.response.OrderPage;
+import com.challenge.ordermaker.api.v1.response.OrderPlacementResult;
 import com.challenge.ordermaker.api.v1.response.Product;
 import com.challenge.ordermaker.dao.OrderDao;
 import com.challenge.ordermaker.dao.OrderProductDao;
+import com.challenge.ordermaker.dao.OrderSnapshotDao;
+import com.challenge.ordermaker.dao.OrderSummaryDao;
+import com.challenge.ordermaker.dao.OrderWithProductsDao;
+import com.challenge.ordermaker.dao.ProductDao;
+import com.challenge.ordermaker.error.BadRequestException;
 import com.challenge.ordermaker.error.ResourceNotFoundException;
+import com.challenge.ordermaker.error.UnknownProductsException;
 import com.challenge.ordermaker.repo.OrderProductRepository;
 import com.challenge.ordermaker.repo.OrderRepository;
 import lombok.RequiredArgsConstructor;
@@ -14,10 +24,19 @@ import org.springframework.dao.EmptyResultDataAccessException;
 import org.springframework.stereotype.Component;
 
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
 import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
@@ -25,6 +44,13 @@ import java.util.stream.Collectors;
 @RequiredArgsConstructor
 public class OrderService {
 
+    private static final int PURGE_BATCH_SIZE = 1000;
+
+    /* Lines of a product read for one page when a version or time bounds filter them */
+    static final int PRODUCT_LINES_PER_PAGE = 10000;
+
+    private static final String RETRYABLE = "The order could not be placed for now, it can be sent again";
+
     @Autowired
     private final ProductService productService;
 
@@ -34,16 +60,159 @@ public class OrderService {
     @Autowired
     private final OrderProductRepository orderProductRepository;
 
+    @Autowired
+    private final OrderBatchWriter orderBatchWriter;
+
+    @Autowired
+    private final OptimisticOrderWriter optimisticOrderWriter;
+
+    /* Placed orders never change, they only disappear when they are purged. Bumped after every purge, so that an
+       order read before it is not confirmed as unchanged after it */
+    private final AtomicLong archiveRevision = new AtomicLong();
 
     public Set<Order> getAllOrdersBetweenDates(LocalDateTime startTime, LocalDateTime endTime) {
+        return getAllOrdersBetweenDates(startTime, endTime, OrderView.FULL);
+    }
+
+    public Set<Order> getAllOrdersBetweenDates(LocalDateTime startTime, LocalDateTime endTime, OrderView view) {
 
         Supplier<TreeSet<Order>> supplier = () -> new TreeSet<>(Comparator.comparingLong(Order::getOrderId));
 
-        return orderRepository.retrieveAllBetween(startTime, endTime).stream().map(
+        if (view != OrderView.FULL) {
+            TreeSet<Order> orders = supplier.get();
+            orderRepository.streamSummariesBetween(startTime, endTime, view == OrderView.IDS, dao -> orders.add(mapSummaryToOrder(dao)));
+            return orders;
+        }
+
+        return orderRepository.retrieveAllWithProductsBetween(startTime, endTime).stream().map(
                 this::mapDaoToOrder).collect(Collectors.toCollection(supplier));
     }
 
+    public OrderPage getOrdersBetweenDates(LocalDateTime startTime, LocalDateTime endTime, String cursor, int limit) {
+        return getOrdersBetweenDates(startTime, endTime, cursor, limit, OrderView.FULL);
+    }
+
+    public OrderPage getOrdersBetweenDates(LocalDateTime startTime, LocalDateTime endTime, String cursor, int limit, OrderView view) {
+        OrderCursor after = cursor == null || cursor.isEmpty() ? null : OrderCursor.decode(cursor);
+        LocalDateTime afterTime = after == null ? null : after.getOrderTime();
+        long afterOrderId = after == null ? 0 : after.getOrderId();
+
+        /* Ask for one more order than needed. It tells us if there is a next page, without an extra query */
+        List<Order> orders;
+        if (view == OrderView.FULL) {
+            orders = orderRepository.retrieveWithProductsBetween(startTime, endTime, afterTime, afterOrderId, limit + 1)
+                    .stream().map(this::mapDaoToOrder).collect(Collectors.toList());
+        } else {
+            orders = orderRepository.retrieveSummariesBetween(startTime, endTime, afterTime, afterOrderId, limit + 1, view == OrderView.IDS)
+                    .stream().map(this::mapSummaryToOrder).collect(Collectors.toList());
+        }
+        return page(orders, limit);
+    }
+
+    /* Newest first. The cursor is the position of the last, oldest, order of the previous page */
+    public OrderPage getOrdersOfBuyer(String buyerEmailId, String cursor, int limit, OrderView view) {
+        OrderCursor before = cursor == null || cursor.isEmpty() ? null : OrderCursor.decode(cursor);
+        LocalDateTime beforeTime = before == null ? null : before.getOrderTime();
+        long beforeOrderId = before == null ? 0 : before.getOrderId();
+
+        List<Order> orders;
+        if (view == OrderView.FULL) {
+            orders = orderRepository.retrieveWithProductsForBuyer(buyerEmailId, beforeTime, beforeOrderId, limit + 1)
+                    .stream().map(this::mapDaoToOrder).collect(Collectors.toList());
+        } else {
+            orders = orderRepository.retrieveSummariesForBuyer(buyerEmailId, beforeTime, beforeOrderId, limit + 1, view == OrderView.IDS)
+                    .stream().map(this::mapSummaryToOrder).collect(Collectors.toList());
+        }
+        return page(orders, limit);
+    }
+
+    /* Ids of the orders holding a product, in orderId order. Read from ORDERS_PRODUCTS alone, ORDERS is only looked at for
+       time bounds. The cursor is the last orderId of the previous page.
+       Without a version or time bounds every line read is on the page. With them a page could read the whole history
+       of a popular product before it fills up, so it reads at most PRODUCT_LINES_PER_PAGE lines. When they run out
+       first the page holds fewer orders than asked for, maybe none, and the cursor goes on after the last line read */
+    public OrderIdPage getOrderIdsWithProduct(long productId, Integer version, LocalDateTime startTime, LocalDateTime endTime,
+                                              String cursor, int limit) {
+        long afterOrderId = afterOrderId(cursor);
+        Long untilOrderId = null;
+        if (version != null || startTime != null || endTime != null) {
+            untilOrderId = orderProductRepository.findOrderIdOfLineForProduct(productId, afterOrderId, PRODUCT_LINES_PER_PAGE);
+        }
+        List<Long> orderIds = orderProductRepository.retrieveOrderIdsForProduct(productId, version, startTime, endTime,
+                afterOrderId, untilOrderId == null ? Long.MAX_VALUE : untilOrderId, limit + 1);
+        if (orderIds.size() <= limit) {
+            return new OrderIdPage(orderIds, untilOrderId == null ? null : String.valueOf(untilOrderId));
+        }
+        List<Long> page = orderIds.subList(0, limit);
+        return new OrderIdPage(page, String.valueOf(page.get(page.size() - 1)));
+    }
+
+    /* Same page as getOrderIdsWithProduct, the orders themselves are read by id afterwards */
+    public OrderPage getOrdersWithProduct(long productId, Integer version, LocalDateTime startTime, LocalDateTime endTime,
+                                          String cursor, int limit, OrderView view) {
+        OrderIdPage ids = getOrderIdsWithProduct(productId, version, startTime, endTime, cursor, limit);
+        List<Order> orders;
+        if (view == OrderView.FULL) {
+            orders = orderRepository.retrieveWithProductsForIds(ids.getOrderIds())
+                    .stream().map(this::mapDaoToOrder).collect(Collectors.toList());
+        } else {
+            orders = orderRepository.retrieveSummariesForIds(ids.getOrderIds(), view == OrderView.IDS)
+                    .stream().map(this::mapSummaryToOrder).collect(Collectors.toList());
+        }
+        return new OrderPage(orders, ids.getNextCursor());
+    }
+
+    private static long afterOrderId(String cursor) {
+        if (cursor == null || cursor.isEmpty()) {
+            return 0;
+        }
+        try {
+            return Long.parseLong(cursor);
+        } catch (NumberFormatException ex) {
+            throw new BadRequestException("invalid cursor");
+        }
+    }
+
+    /* orders holds up to limit + 1 orders, the extra one only tells that there is a next page */
+    private static OrderPage page(List<Order> orders, int limit) {
+        if (orders.size() <= limit) {
+            return new OrderPage(orders, null);
+        }
+        List<Order> page = orders.subList(0, limit);
+        Order last = page.get(page.size() - 1);
+        return new OrderPage(page, new OrderCursor(last.getOrderTime(), last.getOrderId()).encode());
+    }
+
+    /* Orders are handed to the consumer in (orderTime, orderId) order while they are read from the database */
+    public void streamOrdersBetweenDates(LocalDateTime startTime, LocalDateTime endTime, Consumer<Order> consumer) {
+        streamOrdersBetweenDates(startTime, endTime, OrderView.FULL, consumer);
+    }
+
+    public void streamOrdersBetweenDates(LocalDateTime startTime, LocalDateTime endTime, OrderView view, Consumer<Order> consumer) {
+        if (view != OrderView.FULL) {
+            orderRepository.streamSummariesBetween(startTime, endTime, view == OrderView.IDS, dao -> consumer.accept(mapSummaryToOrder(dao)));
+            return;
+        }
+        orderRepository.streamAllWithProductsBetween(startTime, endTime, dao -> consumer.accept(mapDaoToOrder(dao)));
+    }
+
+    public Optional<Order> getOderForId(long orderId, OrderView view) {
+        /* Summaries never read the product lines of the snapshot */
+        if (view != OrderView.FULL) {
+            return orderRepository.getSummary(orderId, view == OrderView.IDS).map(this::mapSummaryToOrder);
+        }
+        return getOderForId(orderId);
+    }
+
     public Optional<Order> getOderForId(long orderId) {
+        /* A placed order never changes, its snapshot holds everything the response needs */
+        Optional<OrderSnapshotDao> snapshot = orderRepository.getSnapshot(orderId);
+        if (snapshot.isPresent()) {
+            return Optional.of(mapSnapshotToOrder(snapshot.get()));
+        }
+
+        /* Not expected once SchemaInitializer backfilled the snapshots. Should one still be missing, the order is
+           assembled from its lines */
         try {
             return Optional.of(mapDaoToOrder(orderRepository.get(orderId)));
         } catch (EmptyResultDataAccessException ex) {
@@ -52,20 +221,114 @@ public class OrderService {
     }
 
     public float recalculateOrderAmount(long orderId) {
-        Optional<Order> order = getOderForId(orderId);
-
-        if (order.isPresent()) {
-            Set<Product> productsWithLatestPriceForOrder = getProductsWithLatestPriceForOrder(orderId);
-            return getTotalOrderPrice(productsWithLatestPriceForOrder);
-        } else {
+        /* Only the existence of the order matters here, its lines are read again with their latest price anyway */
+        try {
+            orderRepository.get(orderId);
+        } catch (EmptyResultDataAccessException ex) {
             throw new ResourceNotFoundException("No order exist");
         }
+
+        Set<Product> productsWithLatestPriceForOrder = getProductsWithLatestPriceForOrder(orderId);
+        return getTotalOrderPrice(productsWithLatestPriceForOrder);
+    }
+
+    public int countOrdersBefore(LocalDateTime cutoff) {
+        return orderRepository.countAllBefore(cutoff);
+    }
+
+    /* Removes the oldest orders placed before the cutoff, at most maxOrders of them, PURGE_BATCH_SIZE orders per
+       transaction so that locks and undo are bounded. Returns the number of orders removed */
+    public int purgeOrdersBefore(LocalDateTime cutoff, int maxOrders) {
+        int purged = 0;
+        try {
+            while (purged < maxOrders) {
+                int limit = Math.min(PURGE_BATCH_SIZE, maxOrders - purged);
+                int batch = orderRepository.purgeOldestBefore(cutoff, limit);
+                purged += batch;
+                if (batch < limit) {
+                    break;
+                }
+            }
+            return purged;
+        } finally {
+            archiveRevision.incrementAndGet();
+        }
+    }
+
+    public long getArchiveRevision() {
+        return archiveRevision.get();
     }
 
     public Order placeOrder(OrderCreateRequest request) {
+        return placeOrder(request, null);
+    }
+
+    /* Every product of the order is resolved with a single lookup, and only once. Unknown products are reported and
+       nothing is placed. With row locks (the default, and group commit) the statement that locks the products resolves
+       them. Optimistic placement resolves them here and writes with the versions it read */
+    public OrderPlacementResult tryPlaceOrder(OrderCreateRequest request) {
+        Map<Long, ProductDao> products = null;
+        if (optimisticOrderWriter.isEnabled()) {
+            Map<Long, ProductDao> resolved = productService.getActiveProductsForIds(request.getProductSet());
+            Set<Long> unknownProductIds = request.getProductSet().stream()
+                    .filter(productId -> !resolved.containsKey(productId))
+                    .collect(Collectors.toCollection(TreeSet::new));
+            if (!unknownProductIds.isEmpty()) {
+                return OrderPlacementResult.unknownProducts(unknownProductIds);
+            }
+            products = resolved;
+        }
+        try {
+            return OrderPlacementResult.placed(placeOrder(request, products));
+        } catch (UnknownProductsException ex) {
+            return OrderPlacementResult.unknownProducts(ex.getUnknownProductIds());
+        }
+    }
+
+    private Order placeOrder(OrderCreateRequest request, Map<Long, ProductDao> resolvedProducts) {
+        if (optimisticOrderWriter.isEnabled()) {
+            return mapDaoToOrder(optimisticOrderWriter.save(request, resolvedProducts));
+        }
+        if (orderBatchWriter.isGroupCommitEnabled()) {
+            return mapDaoToOrder(orderBatchWriter.saveInGroup(request));
+        }
         return mapDaoToOrder(orderRepository.save(request));
     }
 
+    /* One result per request, in request order. Orders with unknown products are reported and not placed. The orders
+       are written in chunks, an order that could not be written is reported with why, see WriteFailures, and the
+       others are still placed */
+    public List<OrderPlacementResult> placeOrders(List<OrderCreateRequest> requests) {
+        Set<Long> productIds = new HashSet<>();
+        requests.forEach(request -> productIds.addAll(request.getProductSet()));
+        Map<Long, Integer> latestVersions = productService.getLatestVersionNumbers(productIds);
+
+        OrderPlacementResult[] results = new OrderPlacementResult[requests.size()];
+        List<OrderCreateRequest> validRequests = new ArrayList<>(requests.size());
+        List<Integer> validIndexes = new ArrayList<>(requests.size());
+        for (int i = 0; i < requests.size(); i++) {
+            Set<Long> unknownProductIds = requests.get(i).getProductSet().stream()
+                    .filter(productId -> !latestVersions.containsKey(productId))
+                    .collect(Collectors.toCollection(TreeSet::new));
+            if (unknownProductIds.isEmpty()) {
+                validRequests.add(requests.get(i));
+                validIndexes.add(i);
+            } else {
+                results[i] = OrderPlacementResult.unknownProducts(unknownProductIds);
+            }
+        }
+
+        List<CompletableFuture<OrderWithProductsDao>> saved = orderBatchWriter.saveAll(validRequests);
+        for (int i = 0; i < saved.size(); i++) {
+            try {
+                results[validIndexes.get(i)] = OrderPlacementResult.placed(mapDaoToOrder(saved.get(i).join()));
+            } catch (CompletionException ex) {
+                results[validIndexes.get(i)] = OrderPlacementResult.failed(WriteFailures.describe(ex.getCause(), RETRYABLE));
+            }
+        }
+        return Arrays.asList(results);
+    }
+
     private float getTotalOrderPrice(Set<Product> productsForOrder) {
         return productsForOrder.stream().map(Product::getPrice).reduce(0f, Float::sum);
     }
@@ -91,12 +354,50 @@ public class OrderService {
                 .collect(Collectors.toSet());
     }
 
+    private Order mapDaoToOrder(OrderWithProductsDao dao) {
+        Supplier<TreeSet<Product>> supplier = () -> new TreeSet<>(Comparator.comparingLong(Product::getProductId));
+
+        Set<Product> productsForOrder = dao.getProducts().stream()
+                .map(ProductService::mapDaoToProduct)
+                .collect(Collectors.toCollection(supplier));
+        return new Order(dao.getOrder().getOrderId(),
+                dao.getOrder().getBuyerEmailId(),
+                dao.getOrder().getOrderTime().toLocalDateTime(),
+                null,
+                productsForOrder,
+                getTotalOrderPrice(productsForOrder));
+    }
+
+    private Order mapSnapshotToOrder(OrderSnapshotDao dao) {
+        Supplier<TreeSet<Product>> supplier = () -> new TreeSet<>(Comparator.comparingLong(Product::getProductId));
+
+        Set<Product> productsForOrder = dao.getProducts().stream()
+                .map(ProductService::mapDaoToProduct)
+                .collect(Collectors.toCollection(supplier));
+        return new Order(dao.getOrder().getOrderId(),
+                dao.getOrder().getBuyerEmailId(),
+                dao.getOrder().getOrderTime().toLocalDateTime(),
+                null,
+                productsForOrder,
+                dao.getOrderCost());
+    }
+
     private Order mapDaoToOrder(OrderDao dao) {
         Set<Product> productsForOrder = getProductsForOrder(dao.getOrderId());
         return new Order(dao.getOrderId(),
                 dao.getBuyerEmailId(),
                 dao.getOrderTime().toLocalDateTime(),
+                null,
                 productsForOrder,
                 getTotalOrderPrice(productsForOrder));
     }
+
+    private Order mapSummaryToOrder(OrderSummaryDao dao) {
+        return new Order(dao.getOrder().getOrderId(),
+                dao.getOrder().getBuyerEmailId(),
+                dao.getOrder().getOrderTime().toLocalDateTime(),
+                dao.getProductIds() == null ? null : new TreeSet<>(dao.getProductIds()),
+                null,
+                dao.getOrderCost());
+    }
 }
@@ -1,54 +1,136 @@
 package com.challenge.ordermaker.service;
 
 import com.challenge.ordermaker.api.v1.request.ProductCreateRequest;
+import com.challenge.ordermaker.api.v1.request.SalesGrouping;
 import com.challenge.ordermaker.api.v1.request.ProductUpdateRequest;
 import com.challenge.ordermaker.api.v1.response.Product;
+import com.challenge.ordermaker.api.v1.response.ProductBatchResult;
+import com.challenge.ordermaker.api.v1.response.ProductSales;
+import com.challenge.ordermaker.api.v1.response.ProductWriteResult;
 import com.challenge.ordermaker.dao.ProductDao;
 import com.challenge.ordermaker.repo.ProductRepository;
-import lombok.RequiredArgsConstructor;
-import org.springframework.beans.factory.annotation.Autowired;
+import com.challenge.ordermaker.repo.ProductSalesRepository;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.dao.EmptyResultDataAccessException;
 import org.springframework.stereotype.Component;
 
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.function.Function;
 import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
 @Component
-@RequiredArgsConstructor
 public class ProductService {
 
-    @Autowired
+    private static final String RETRYABLE = "The product could not be written for now, it can be sent again";
+
     private final ProductRepository productRepository;
 
+    private final CatalogRevision catalogRevision;
+
+    private final ProductSalesRepository productSalesRepository;
+
+    private final int chunkSize;
+
+    public ProductService(ProductRepository productRepository, CatalogRevision catalogRevision,
+                          ProductSalesRepository productSalesRepository,
+                          @Value("${ordermaker.product.batch.chunk-size:500}") int chunkSize) {
+        this.productRepository = productRepository;
+        this.catalogRevision = catalogRevision;
+        this.productSalesRepository = productSalesRepository;
+        this.chunkSize = chunkSize;
+    }
+
     public Product createProduct(ProductCreateRequest request) {
-        return mapDaoToProduct(productRepository.save(request));
+        return mapDaoToProduct(catalogRevision.write(() -> productRepository.save(request)));
     }
 
     public Set<Product> getAllActiveProducts() {
         Supplier<TreeSet<Product>> supplier = () -> new TreeSet<>(Comparator.comparingLong(Product::getProductId));
 
         return productRepository.getAllActive().stream()
-                .map(this::mapDaoToProduct).collect(Collectors.toCollection(supplier));
+                .map(ProductService::mapDaoToProduct).collect(Collectors.toCollection(supplier));
     }
 
     public Optional<Product> getActiveProductForId(long productId) {
+        return getActiveProductDaoForId(productId).map(ProductService::mapDaoToProduct);
+    }
+
+    /* With the version, which names the exact content of the product */
+    public Optional<ProductDao> getActiveProductDaoForId(long productId) {
         try {
-            return Optional.of(mapDaoToProduct(productRepository.getActiveForId(productId)));
+            return Optional.of(productRepository.getActiveForId(productId));
         } catch (EmptyResultDataAccessException ex) {
             return Optional.empty();
         }
     }
 
     public Product updateProduct(ProductUpdateRequest productUpdateRequest) {
-        return mapDaoToProduct(productRepository.update(productUpdateRequest));
+        return mapDaoToProduct(catalogRevision.write(() -> productRepository.update(productUpdateRequest)));
+    }
+
+    public ProductBatchResult writeProducts(List<ProductCreateRequest> creates, List<ProductUpdateRequest> updates) {
+        return catalogRevision.write(() -> writeProductsInBatch(creates, updates));
+    }
+
+    /* Creates and then updates, chunkSize products per transaction, so that a large feed neither holds the locks of all
+       its products at once nor fails as a whole. The products of a failed chunk are written again one by one, so only
+       the ones that fail on their own are reported, see WriteFailures. The chunks before it stay written and the ones
+       after it are still written */
+    private ProductBatchResult writeProductsInBatch(List<ProductCreateRequest> creates, List<ProductUpdateRequest> updates) {
+        List<ProductWriteResult> createResults = writeInChunks(creates, productRepository::saveAll);
+        List<ProductWriteResult> updateResults = writeInChunks(updates, productRepository::updateAll);
+        return new ProductBatchResult(createResults, updateResults);
+    }
+
+    /* One result per request, in request order. A request the repository returns null for names a product that does
+       not exist */
+    private <T> List<ProductWriteResult> writeInChunks(List<T> requests, Function<List<T>, List<ProductDao>> write) {
+        if (requests == null || requests.isEmpty()) {
+            return Collections.emptyList();
+        }
+        List<ProductWriteResult> results = new ArrayList<>(requests.size());
+        for (int from = 0; from < requests.size(); from += chunkSize) {
+            List<T> chunk = requests.subList(from, Math.min(from + chunkSize, requests.size()));
+            try {
+                write.apply(chunk).forEach(dao -> results.add(mapWritten(dao)));
+            } catch (RuntimeException chunkFailure) {
+                /* One bad product must not fail the others. Write them one by one to find out which one failed */
+                for (T request : chunk) {
+                    try {
+                        results.add(mapWritten(write.apply(Collections.singletonList(request)).get(0)));
+                    } catch (RuntimeException ex) {
+                        results.add(ProductWriteResult.failed(WriteFailures.describe(ex, RETRYABLE)));
+                    }
+                }
+            }
+        }
+        return results;
     }
 
-    public int getLatestVersionNumber(long productId) {
-        return productRepository.getLatestVersionNumber(productId);
+    private static ProductWriteResult mapWritten(ProductDao dao) {
+        return dao == null ? ProductWriteResult.failed("productId not found") : ProductWriteResult.written(mapDaoToProduct(dao));
+    }
+
+    /* Read from the hourly rollup only, see ProductSalesRepository */
+    public List<ProductSales> getSales(LocalDateTime startTime, LocalDateTime endTime, Long productId, SalesGrouping grouping) {
+        return productSalesRepository.retrieveBetween(startTime, endTime, productId, grouping).stream()
+                .map(dao -> new ProductSales(dao.getProductId(), dao.getVersion(),
+                        dao.getHourStart() == null ? null : dao.getHourStart().toLocalDateTime(), dao.getUnits(), dao.getRevenue()))
+                .collect(Collectors.toList());
+    }
+
+    /* Latest version of every existing product in one query. Unknown products are missing from the map */
+    public Map<Long, Integer> getLatestVersionNumbers(Set<Long> productIds) {
+        return productRepository.getLatestVersionNumbers(productIds);
     }
 
     Optional<Product> getProductForVersion(long productId, int version) {
@@ -59,7 +141,12 @@ public class ProductService {
         }
     }
 
-    private Product mapDaoToProduct(ProductDao dao) {
+    /* Latest version of every requested product in one lookup. Products that do not exist are missing from the result */
+    Map<Long, ProductDao> getActiveProductsForIds(Set<Long> productIds) {
+        return productRepository.getActiveForIds(productIds);
+    }
+
+    public static Product mapDaoToProduct(ProductDao dao) {
         return new Product(dao.getProductId(), dao.getName(), dao.getPrice());
     }
 }
@@ -0,0 +1,25 @@
+package com.challenge.ordermaker.service;
+
+import org.springframework.core.NestedRuntimeException;
+import org.springframework.dao.TransientDataAccessException;
+
+/* What a batch reports on an item it could not write.
+   A transient failure, a lock timeout or a deadlock, may well pass when the item is sent again, so the item is told
+   just that. Anything else, a value the column does not take for example, fails the same way on every resend, so the
+   item gets the cause itself. */
+final class WriteFailures {
+
+    private WriteFailures() {
+    }
+
+    static String describe(Throwable failure, String retryable) {
+        if (failure instanceof TransientDataAccessException) {
+            return retryable;
+        }
+        Throwable cause = failure instanceof NestedRuntimeException ? ((NestedRuntimeException) failure).getMostSpecificCause() : failure;
+        String message = cause.getMessage() == null ? cause.getClass().getSimpleName() : cause.getMessage();
+        /* H2 appends the statement and its error code, which tell the client nothing about its item */
+        int statement = message.indexOf("; SQL statement:");
+        return statement < 0 ? message : message.substring(0, statement);
+    }
+}
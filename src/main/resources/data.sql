@@ -3,12 +3,20 @@ CREATE TABLE IF NOT EXISTS PRODUCTS (
    name VARCHAR(500) NOT NULL, 
    price DECIMAL NOT NULL, 
    version INT NOT NULL, 
-   latest BOOLEAN
+   latest BOOLEAN,
+   primary key (productId, version)
+);
+
+CREATE TABLE IF NOT EXISTS PRODUCT_HEADS (
+   productId BIGINT PRIMARY KEY NOT NULL,
+   name VARCHAR(500) NOT NULL,
+   price DECIMAL NOT NULL,
+   version INT NOT NULL
 );
 
 CREATE VIEW IF NOT EXISTS ACTIVE_PRODUCTS
 AS
-SELECT * FROM PRODUCTS WHERE latest = TRUE;
+SELECT productId, name, price, version, TRUE AS latest FROM PRODUCT_HEADS;
 
 CREATE TABLE IF NOT EXISTS ORDERS (
    orderId BIGINT PRIMARY KEY NOT NULL,
@@ -16,6 +24,9 @@ CREATE TABLE IF NOT EXISTS ORDERS (
    orderTime TIMESTAMP NOT NULL
 );
 
+-- The address as ORDER_BUYER_INDEX keys it, lower case and trimmed, so a buyer has one key however the address was typed
+ALTER TABLE ORDERS ADD COLUMN IF NOT EXISTS buyerEmailKey VARCHAR(500) AS LOWER(TRIM(buyerEmailId));
+
 CREATE TABLE IF NOT EXISTS ORDERS_PRODUCTS (
   orderId BIGINT NOT NULL,
   productId BIGINT NOT NULL,
@@ -24,6 +35,31 @@ CREATE TABLE IF NOT EXISTS ORDERS_PRODUCTS (
   foreign key (productId, version) references PRODUCTS(productId, version)
 );
 
+CREATE TABLE IF NOT EXISTS ORDER_SNAPSHOTS (
+   orderId BIGINT PRIMARY KEY NOT NULL,
+   buyerEmailId VARCHAR(500) NOT NULL,
+   orderTime TIMESTAMP NOT NULL,
+   orderCost REAL NOT NULL,
+   productLines VARBINARY NOT NULL,
+   foreign key (orderId) references ORDERS(orderId)
+);
+
+CREATE TABLE IF NOT EXISTS PRODUCT_SALES_HOURLY (
+   hourStart TIMESTAMP NOT NULL,
+   productId BIGINT NOT NULL,
+   version INT NOT NULL,
+   stripe INT DEFAULT 0 NOT NULL,
+   units BIGINT NOT NULL,
+   revenue DOUBLE NOT NULL,
+   primary key (hourStart, productId, version, stripe)
+);
+
+-- Concurrent orders add their sales to different stripes, see H2ProductSalesRepository. Rollups created before the
+-- stripes existed get the column, and their key is rebuilt with it, which is cheap on a table of hourly rows
+ALTER TABLE PRODUCT_SALES_HOURLY ADD COLUMN IF NOT EXISTS stripe INT DEFAULT 0 NOT NULL BEFORE units;
+ALTER TABLE PRODUCT_SALES_HOURLY DROP PRIMARY KEY;
+ALTER TABLE PRODUCT_SALES_HOURLY ADD PRIMARY KEY (hourStart, productId, version, stripe);
+
 
 CREATE SEQUENCE IF NOT EXISTS SQ_PRODUCT_ID;
 CREATE SEQUENCE IF NOT EXISTS SQ_ORDER_ID;
@@ -32,4 +68,18 @@ CREATE SEQUENCE IF NOT EXISTS SQ_ORDER_ID;
 CREATE INDEX IF NOT EXISTS PRODUCT_LATEST ON PRODUCTS(PRODUCTID, LATEST);
 CREATE INDEX IF NOT EXISTS PRODUCT_ID_INDEX ON PRODUCTS(PRODUCTID);
 CREATE INDEX IF NOT EXISTS ORDER_PRODUCT_INDEX ON ORDERS_PRODUCTS(ORDERID);
-CREATE INDEX IF NOT EXISTS ORDER_PRODUCT_ALL_INDEX ON ORDERS_PRODUCTS(PRODUCTID, ORDERID, VERSION);
\ No newline at end of file
+CREATE INDEX IF NOT EXISTS ORDER_PRODUCT_ALL_INDEX ON ORDERS_PRODUCTS(PRODUCTID, ORDERID, VERSION);
+-- Lookups by version read ORDER_PRODUCT_ALL_INDEX, a third index on the lines only made placing orders slower
+DROP INDEX IF EXISTS ORDER_PRODUCT_VERSION_INDEX;
+CREATE INDEX IF NOT EXISTS ORDER_TIME_INDEX ON ORDERS(ORDERTIME, ORDERID);
+CREATE INDEX IF NOT EXISTS ORDER_BUYER_INDEX ON ORDERS(BUYEREMAILKEY, ORDERTIME DESC, ORDERID DESC);
+CREATE INDEX IF NOT EXISTS PRODUCT_SALES_PRODUCT_INDEX ON PRODUCT_SALES_HOURLY(PRODUCTID, HOURSTART);
+
+-- Orders placed before the rollup existed. Only runs while it is still empty, later orders add to it themselves
+INSERT INTO PRODUCT_SALES_HOURLY (hourStart, productId, version, units, revenue)
+SELECT PARSEDATETIME(FORMATDATETIME(o.orderTime, 'yyyy-MM-dd HH'), 'yyyy-MM-dd HH') AS hourStart, op.productId, op.version,
+       COUNT(*), SUM(p.price)
+FROM ORDERS o JOIN ORDERS_PRODUCTS op ON op.orderId = o.orderId
+JOIN PRODUCTS p ON p.productId = op.productId and p.version = op.version
+where NOT EXISTS (SELECT 1 FROM PRODUCT_SALES_HOURLY)
+GROUP BY hourStart, op.productId, op.version;
\ No newline at end of file
@@ -1,16 +1,35 @@
 package com.challenge.ordermaker;
 
+import com.challenge.ordermaker.api.v1.BinaryFormats;
 import com.challenge.ordermaker.api.v1.OrderController;
 import com.challenge.ordermaker.api.v1.ProductController;
+import com.challenge.ordermaker.api.v1.request.BuyerOrdersPageRequest;
+import com.challenge.ordermaker.api.v1.request.OrderBatchCreateRequest;
 import com.challenge.ordermaker.api.v1.request.OrderCreateRequest;
+import com.challenge.ordermaker.api.v1.request.OrderView;
+import com.challenge.ordermaker.api.v1.request.OrdersInRangePageRequest;
 import com.challenge.ordermaker.api.v1.request.OrdersInRangeRequest;
+import com.challenge.ordermaker.api.v1.request.ProductBatchRequest;
 import com.challenge.ordermaker.api.v1.request.ProductCreateRequest;
+import com.challenge.ordermaker.api.v1.request.ProductOrdersPageRequest;
 import com.challenge.ordermaker.api.v1.request.ProductUpdateRequest;
+import com.challenge.ordermaker.api.v1.request.SalesGrouping;
 import com.challenge.ordermaker.api.v1.response.Order;
+import com.challenge.ordermaker.api.v1.response.OrderIdPage;
+import com.challenge.ordermaker.api.v1.response.OrderPage;
+import com.challenge.ordermaker.api.v1.response.OrderPlacementResult;
 import com.challenge.ordermaker.api.v1.response.Product;
+import com.challenge.ordermaker.api.v1.response.ProductBatchResult;
+import com.challenge.ordermaker.api.v1.response.ProductSales;
+import com.challenge.ordermaker.api.v1.response.RepricingProgress;
 import com.challenge.ordermaker.error.ResourceNotFoundException;
+import com.challenge.ordermaker.service.OrderPurgeEndpoint;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.springframework.boot.actuate.endpoint.InvalidEndpointRequestException;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
 import org.springframework.boot.test.context.SpringBootTest;
@@ -19,17 +38,26 @@ import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.test.context.ActiveProfiles;
 import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import javax.validation.Validator;
+import java.io.ByteArrayOutputStream;
 import java.time.LocalDateTime;
 import java.time.temporal.ChronoUnit;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Objects;
 import java.util.Set;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 
 @RunWith(SpringRunner.class)
@@ -45,26 +73,44 @@ public class OrdermakerIntegrationTests {
     private ProductController productController;
     @Autowired
     private OrderController orderController;
+    @Autowired
+    private OrderPurgeEndpoint orderPurgeEndpoint;
+    @Autowired
+    private Validator validator;
+
+    @Test
+    public void batchItemsTheDatabaseCannotTakeMustBeRejectedByValidation() {
+        char[] name = new char[501];
+        Arrays.fill(name, 'n');
+        assertEquals(validator.validate(new ProductBatchRequest(
+                Arrays.asList(new ProductCreateRequest(new String(name), 1f), new ProductCreateRequest("Fine", 1f)),
+                Arrays.asList(new ProductUpdateRequest(1, "Fine", Float.NaN), new ProductUpdateRequest(2, "Fine", Float.POSITIVE_INFINITY))))
+                .size(), 3);
+        assertEquals(validator.validate(new OrderBatchCreateRequest(Collections.singletonList(
+                new OrderCreateRequest(new String(name) + "@mail.com", Collections.singleton(1L), LocalDateTime.now())))).size(), 1);
+        assertTrue(validator.validate(new ProductBatchRequest(Collections.singletonList(new ProductCreateRequest(new String(name, 0, 500), 1f)),
+                Collections.singletonList(new ProductUpdateRequest(1, "Fine", 2.5f)))).isEmpty());
+    }
 
     @Test
-    public void testTheEntireFlow() {
+    public void testTheEntireFlow() throws Exception {
 
         /* should throw not found for non existing product */
-        ResponseEntity<Product> productResponseEntity = productController.get(999L);
+        ResponseEntity<Product> productResponseEntity = productController.get(999L, null, null);
         assertEquals(productResponseEntity.getStatusCode(), HttpStatus.NOT_FOUND);
 
         /* should throw not found for non existing order */
-        ResponseEntity<Order> orderResponseEntity = orderController.get(999L);
+        ResponseEntity<Order> orderResponseEntity = orderController.get(999L, OrderView.FULL, null, null);
         assertEquals(orderResponseEntity.getStatusCode(), HttpStatus.NOT_FOUND);
 
         /* should return empty set when there are no products */
-        ResponseEntity<Set<Product>> allProducts = productController.getAll();
+        ResponseEntity<Set<Product>> allProducts = productController.getAll(null, null);
         assertEquals(allProducts.getStatusCode(), HttpStatus.OK);
         assertEquals(Objects.requireNonNull(allProducts.getBody()).size(), 0);
 
         /* should return empty set when there are no orders */
         OrdersInRangeRequest ordersInRangeRequest = new OrdersInRangeRequest(LocalDateTime.now().minus(5, ChronoUnit.HOURS), LocalDateTime.now());
-        ResponseEntity<Set<Order>> allOrdersInTime = orderController.getAll(ordersInRangeRequest);
+        ResponseEntity<Set<Order>> allOrdersInTime = orderController.getAll(ordersInRangeRequest, OrderView.FULL);
         assertEquals(allOrdersInTime.getStatusCode(), HttpStatus.OK);
         assertEquals(Objects.requireNonNull(allProducts.getBody()).size(), 0);
 
@@ -98,7 +144,12 @@ public class OrdermakerIntegrationTests {
 
         /* The OrderCreation should fail if product ids are not valid. We validate this*/
         OrderCreateRequest orderCreateRequestWithIds = new OrderCreateRequest("test@test.com", new HashSet<>(Arrays.asList(1L)), LocalDateTime.now());
-        assertEquals(orderController.place(orderCreateRequestWithIds).getStatusCode(), HttpStatus.BAD_REQUEST);
+        ResponseEntity<?> unknownProductsResponse = orderController.place(orderCreateRequestWithIds);
+        assertEquals(unknownProductsResponse.getStatusCode(), HttpStatus.BAD_REQUEST);
+        assertEquals(unknownProductsResponse.getHeaders().getFirst("X-Unknown-Product-Ids"), "1");
+        OrderPlacementResult unknownProductsResult = (OrderPlacementResult) unknownProductsResponse.getBody();
+        assertFalse(unknownProductsResult.isPlaced());
+        assertEquals(unknownProductsResult.getUnknownProductIds(), new HashSet<>(Arrays.asList(1L)));
 
 
         /* Create 10 products */
@@ -110,13 +161,13 @@ public class OrdermakerIntegrationTests {
         }
 
         /* product getAll must return now all 10 products */
-        ResponseEntity<Set<Product>> allProductsResponse = productController.getAll();
+        ResponseEntity<Set<Product>> allProductsResponse = productController.getAll(null, null);
         assertEquals(allProducts.getStatusCode(), HttpStatus.OK);
         assertEquals(Objects.requireNonNull(allProductsResponse.getBody()).size(), 10);
 
         /* product get must return the correct corresponding product */
         for (int i = 1; i <= 10; i++) {
-            ResponseEntity<Product> productGetResponse = productController.get((long) i);
+            ResponseEntity<Product> productGetResponse = productController.get((long) i, null, null);
             assertEquals(productGetResponse.getStatusCode(), HttpStatus.OK);
             Product product = productGetResponse.getBody();
             assertEquals(product.getName(), "Name" + "_" + i);
@@ -128,11 +179,11 @@ public class OrdermakerIntegrationTests {
         HashSet<Long> productIds = new HashSet<>(Arrays.asList(1L, 2L, 3L, 4L, 5L));
         LocalDateTime now = LocalDateTime.now();
         OrderCreateRequest orderCreateRequestValid = new OrderCreateRequest("test@test.com", productIds, now);
-        ResponseEntity<Order> orderCreatedResponse = orderController.place(orderCreateRequestValid);
+        ResponseEntity<?> orderCreatedResponse = orderController.place(orderCreateRequestValid);
 
         /* The order created and give an order cost by summing all product costs and get correct order details */
         assertEquals(orderCreatedResponse.getStatusCode(), HttpStatus.OK);
-        Order order = orderCreatedResponse.getBody();
+        Order order = (Order) orderCreatedResponse.getBody();
         assertEquals(order.getOrderId(), 1);
         assertEquals(order.getOrderTime(), now);
         assertEquals(order.getBuyerEmailId(), "test@test.com");
@@ -151,7 +202,7 @@ public class OrdermakerIntegrationTests {
 
 
         /* The order get must find the order based on id */
-        ResponseEntity<Order> orderResponseEntityValid = orderController.get(1L);
+        ResponseEntity<Order> orderResponseEntityValid = orderController.get(1L, OrderView.FULL, null, null);
         assertEquals(orderResponseEntityValid.getStatusCode(), HttpStatus.OK);
         assertEquals(orderResponseEntityValid.getBody().getOrderId(), 1);
 
@@ -159,11 +210,26 @@ public class OrdermakerIntegrationTests {
         assertEquals(orderController.recalculate(1L).getStatusCode(), HttpStatus.OK);
         assertEquals(orderController.recalculate(1L).getBody(), 1.5 + 2.5 + 3.5 + 4.5 + 5.5, 0);
 
+        /* Responses carry a tag, asking again with it answers 304 as long as nothing changed */
+        String orderTag = orderResponseEntityValid.getHeaders().getETag();
+        String productTag = productController.get(1L, null, null).getHeaders().getETag();
+        String catalogTag = productController.getAll(null, null).getHeaders().getETag();
+        assertNotNull(orderTag);
+        assertNotNull(productTag);
+        assertNotNull(catalogTag);
+        assertEquals(orderController.get(1L, OrderView.FULL, orderTag, null).getStatusCode(), HttpStatus.NOT_MODIFIED);
+        assertEquals(orderController.get(1L, OrderView.SUMMARY, orderTag, null).getStatusCode(), HttpStatus.OK);
+        assertEquals(orderController.get(1L, OrderView.FULL, orderTag, BinaryFormats.SMILE).getStatusCode(), HttpStatus.OK);
+        assertEquals(productController.get(1L, "W/" + productTag, null).getStatusCode(), HttpStatus.NOT_MODIFIED);
+        assertEquals(productController.get(2L, productTag, null).getStatusCode(), HttpStatus.OK);
+        assertEquals(productController.getAll(catalogTag, null).getStatusCode(), HttpStatus.NOT_MODIFIED);
+        assertNull(productController.getAll(catalogTag, null).getBody());
+
 
         /* update the product 1 to have a price 1000 */
         ProductUpdateRequest productUpdateRequestValid = new ProductUpdateRequest(1, "new Value", 1000);
         assertEquals(productController.update(productUpdateRequestValid).getStatusCode(), HttpStatus.OK);
-        ResponseEntity<Order> orderResponseAfterPriceUpdate = orderController.get(1L);
+        ResponseEntity<Order> orderResponseAfterPriceUpdate = orderController.get(1L, OrderView.FULL, null, null);
         assertEquals(orderResponseEntityValid.getStatusCode(), HttpStatus.OK);
         Order orderAfterProductUpdate = orderResponseAfterPriceUpdate.getBody();
 
@@ -176,13 +242,20 @@ public class OrdermakerIntegrationTests {
 
 
         /* Product Get returns the new latest product price*/
-        ResponseEntity<Product> productGetResponse = productController.get(1L);
+        ResponseEntity<Product> productGetResponse = productController.get(1L, null, null);
         assertEquals(productGetResponse.getStatusCode(), HttpStatus.OK);
         Product product = productGetResponse.getBody();
         assertEquals(product.getName(), "new Value");
         assertEquals(product.getProductId(), 1);
         assertEquals(product.getPrice(), 1000, 0);
 
+        /* The update changed the product and the catalog but not the placed order */
+        assertEquals(productController.get(1L, productTag, null).getStatusCode(), HttpStatus.OK);
+        assertFalse(productGetResponse.getHeaders().getETag().equals(productTag));
+        assertEquals(productController.get(1L, productGetResponse.getHeaders().getETag(), null).getStatusCode(), HttpStatus.NOT_MODIFIED);
+        assertEquals(productController.getAll(catalogTag, null).getStatusCode(), HttpStatus.OK);
+        assertEquals(orderController.get(1L, OrderView.FULL, orderTag, null).getStatusCode(), HttpStatus.NOT_MODIFIED);
+
         /* We try recalculate the order cost. one product was updated. So recalculation returns the order cost based on new price*/
         assertEquals(orderController.recalculate(1L).getStatusCode(), HttpStatus.OK);
         assertEquals(orderController.recalculate(1L).getBody(), 1000 + 2.5 + 3.5 + 4.5 + 5.5, 0);
@@ -190,11 +263,11 @@ public class OrdermakerIntegrationTests {
         /* All orders created after the product update must have the new price*/
         HashSet<Long> productIdsIncludingUpdatedOne = new HashSet<>(Arrays.asList(1L, 2L, 3L, 4L, 5L));
         OrderCreateRequest orderCreateRequestValidAfterProductUpdate = new OrderCreateRequest("test@test.com", productIdsIncludingUpdatedOne, now);
-        ResponseEntity<Order> orderCreatedResponseAfterProductUpdate = orderController.place(orderCreateRequestValidAfterProductUpdate);
+        ResponseEntity<?> orderCreatedResponseAfterProductUpdate = orderController.place(orderCreateRequestValidAfterProductUpdate);
 
         /* The order created must find the correct products based on Ids in sorted form and give the updated price for updated product*/
         assertEquals(orderCreatedResponseAfterProductUpdate.getStatusCode(), HttpStatus.OK);
-        Order orderCreatedAfterUpdate = orderCreatedResponseAfterProductUpdate.getBody();
+        Order orderCreatedAfterUpdate = (Order) orderCreatedResponseAfterProductUpdate.getBody();
         assertEquals(orderCreatedAfterUpdate.getOrderId(), 2L);
         assertEquals(orderCreatedAfterUpdate.getOrderTime(), now);
         assertEquals(orderCreatedAfterUpdate.getBuyerEmailId(), "test@test.com");
@@ -216,5 +289,189 @@ public class OrdermakerIntegrationTests {
             }
             index++;
         }
+
+        /* Orders in range are hydrated with the product versions they were placed with */
+        ResponseEntity<Set<Order>> ordersInRange = orderController.getAll(new OrdersInRangeRequest(now.minusMinutes(1), now.plusMinutes(1)), OrderView.FULL);
+        assertEquals(ordersInRange.getStatusCode(), HttpStatus.OK);
+        Iterator<Order> ordersIterator = Objects.requireNonNull(ordersInRange.getBody()).iterator();
+        Order firstOrderInRange = ordersIterator.next();
+        assertEquals(firstOrderInRange.getOrderId(), 1);
+        assertEquals(firstOrderInRange.getProducts().size(), 5);
+        assertEquals(firstOrderInRange.getOrderCost(), 1.5 + 2.5 + 3.5 + 4.5 + 5.5, 0);
+        Order secondOrderInRange = ordersIterator.next();
+        assertEquals(secondOrderInRange.getOrderId(), 2);
+        assertEquals(secondOrderInRange.getOrderCost(), 1000 + 2.5 + 3.5 + 4.5 + 5.5, 0);
+
+        /* Orders in range can be read page by page using the cursor of the previous page */
+        ResponseEntity<OrderPage> firstPage = orderController.getPage(new OrdersInRangePageRequest(now.minusMinutes(1), now.plusMinutes(1), null, 1), OrderView.FULL);
+        assertEquals(firstPage.getStatusCode(), HttpStatus.OK);
+        assertEquals(firstPage.getBody().getOrders().size(), 1);
+        assertEquals(firstPage.getBody().getOrders().get(0).getOrderId(), 1);
+        assertNotNull(firstPage.getBody().getNextCursor());
+
+        ResponseEntity<OrderPage> secondPage = orderController.getPage(new OrdersInRangePageRequest(now.minusMinutes(1), now.plusMinutes(1), firstPage.getBody().getNextCursor(), 1), OrderView.FULL);
+        assertEquals(secondPage.getBody().getOrders().size(), 1);
+        assertEquals(secondPage.getBody().getOrders().get(0).getOrderId(), 2);
+        assertEquals(secondPage.getBody().getOrders().get(0).getProducts().size(), 5);
+        assertNull(secondPage.getBody().getNextCursor());
+
+        /* Orders in range can be streamed, one JSON order per line */
+        ByteArrayOutputStream streamed = new ByteArrayOutputStream();
+        orderController.stream(new OrdersInRangeRequest(now.minusMinutes(1), now.plusMinutes(1)), OrderView.FULL, null).getBody().writeTo(streamed);
+        String[] lines = streamed.toString().split("\n");
+        assertEquals(lines.length, 2);
+        assertTrue(lines[0].startsWith("{\"orderId\":1,"));
+        assertTrue(lines[1].startsWith("{\"orderId\":2,"));
+
+        /* Smaller views leave out the products, the cost is the same */
+        Order summary = orderController.get(1L, OrderView.SUMMARY, null, null).getBody();
+        assertNull(summary.getProducts());
+        assertNull(summary.getProductIds());
+        assertEquals(summary.getOrderCost(), 1.5 + 2.5 + 3.5 + 4.5 + 5.5, 0);
+        OrderPage idsPage = orderController.getPage(new OrdersInRangePageRequest(now.minusMinutes(1), now.plusMinutes(1), null, 1), OrderView.IDS).getBody();
+        assertEquals(idsPage.getOrders().get(0).getProductIds(), new HashSet<>(Arrays.asList(1L, 2L, 3L, 4L, 5L)));
+        assertNull(idsPage.getOrders().get(0).getProducts());
+        assertEquals(orderController.getPage(new OrdersInRangePageRequest(now.minusMinutes(1), now.plusMinutes(1), idsPage.getNextCursor(), 1), OrderView.IDS)
+                .getBody().getOrders().get(0).getOrderCost(), 1000 + 2.5 + 3.5 + 4.5 + 5.5, 0);
+        ByteArrayOutputStream streamedSummaries = new ByteArrayOutputStream();
+        orderController.stream(new OrdersInRangeRequest(now.minusMinutes(1), now.plusMinutes(1)), OrderView.SUMMARY, null).getBody().writeTo(streamedSummaries);
+        String summaryLine = streamedSummaries.toString().split("\n")[0];
+        assertTrue(summaryLine.startsWith("{\"orderId\":1,\"buyerEmailId\":\"test@test.com\",\"orderTime\":"));
+        assertTrue(summaryLine.endsWith(",\"orderCost\":17.5}"));
+        assertFalse(summaryLine.contains("product"));
+
+        /* The stream can be Smile instead of JSON, one Smile value per order */
+        ResponseEntity<StreamingResponseBody> smileStream = orderController.stream(new OrdersInRangeRequest(now.minusMinutes(1), now.plusMinutes(1)),
+                OrderView.FULL, "application/x-jackson-smile, application/x-ndjson;q=0.5");
+        assertEquals(smileStream.getHeaders().getContentType().toString(), "application/x-jackson-smile");
+        ByteArrayOutputStream streamedSmile = new ByteArrayOutputStream();
+        smileStream.getBody().writeTo(streamedSmile);
+        List<JsonNode> smileOrders = new ObjectMapper(new SmileFactory()).readerFor(JsonNode.class)
+                .<JsonNode>readValues(streamedSmile.toByteArray()).readAll();
+        assertEquals(smileOrders.size(), 2);
+        assertEquals(smileOrders.get(1).get("orderId").asLong(), 2);
+        assertEquals(smileOrders.get(1).get("products").size(), 5);
+        assertEquals(smileOrders.get(1).get("orderCost").asDouble(), 1000 + 2.5 + 3.5 + 4.5 + 5.5, 0);
+
+        /* Many orders can be placed at once, orders with unknown products are reported and not placed */
+        ResponseEntity<List<OrderPlacementResult>> batchResponse = orderController.placeBatch(new OrderBatchCreateRequest(Arrays.asList(
+                new OrderCreateRequest("batch@test.com", new HashSet<>(Arrays.asList(6L, 7L)), now),
+                new OrderCreateRequest("batch@test.com", new HashSet<>(Arrays.asList(6L, 999L)), now),
+                new OrderCreateRequest("batch@test.com", new HashSet<>(Arrays.asList(1L)), now))));
+        assertEquals(batchResponse.getStatusCode(), HttpStatus.OK);
+        List<OrderPlacementResult> batchResults = batchResponse.getBody();
+        assertEquals(batchResults.size(), 3);
+        assertTrue(batchResults.get(0).isPlaced());
+        assertEquals(batchResults.get(0).getOrder().getOrderId(), 3);
+        assertEquals(batchResults.get(0).getOrder().getOrderCost(), 6.5 + 7.5, 0);
+        assertFalse(batchResults.get(1).isPlaced());
+        assertEquals(batchResults.get(1).getUnknownProductIds(), new HashSet<>(Arrays.asList(999L)));
+        assertTrue(batchResults.get(2).isPlaced());
+        assertEquals(batchResults.get(2).getOrder().getOrderId(), 4);
+        assertEquals(batchResults.get(2).getOrder().getOrderCost(), 1000, 0);
+        assertEquals(orderController.get(4L, OrderView.FULL, null, null).getBody().getOrderCost(), 1000, 0);
+
+        /* The orders of a buyer come newest first, the address is matched in any case. Orders 3 and 4 have the same time */
+        OrderPage buyerPage = orderController.getForBuyer(new BuyerOrdersPageRequest(" Batch@Test.com ", null, 1), OrderView.FULL).getBody();
+        assertEquals(buyerPage.getOrders().size(), 1);
+        assertEquals(buyerPage.getOrders().get(0).getOrderId(), 4);
+        assertEquals(buyerPage.getOrders().get(0).getProducts().size(), 1);
+        OrderPage lastBuyerPage = orderController.getForBuyer(new BuyerOrdersPageRequest("batch@test.com", buyerPage.getNextCursor(), 1), OrderView.FULL).getBody();
+        assertEquals(lastBuyerPage.getOrders().get(0).getOrderId(), 3);
+        assertNull(lastBuyerPage.getNextCursor());
+        OrderPage buyerIds = orderController.getForBuyer(new BuyerOrdersPageRequest("test@test.com", null, 10), OrderView.IDS).getBody();
+        assertEquals(buyerIds.getOrders().size(), 2);
+        assertEquals(buyerIds.getOrders().get(0).getOrderId(), 2);
+        assertEquals(buyerIds.getOrders().get(1).getProductIds(), new HashSet<>(Arrays.asList(1L, 2L, 3L, 4L, 5L)));
+        assertEquals(orderController.getForBuyer(new BuyerOrdersPageRequest("nobody@test.com", null, 10), OrderView.FULL).getBody().getOrders().size(), 0);
+
+        /* Orders holding a product come in orderId order. Order 1 was placed before product 1 was updated, 2 and 4 after */
+        OrderIdPage productPage = orderController.getIdsForProduct(new ProductOrdersPageRequest(1L, null, null, null, null, 2)).getBody();
+        assertEquals(productPage.getOrderIds(), Arrays.asList(1L, 2L));
+        assertEquals(productPage.getNextCursor(), "2");
+        OrderIdPage lastProductPage = orderController.getIdsForProduct(new ProductOrdersPageRequest(1L, null, null, null, productPage.getNextCursor(), 2)).getBody();
+        assertEquals(lastProductPage.getOrderIds(), Collections.singletonList(4L));
+        assertNull(lastProductPage.getNextCursor());
+        assertEquals(orderController.getIdsForProduct(new ProductOrdersPageRequest(1L, 1, null, null, null, 10)).getBody().getOrderIds(), Collections.singletonList(1L));
+        assertEquals(orderController.getIdsForProduct(new ProductOrdersPageRequest(1L, 2, null, null, null, 10)).getBody().getOrderIds(), Arrays.asList(2L, 4L));
+        assertEquals(orderController.getIdsForProduct(new ProductOrdersPageRequest(6L, null, now, now, null, 10)).getBody().getOrderIds(), Collections.singletonList(3L));
+        assertEquals(orderController.getIdsForProduct(new ProductOrdersPageRequest(6L, null, now.plusSeconds(1), null, null, 10)).getBody().getOrderIds().size(), 0);
+        OrderPage productOrders = orderController.getForProduct(new ProductOrdersPageRequest(1L, 2, null, now, null, 1), OrderView.FULL).getBody();
+        assertEquals(productOrders.getOrders().size(), 1);
+        assertEquals(productOrders.getOrders().get(0).getOrderId(), 2);
+        assertEquals(productOrders.getOrders().get(0).getProducts().size(), 5);
+        assertEquals(productOrders.getNextCursor(), "2");
+        OrderPage productOrderIds = orderController.getForProduct(new ProductOrdersPageRequest(1L, 2, null, null, productOrders.getNextCursor(), 10), OrderView.IDS).getBody();
+        assertEquals(productOrderIds.getOrders().get(0).getOrderId(), 4);
+        assertEquals(productOrderIds.getOrders().get(0).getProductIds(), Collections.singleton(1L));
+
+        /* Many products can be created and updated at once, unknown products are reported per item */
+        ResponseEntity<ProductBatchResult> productBatchResponse = productController.batch(new ProductBatchRequest(
+                Arrays.asList(new ProductCreateRequest("Batch_1", 11f), new ProductCreateRequest("Batch_2", 12f)),
+                Arrays.asList(new ProductUpdateRequest(2, "Repriced", 20f), new ProductUpdateRequest(999, "Unknown", 1f),
+                        new ProductUpdateRequest(2, "Repriced again", 21f))));
+        assertEquals(productBatchResponse.getStatusCode(), HttpStatus.OK);
+        ProductBatchResult productBatchResult = productBatchResponse.getBody();
+        assertEquals(productBatchResult.getCreates().get(0).getProduct().getProductId(), 11);
+        assertEquals(productBatchResult.getCreates().get(1).getProduct().getProductId(), 12);
+        assertEquals(productBatchResult.getUpdates().get(0).getProduct().getPrice(), 20f, 0);
+        assertNull(productBatchResult.getUpdates().get(1).getProduct());
+        assertNotNull(productBatchResult.getUpdates().get(1).getError());
+        assertEquals(productBatchResult.getUpdates().get(2).getProduct().getPrice(), 21f, 0);
+        assertEquals(productController.get(2L, null, null).getBody().getName(), "Repriced again");
+        assertEquals(productController.get(12L, null, null).getBody().getName(), "Batch_2");
+        assertEquals(Objects.requireNonNull(productController.getAll(null, null).getBody()).size(), 12);
+
+        /* Orders placed before the batch update keep their product versions */
+        assertEquals(orderController.get(3L, OrderView.FULL, null, null).getBody().getOrderCost(), 6.5 + 7.5, 0);
+        assertEquals(orderController.get(1L, OrderView.FULL, null, null).getBody().getOrderCost(), 1.5 + 2.5 + 3.5 + 4.5 + 5.5, 0);
+        assertEquals(orderController.recalculate(1L).getBody(), 1000 + 21 + 3.5 + 4.5 + 5.5, 0);
+
+        /* Every order in the range can be repriced at once, one line per order with its original and current cost */
+        ResponseEntity<StreamingResponseBody> repricing = orderController.recalculateAll(new OrdersInRangeRequest(now.minusMinutes(1), now.plusMinutes(1)), null);
+        String jobId = repricing.getHeaders().getFirst("X-Repricing-Job");
+        ByteArrayOutputStream repriced = new ByteArrayOutputStream();
+        repricing.getBody().writeTo(repriced);
+        String[] repricedLines = repriced.toString().split("\n");
+        assertEquals(repricedLines.length, 4);
+        assertTrue(repricedLines[0].startsWith("{\"orderId\":1,"));
+        assertTrue(repricedLines[0].contains("\"originalCost\":17.5,\"currentCost\":1034.5,\"difference\":1017.0"));
+        assertTrue(repricedLines[2].contains("\"orderId\":3,"));
+        assertTrue(repricedLines[2].contains("\"difference\":0.0"));
+        RepricingProgress repricingProgress = orderController.recalculateProgress(jobId).getBody();
+        assertEquals(repricingProgress.getState(), RepricingProgress.State.DONE);
+        assertEquals(repricingProgress.getOrdersRepriced(), 4);
+        assertEquals(orderController.recalculateProgress("unknown").getStatusCode(), HttpStatus.NOT_FOUND);
+
+        /* The sales report sums the same lines as the orders themselves, without reading them */
+        OrdersInRangeRequest around = new OrdersInRangeRequest(now.minusMinutes(1), now.plusMinutes(1));
+        Set<Order> placedOrders = orderController.getAll(around, OrderView.FULL).getBody();
+        long unitsOfProduct1 = placedOrders.stream().flatMap(o -> o.getProducts().stream()).filter(p -> p.getProductId() == 1).count();
+        double revenueOfProduct1 = placedOrders.stream().flatMap(o -> o.getProducts().stream()).filter(p -> p.getProductId() == 1)
+                .mapToDouble(Product::getPrice).sum();
+        List<ProductSales> salesOfProduct1 = productController.sales(around, 1L, SalesGrouping.PRODUCT).getBody();
+        assertEquals(salesOfProduct1.size(), 1);
+        assertEquals(salesOfProduct1.get(0).getUnits(), unitsOfProduct1);
+        assertEquals(salesOfProduct1.get(0).getRevenue(), revenueOfProduct1, 0.001);
+        assertEquals(productController.sales(around, 1L, SalesGrouping.VERSION).getBody().size(), 2);
+        assertNotNull(productController.sales(around, null, SalesGrouping.HOUR).getBody().get(0).getHourStart());
+
+        /* Purging old orders only removes orders placed before the cutoff, and only the count the dry run confirmed */
+        assertEquals(orderPurgeEndpoint.preview(now.minusMinutes(1).toString()).getMatchingOrders(), 0);
+        assertEquals(orderPurgeEndpoint.purge(now.minusMinutes(1).toString(), 0).getPurgedOrders(), 0);
+        assertEquals(orderPurgeEndpoint.preview(now.plusMinutes(1).toString()).getMatchingOrders(), 4);
+        try {
+            orderPurgeEndpoint.purge(now.plusMinutes(1).toString(), 3);
+            fail("a purge whose count does not match the dry run must be refused");
+        } catch (InvalidEndpointRequestException expected) {
+            assertEquals(orderPurgeEndpoint.preview(now.plusMinutes(1).toString()).getMatchingOrders(), 4);
+        }
+        assertEquals(orderPurgeEndpoint.purge(now.plusMinutes(1).toString(), 4).getPurgedOrders(), 4);
+        assertEquals(orderController.get(1L, OrderView.FULL, null, null).getStatusCode(), HttpStatus.NOT_FOUND);
+        assertEquals(orderController.get(1L, OrderView.FULL, orderTag, null).getStatusCode(), HttpStatus.NOT_FOUND);
+
+        /* Sales outlive purged orders */
+        assertEquals(productController.sales(around, 1L, SalesGrouping.PRODUCT).getBody().get(0).getUnits(), unitsOfProduct1);
+        assertEquals(Objects.requireNonNull(orderController.getAll(new OrdersInRangeRequest(now.minusMinutes(1), now.plusMinutes(1)), OrderView.FULL).getBody()).size(), 0);
     }
 }
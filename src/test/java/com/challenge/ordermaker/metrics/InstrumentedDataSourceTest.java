@@ -0,0 +1,162 @@
+package com.challenge.ordermaker.metrics;
+
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class InstrumentedDataSourceTest {
+
+    private SqlProfiler sqlProfiler;
+
+    private InstrumentedDataSource dataSource;
+
+    @Before
+    public void setUp() {
+        JdbcDataSource h2 = new JdbcDataSource();
+        h2.setURL("jdbc:h2:mem:roundtrips;DB_CLOSE_DELAY=-1");
+        sqlProfiler = new SqlProfiler(true, 0);
+        dataSource = new InstrumentedDataSource(h2, sqlProfiler);
+    }
+
+    @After
+    public void tearDown() {
+        RoundTripCounter.stop();
+    }
+
+    @Test
+    public void countsStatementsBatchesAndCommits() throws Exception {
+        try (Connection connection = dataSource.getConnection()) {
+            try (Statement statement = connection.createStatement()) {
+                statement.execute("CREATE TABLE IF NOT EXISTS T (id BIGINT)");
+            }
+
+            RoundTripCounter.start();
+            connection.setAutoCommit(false);
+            try (PreparedStatement insert = connection.prepareStatement("INSERT INTO T VALUES (?)")) {
+                for (int i = 0; i < 3; i++) {
+                    insert.setLong(1, i);
+                    insert.addBatch();
+                }
+                insert.executeBatch();
+            }
+            try (PreparedStatement select = connection.prepareStatement("SELECT COUNT(*) FROM T");
+                 ResultSet resultSet = select.executeQuery()) {
+                assertTrue(resultSet.next());
+            }
+            connection.commit();
+
+            /* One batch, one query and the commit */
+            assertEquals(3, RoundTripCounter.stop());
+        }
+    }
+
+    @Test
+    public void threadsThatDidNotStartAreNotCounted() throws Exception {
+        try (Connection connection = dataSource.getConnection();
+             Statement statement = connection.createStatement()) {
+            statement.execute("SELECT 1");
+        }
+        assertEquals(0, RoundTripCounter.stop());
+    }
+
+    @Test
+    public void profilesStatementsByNormalisedSql() throws Exception {
+        try (Connection connection = dataSource.getConnection()) {
+            try (Statement statement = connection.createStatement()) {
+                statement.execute("CREATE TABLE IF NOT EXISTS P (id BIGINT PRIMARY KEY, name VARCHAR(20))");
+                statement.execute("INSERT INTO P VALUES (1, 'a'), (2, 'b'), (3, 'c')");
+            }
+            sqlProfiler.reset();
+
+            /* Different IN list lengths and literals are the same statement. Every statement is slow (threshold 0),
+               so each one is also explained, which must neither fail nor be profiled itself */
+            try (PreparedStatement select = connection.prepareStatement("SELECT id FROM P where id IN (?, ?)")) {
+                select.setLong(1, 1);
+                select.setLong(2, 2);
+                try (ResultSet resultSet = select.executeQuery()) {
+                    while (resultSet.next()) {
+                        resultSet.getLong(1);
+                    }
+                }
+            }
+            try (Statement statement = connection.createStatement();
+                 ResultSet resultSet = statement.executeQuery("SELECT id FROM P  where id IN (3)")) {
+                while (resultSet.next()) {
+                    resultSet.getLong(1);
+                }
+            }
+            try (PreparedStatement update = connection.prepareStatement("UPDATE P set name = ? where id > ?")) {
+                update.setString(1, "z");
+                update.setLong(2, 0);
+                update.executeUpdate();
+            }
+        }
+
+        List<SqlStatementStats> statements = sqlProfiler.getStatements();
+        assertEquals(2, statements.size());
+        SqlStatementStats select = statements.stream().filter(stats -> stats.getSql().startsWith("SELECT")).findFirst().get();
+        assertEquals("SELECT id FROM P where id IN (?...)", select.getSql());
+        assertEquals(2, select.getCalls());
+        assertEquals(3, select.getRows());
+        SqlStatementStats update = statements.stream().filter(stats -> stats.getSql().startsWith("UPDATE")).findFirst().get();
+        assertEquals(1, update.getCalls());
+        assertEquals(3, update.getRows());
+        assertTrue(update.getMaxMs() <= update.getTotalMs());
+    }
+
+    @Test
+    public void slowStatementsAreExplainedWithoutTheirValuesAndLockingOnesNotAtAll() throws Exception {
+        try (Connection connection = dataSource.getConnection()) {
+            try (Statement statement = connection.createStatement()) {
+                statement.execute("CREATE TABLE IF NOT EXISTS B (id BIGINT PRIMARY KEY, email VARCHAR(50))");
+            }
+            Map<Integer, Object> parameters = new HashMap<>();
+            parameters.put(1, "buyer@mail.com");
+
+            String select = sqlProfiler.describeSlow("SELECT id FROM B where email = ?", 250_000_000L, connection, parameters);
+            assertTrue(select.startsWith("Slow SQL (250 ms): SELECT id FROM B where email = ?"));
+            assertTrue(select.contains("parameters: [String]"));
+            assertTrue(select.contains("FROM PUBLIC.B"));
+            /* A plain EXPLAIN, EXPLAIN ANALYZE would have run the query again */
+            assertFalse(select.contains("scanCount"));
+            assertFalse(select.contains("buyer@mail.com"));
+
+            String literal = sqlProfiler.describeSlow("SELECT id FROM B where email = 'buyer@mail.com'", 250_000_000L, connection,
+                    new HashMap<>());
+            assertFalse(literal.contains("buyer@mail.com"));
+
+            parameters.put(1, 1L);
+            assertEquals("Slow SQL (250 ms): SELECT id FROM B where id = ? FOR UPDATE",
+                    sqlProfiler.describeSlow("SELECT id FROM B where id = ? FOR UPDATE", 250_000_000L, connection, parameters));
+        }
+    }
+
+    @Test
+    public void normalisesLiteralsAndWhitespace() {
+        assertEquals("SELECT * FROM T where a = ? and b = ? and c = ?",
+                sqlProfiler.normalise("SELECT *\n  FROM T where a = 'it''s' and b = -12.5 and c = ?;"));
+    }
+
+    @Test
+    public void normalisesBatchSizedInLists() {
+        StringBuilder sql = new StringBuilder("SELECT productId FROM PRODUCT_HEADS where productId IN (?");
+        for (int i = 1; i < 5000; i++) {
+            sql.append(", ?");
+        }
+        sql.append(")");
+        assertEquals("SELECT productId FROM PRODUCT_HEADS where productId IN (?...)", sqlProfiler.normalise(sql.toString()));
+    }
+}
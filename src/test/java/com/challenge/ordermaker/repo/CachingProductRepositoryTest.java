@@ -0,0 +1,185 @@
+package com.challenge.ordermaker.repo;
+
+import com.challenge.ordermaker.api.v1.request.ProductCreateRequest;
+import com.challenge.ordermaker.api.v1.request.ProductUpdateRequest;
+import com.challenge.ordermaker.dao.ProductDao;
+import org.junit.Assert;
+import org.junit.Test;
+import org.springframework.dao.EmptyResultDataAccessException;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+
+import static org.hamcrest.collection.IsCollectionWithSize.hasSize;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class CachingProductRepositoryTest {
+
+    private final ProductRepository delegate = mock(ProductRepository.class);
+
+    @Test
+    public void mustLoadTheCatalogOnceAndServeReadsFromMemory() {
+        ActiveProductCatalog catalog = new ActiveProductCatalog(10);
+        CachingProductRepository repository = new CachingProductRepository(delegate, catalog, new VersionedProductCache(10));
+        when(delegate.getAllActive()).thenReturn(new HashSet<>(Arrays.asList(
+                new ProductDao(1, "Test", 23f, 1, true),
+                new ProductDao(2, "Test", 25f, 3, true))));
+
+        Assert.assertThat(repository.getAllActive(), hasSize(2));
+        Assert.assertEquals(repository.getActiveForId(2).getVersion(), 3);
+        Assert.assertEquals(repository.getActiveForId(1).getPrice(), 23f, 0);
+
+        verify(delegate, times(1)).getAllActive();
+        Assert.assertEquals(catalog.getMissCount(), 1);
+        Assert.assertEquals(catalog.getHitCount(), 2);
+    }
+
+    @Test(expected = EmptyResultDataAccessException.class)
+    public void mustTreatProductsMissingFromTheCatalogAsNotFound() {
+        CachingProductRepository repository = new CachingProductRepository(delegate, new ActiveProductCatalog(10), new VersionedProductCache(10));
+        when(delegate.getAllActive()).thenReturn(new HashSet<>());
+
+        repository.getActiveForId(999);
+    }
+
+    @Test
+    public void mustWriteThroughCreatesAndUpdates() {
+        CachingProductRepository repository = new CachingProductRepository(delegate, new ActiveProductCatalog(10), new VersionedProductCache(10));
+        when(delegate.getAllActive()).thenReturn(new HashSet<>(Arrays.asList(new ProductDao(1, "Test", 23f, 1, true))));
+        repository.getAllActive();
+
+        ProductCreateRequest createRequest = new ProductCreateRequest("New", 5f);
+        when(delegate.save(createRequest)).thenReturn(new ProductDao(2, "New", 5f, 1, true));
+        repository.save(createRequest);
+
+        ProductUpdateRequest updateRequest = new ProductUpdateRequest(1, "Updated", 30f);
+        when(delegate.update(updateRequest)).thenReturn(new ProductDao(1, "Updated", 30f, 2, true));
+        repository.update(updateRequest);
+
+        Assert.assertThat(repository.getAllActive(), hasSize(2));
+        Assert.assertEquals(repository.getActiveForId(1).getName(), "Updated");
+        Assert.assertEquals(repository.getActiveForId(2).getName(), "New");
+        verify(delegate, times(1)).getAllActive();
+    }
+
+    @Test
+    public void retryReadsMustBypassTheCatalog() {
+        CachingProductRepository repository = new CachingProductRepository(delegate, new ActiveProductCatalog(10), new VersionedProductCache(10));
+        when(delegate.getAllActive()).thenReturn(new HashSet<>(Arrays.asList(new ProductDao(1, "Test", 23f, 1, true))));
+        Assert.assertEquals(repository.getActiveForIds(Collections.singleton(1L)).get(1L).getVersion(), 1);
+
+        /* The product moved on in the database before the catalog heard about it */
+        when(delegate.readActiveForIds(Collections.singleton(1L)))
+                .thenReturn(Collections.singletonMap(1L, new ProductDao(1, "Test", 24f, 2, true)));
+
+        Assert.assertEquals(repository.readActiveForIds(Collections.singleton(1L)).get(1L).getVersion(), 2);
+        verify(delegate, times(1)).getAllActive();
+    }
+
+    @Test
+    public void mustFallBackToTheDatabaseWhenCatalogIsTooBig() {
+        ActiveProductCatalog catalog = new ActiveProductCatalog(1);
+        CachingProductRepository repository = new CachingProductRepository(delegate, catalog, new VersionedProductCache(10));
+        when(delegate.getAllActive()).thenReturn(new HashSet<>(Arrays.asList(
+                new ProductDao(1, "Test", 23f, 1, true),
+                new ProductDao(2, "Test", 25f, 1, true))));
+        when(delegate.getActiveForId(2)).thenReturn(new ProductDao(2, "Test", 25f, 1, true));
+
+        Assert.assertThat(repository.getAllActive(), hasSize(2));
+        Assert.assertEquals(repository.getActiveForId(2).getPrice(), 25f, 0);
+        Assert.assertEquals(catalog.size(), 0);
+        verify(delegate, times(1)).getActiveForId(2);
+        /* The read that found the catalog too big loaded it, the next one went straight to the database */
+        Assert.assertEquals(catalog.getMissCount(), 1);
+        Assert.assertEquals(catalog.getBypassCount(), 1);
+        Assert.assertEquals(catalog.getHitCount(), 0);
+    }
+
+    @Test
+    public void mustCacheTheCatalogAgainOnceItFits() {
+        ActiveProductCatalog catalog = new ActiveProductCatalog(2);
+        CachingProductRepository repository = new CachingProductRepository(delegate, catalog, new VersionedProductCache(10));
+        when(delegate.getAllActive()).thenReturn(new HashSet<>(Arrays.asList(
+                new ProductDao(1, "Test", 23f, 1, true),
+                new ProductDao(2, "Test", 25f, 1, true),
+                new ProductDao(3, "Test", 27f, 1, true))));
+        when(delegate.getActiveForId(1)).thenReturn(new ProductDao(1, "Test", 23f, 1, true));
+        repository.getAllActive();
+        repository.getActiveForId(1);
+        Assert.assertEquals(catalog.size(), 0);
+
+        /* Without a write the size is not looked at again */
+        repository.getActiveForId(1);
+        verify(delegate, times(0)).countActive();
+
+        ProductUpdateRequest updateRequest = new ProductUpdateRequest(1, "Updated", 30f);
+        when(delegate.update(updateRequest)).thenReturn(new ProductDao(1, "Updated", 30f, 2, true));
+        repository.update(updateRequest);
+        when(delegate.countActive()).thenReturn(2);
+        when(delegate.getAllActive()).thenReturn(new HashSet<>(Arrays.asList(
+                new ProductDao(1, "Updated", 30f, 2, true),
+                new ProductDao(2, "Test", 25f, 1, true))));
+
+        Assert.assertEquals(repository.getActiveForId(1).getName(), "Updated");
+        Assert.assertEquals(catalog.size(), 2);
+        Assert.assertEquals(repository.getActiveForId(2).getPrice(), 25f, 0);
+        verify(delegate, times(1)).countActive();
+        verify(delegate, times(2)).getActiveForId(1);
+        Assert.assertEquals(catalog.getHitCount(), 1);
+    }
+
+    @Test
+    public void mustReadEachProductVersionFromTheDatabaseOnlyOnce() {
+        VersionedProductCache versionedProductCache = new VersionedProductCache(10);
+        CachingProductRepository repository = new CachingProductRepository(delegate, new ActiveProductCatalog(10), versionedProductCache);
+        when(delegate.getForVersion(1, 2)).thenReturn(new ProductDao(1, "Old", 23f, 2, false));
+        when(delegate.getForVersion(1, 3)).thenReturn(new ProductDao(1, "New", 30f, 3, true));
+
+        for (int i = 0; i < 3; i++) {
+            Assert.assertEquals(repository.getForVersion(1, 2).getName(), "Old");
+            Assert.assertEquals(repository.getForVersion(1, 3).getName(), "New");
+        }
+
+        verify(delegate, times(1)).getForVersion(1, 2);
+        verify(delegate, times(1)).getForVersion(1, 3);
+        Assert.assertEquals(versionedProductCache.getMissCount(), 2);
+        Assert.assertEquals(versionedProductCache.getHitCount(), 4);
+    }
+
+    @Test
+    public void versionedProductCacheMustEvictLeastRecentlyUsedEntries() {
+        /* 2 entries per segment. Versions 16 apart of the same product share a segment */
+        VersionedProductCache versionedProductCache = new VersionedProductCache(32);
+        versionedProductCache.put(new ProductDao(1, "Test", 1f, 1, false));
+        versionedProductCache.put(new ProductDao(1, "Test", 1f, 17, false));
+        Assert.assertNotNull(versionedProductCache.get(1, 1));
+
+        versionedProductCache.put(new ProductDao(1, "Test", 1f, 33, false));
+
+        Assert.assertNull(versionedProductCache.get(1, 17));
+        Assert.assertNotNull(versionedProductCache.get(1, 1));
+        Assert.assertNotNull(versionedProductCache.get(1, 33));
+        Assert.assertEquals(versionedProductCache.size(), 2);
+
+        for (int version = 1; version <= 100; version++) {
+            versionedProductCache.put(new ProductDao(1, "Test", 1f, version, false));
+        }
+        Assert.assertTrue(versionedProductCache.size() <= 32);
+    }
+
+    @Test
+    public void versionedProductCacheMustNotServeTheLatestFlag() {
+        VersionedProductCache versionedProductCache = new VersionedProductCache(32);
+        Assert.assertFalse(versionedProductCache.put(new ProductDao(1, "Test", 1f, 2, true)).isLatest());
+
+        /* Version 2 stops being the latest one with the next update, the cached copy cannot say so */
+        ProductDao cached = versionedProductCache.get(1, 2);
+        Assert.assertFalse(cached.isLatest());
+        Assert.assertEquals(cached.getName(), "Test");
+        Assert.assertEquals(cached.getPrice(), 1f, 0);
+    }
+}
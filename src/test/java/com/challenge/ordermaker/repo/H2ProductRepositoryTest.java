@@ -0,0 +1,78 @@
+package com.challenge.ordermaker.repo;
+
+import com.challenge.ordermaker.dao.ProductDao;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.Assert;
+import org.junit.Test;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.dao.CannotAcquireLockException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+public class H2ProductRepositoryTest {
+
+    @Test
+    public void productsMustBeLockedInProductIdOrder() throws Exception {
+        DriverManagerDataSource dataSource = new DriverManagerDataSource("jdbc:h2:mem:productLocks;DB_CLOSE_DELAY=-1;LOCK_TIMEOUT=5000");
+        SchemaInitializer.initialize(dataSource, new ClassPathResource(SchemaInitializer.SCRIPT));
+        JdbcTemplate jdbcTemplate = new JdbcTemplate(dataSource);
+        jdbcTemplate.update("INSERT INTO PRODUCT_HEADS (productId, name, price, version) VALUES (2, 'Name_2', 2.5, 1), (9, 'Name_9', 9.5, 1)");
+        H2ProductRepository repository = new H2ProductRepository();
+        ReflectionTestUtils.setField(repository, "jdbcTemplate", jdbcTemplate);
+        ReflectionTestUtils.setField(repository, "namedParameterJdbcTemplate", new NamedParameterJdbcTemplate(jdbcTemplate));
+        ReflectionTestUtils.setField(repository, "meterRegistry", new SimpleMeterRegistry());
+        TransactionTemplate transactionTemplate = new TransactionTemplate(new DataSourceTransactionManager(dataSource));
+
+        /* The first order holds product 9. The second one asks for 9 before 2, and must still lock 2 first and then wait */
+        CountDownLatch locked = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        Future<?> first = executor.submit(() -> transactionTemplate.execute(status -> {
+            repository.lockLatestProducts(Collections.singleton(9L));
+            locked.countDown();
+            await(release);
+            return null;
+        }));
+        locked.await();
+        Future<Map<Long, ProductDao>> second = executor.submit(() -> transactionTemplate.execute(status ->
+                repository.lockLatestProducts(new LinkedHashSet<>(Arrays.asList(9L, 2L)))));
+        Thread.sleep(300);
+
+        try {
+            transactionTemplate.execute(status -> {
+                jdbcTemplate.execute("SET LOCK_TIMEOUT 100");
+                return repository.lockLatestProducts(Collections.singleton(2L));
+            });
+            Assert.fail("product 2 must be locked by the second order while it waits for product 9");
+        } catch (CannotAcquireLockException expected) {
+            /* the second order holds product 2 */
+        } finally {
+            release.countDown();
+        }
+        first.get();
+        Assert.assertEquals(second.get().keySet(), new HashSet<>(Arrays.asList(2L, 9L)));
+        executor.shutdown();
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,191 @@
+package com.challenge.ordermaker.repo;
+
+import com.challenge.ordermaker.api.v1.request.OrderCreateRequest;
+import com.challenge.ordermaker.api.v1.request.SalesGrouping;
+import com.challenge.ordermaker.dao.OrderDao;
+import com.challenge.ordermaker.dao.OrderWithProductsDao;
+import com.challenge.ordermaker.dao.ProductDao;
+import com.challenge.ordermaker.dao.ProductSalesDao;
+import org.junit.Assert;
+import org.junit.Test;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+public class H2ProductSalesRepositoryTest {
+
+    private static final LocalDateTime TEN_O_CLOCK = LocalDateTime.of(2020, 1, 1, 10, 0);
+
+    private DriverManagerDataSource createDatabase(String name) {
+        DriverManagerDataSource dataSource = new DriverManagerDataSource("jdbc:h2:mem:" + name + ";DB_CLOSE_DELAY=-1");
+        SchemaInitializer.initialize(dataSource, new ClassPathResource(SchemaInitializer.SCRIPT));
+        return dataSource;
+    }
+
+    private static OrderWithProductsDao order(long orderId, LocalDateTime orderTime, ProductDao... products) {
+        return new OrderWithProductsDao(new OrderDao(orderId, "test@test.com", Timestamp.valueOf(orderTime)), new HashSet<>(Arrays.asList(products)));
+    }
+
+    private static ProductDao product(long productId, int version, float price) {
+        return new ProductDao(productId, "Name_" + productId, price, version, true);
+    }
+
+    @Test
+    public void reportsMustSumTheHoursOfTheRange() {
+        H2ProductSalesRepository repository = new H2ProductSalesRepository(new JdbcTemplate(createDatabase("sales")));
+
+        repository.addSales(Arrays.asList(
+                order(1, TEN_O_CLOCK.plusMinutes(5), product(1, 1, 1.5f), product(2, 1, 2.5f)),
+                order(2, TEN_O_CLOCK.plusMinutes(59), product(1, 1, 1.5f))));
+        repository.addSales(Collections.singletonList(order(3, TEN_O_CLOCK.plusHours(1), product(1, 2, 10f))));
+        repository.addSales(Collections.singletonList(order(4, TEN_O_CLOCK.plusHours(3), product(1, 2, 10f))));
+
+        /* 10:30 to 11:00 covers the whole 10 o'clock hour and the 11 o'clock one */
+        List<ProductSalesDao> byProduct = repository.retrieveBetween(TEN_O_CLOCK.plusMinutes(30), TEN_O_CLOCK.plusHours(1), null, SalesGrouping.PRODUCT);
+        Assert.assertEquals(byProduct.size(), 2);
+        Assert.assertEquals(byProduct.get(0).getProductId(), 1);
+        Assert.assertEquals(byProduct.get(0).getUnits(), 3);
+        Assert.assertEquals(byProduct.get(0).getRevenue(), 1.5 + 1.5 + 10, 0);
+        Assert.assertNull(byProduct.get(0).getVersion());
+        Assert.assertEquals(byProduct.get(1).getUnits(), 1);
+
+        List<ProductSalesDao> byVersion = repository.retrieveBetween(TEN_O_CLOCK, TEN_O_CLOCK.plusHours(5), 1L, SalesGrouping.VERSION);
+        Assert.assertEquals(byVersion.size(), 2);
+        Assert.assertEquals(byVersion.get(0).getVersion().intValue(), 1);
+        Assert.assertEquals(byVersion.get(0).getUnits(), 2);
+        Assert.assertEquals(byVersion.get(1).getVersion().intValue(), 2);
+        Assert.assertEquals(byVersion.get(1).getRevenue(), 20, 0);
+
+        List<ProductSalesDao> byHour = repository.retrieveBetween(TEN_O_CLOCK, TEN_O_CLOCK.plusHours(5), 1L, SalesGrouping.HOUR);
+        Assert.assertEquals(byHour.size(), 3);
+        Assert.assertEquals(byHour.get(0).getHourStart(), Timestamp.valueOf(TEN_O_CLOCK));
+        Assert.assertEquals(byHour.get(0).getUnits(), 2);
+        Assert.assertEquals(byHour.get(2).getHourStart(), Timestamp.valueOf(TEN_O_CLOCK.plusHours(3)));
+    }
+
+    @Test
+    public void concurrentFirstSalesOfAnHourMustAllBeCounted() throws Exception {
+        DriverManagerDataSource dataSource = createDatabase("concurrentSales");
+        H2ProductSalesRepository repository = new H2ProductSalesRepository(new JdbcTemplate(dataSource));
+        TransactionTemplate transactionTemplate = new TransactionTemplate(new DataSourceTransactionManager(dataSource));
+
+        /* The first transaction creates the row of the hour and commits only after the second one tried to create it too */
+        CountDownLatch created = new CountDownLatch(1);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        Future<?> first = executor.submit(() -> transactionTemplate.execute(status -> {
+            repository.addSales(Collections.singletonList(order(1, TEN_O_CLOCK, product(1, 1, 1f), product(2, 1, 2f))));
+            created.countDown();
+            sleep(300);
+            return null;
+        }));
+        created.await();
+        transactionTemplate.execute(status -> {
+            repository.addSales(Collections.singletonList(order(2, TEN_O_CLOCK.plusMinutes(1), product(1, 1, 1f), product(2, 1, 2f))));
+            return null;
+        });
+        first.get();
+        executor.shutdown();
+
+        List<ProductSalesDao> sales = repository.retrieveBetween(TEN_O_CLOCK, TEN_O_CLOCK, null, SalesGrouping.PRODUCT);
+        Assert.assertEquals(sales.get(0).getUnits(), 2);
+        Assert.assertEquals(sales.get(1).getRevenue(), 4, 0);
+    }
+
+    @Test
+    public void optimisticOrdersOfTheSameProductAndHourMustNotWaitForEachOther() throws Exception {
+        DriverManagerDataSource dataSource = createDatabase("optimisticSales");
+        JdbcTemplate jdbcTemplate = new JdbcTemplate(dataSource);
+        jdbcTemplate.update("INSERT INTO PRODUCTS (productId, name, price, version, latest) VALUES (1, 'Name_1', 1.5, 1, TRUE)");
+        jdbcTemplate.update("INSERT INTO PRODUCT_HEADS (productId, name, price, version) VALUES (1, 'Name_1', 1.5, 1)");
+        H2ProductSalesRepository salesRepository = new H2ProductSalesRepository(jdbcTemplate);
+        H2OrderRepository orderRepository = new H2OrderRepository();
+        ReflectionTestUtils.setField(orderRepository, "jdbcTemplate", jdbcTemplate);
+        ReflectionTestUtils.setField(orderRepository, "idAllocator", new IdAllocator(jdbcTemplate, 1));
+        ReflectionTestUtils.setField(orderRepository, "productSalesRepository", salesRepository);
+        TransactionTemplate transactionTemplate = new TransactionTemplate(new DataSourceTransactionManager(dataSource));
+        Map<Long, ProductDao> products = Collections.singletonMap(1L, product(1, 1, 1.5f));
+
+        /* The first order stays open after adding its sales. The second one, for the same product in the same hour,
+           must not wait for it */
+        CountDownLatch placed = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        Future<?> first = executor.submit(() -> transactionTemplate.execute(status -> {
+            orderRepository.saveOptimistic(new OrderCreateRequest("first@test.com", Collections.singleton(1L), TEN_O_CLOCK), products);
+            placed.countDown();
+            await(release);
+            return null;
+        }));
+        placed.await();
+        try {
+            transactionTemplate.execute(status -> {
+                jdbcTemplate.execute("SET LOCK_TIMEOUT 100");
+                return orderRepository.saveOptimistic(new OrderCreateRequest("second@test.com", Collections.singleton(1L),
+                        TEN_O_CLOCK.plusMinutes(1)), products);
+            });
+        } finally {
+            release.countDown();
+        }
+        first.get();
+        executor.shutdown();
+
+        List<ProductSalesDao> sales = salesRepository.retrieveBetween(TEN_O_CLOCK, TEN_O_CLOCK, 1L, SalesGrouping.PRODUCT);
+        Assert.assertEquals(sales.get(0).getUnits(), 2);
+        Assert.assertEquals(sales.get(0).getRevenue(), 3, 0);
+
+        /* One after the other, orders share a stripe again */
+        salesRepository.addSales(Collections.singletonList(order(3, TEN_O_CLOCK, product(1, 1, 1.5f))));
+        Assert.assertEquals(jdbcTemplate.queryForObject("SELECT COUNT(*) FROM PRODUCT_SALES_HOURLY", Integer.class).intValue(), 2);
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Test
+    public void schemaMustRollUpOrdersPlacedBeforeTheRollupExisted() {
+        DriverManagerDataSource dataSource = new DriverManagerDataSource("jdbc:h2:mem:backfill;DB_CLOSE_DELAY=-1");
+        JdbcTemplate jdbcTemplate = new JdbcTemplate(dataSource);
+        SchemaInitializer.initialize(dataSource, new ClassPathResource(SchemaInitializer.SCRIPT));
+        jdbcTemplate.update("DROP TABLE PRODUCT_SALES_HOURLY");
+        jdbcTemplate.update("DELETE FROM SCHEMA_VERSION");
+        jdbcTemplate.update("INSERT INTO PRODUCTS (productId, name, price, version, latest) VALUES (1, 'Name_1', 1.5, 1, TRUE)");
+        jdbcTemplate.update("INSERT INTO ORDERS (orderId, buyerEmailId, orderTime) VALUES (1, 'test@test.com', ?), (2, 'test@test.com', ?)",
+                Timestamp.valueOf(TEN_O_CLOCK.plusMinutes(10)), Timestamp.valueOf(TEN_O_CLOCK.plusMinutes(50)));
+        jdbcTemplate.update("INSERT INTO ORDERS_PRODUCTS (orderId, productId, version) VALUES (1, 1, 1), (2, 1, 1)");
+
+        SchemaInitializer.initialize(dataSource, new ClassPathResource(SchemaInitializer.SCRIPT));
+
+        List<ProductSalesDao> sales = new H2ProductSalesRepository(jdbcTemplate).retrieveBetween(TEN_O_CLOCK, TEN_O_CLOCK, null, SalesGrouping.HOUR);
+        Assert.assertEquals(sales.size(), 1);
+        Assert.assertEquals(sales.get(0).getUnits(), 2);
+        Assert.assertEquals(sales.get(0).getRevenue(), 3, 0);
+    }
+}
@@ -0,0 +1,81 @@
+package com.challenge.ordermaker.repo;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+public class IdAllocatorTest {
+
+    private JdbcTemplate createDatabase(String name) {
+        JdbcTemplate jdbcTemplate = new JdbcTemplate(new DriverManagerDataSource("jdbc:h2:mem:" + name + ";DB_CLOSE_DELAY=-1"));
+        jdbcTemplate.execute("CREATE SEQUENCE IF NOT EXISTS SQ_PRODUCT_ID");
+        jdbcTemplate.execute("CREATE SEQUENCE IF NOT EXISTS SQ_ORDER_ID");
+        return jdbcTemplate;
+    }
+
+    @Test
+    public void mustHandOutConsecutiveIdsWithOneSequenceCallPerBlock() {
+        JdbcTemplate jdbcTemplate = createDatabase("consecutive");
+        IdAllocator idAllocator = new IdAllocator(jdbcTemplate, 10);
+        idAllocator.applyBlockSize();
+
+        for (long expected = 1; expected <= 25; expected++) {
+            Assert.assertEquals(idAllocator.nextOrderId(), expected);
+        }
+        Assert.assertEquals(idAllocator.nextProductId(), 1);
+
+        /* Three blocks of orders were reserved */
+        Assert.assertEquals(jdbcTemplate.queryForObject("SELECT CURRENT_VALUE FROM INFORMATION_SCHEMA.SEQUENCES where SEQUENCE_NAME = 'SQ_ORDER_ID'", Long.class).longValue(), 21);
+    }
+
+    @Test
+    public void mustNeverReuseIdsAfterARestartWithAnotherBlockSize() {
+        JdbcTemplate jdbcTemplate = createDatabase("restart");
+        IdAllocator beforeRestart = new IdAllocator(jdbcTemplate, 10);
+        beforeRestart.applyBlockSize();
+        Set<Long> ids = new HashSet<>();
+        for (int i = 0; i < 15; i++) {
+            ids.add(beforeRestart.nextOrderId());
+        }
+
+        IdAllocator afterRestart = new IdAllocator(jdbcTemplate, 3);
+        afterRestart.applyBlockSize();
+        for (int i = 0; i < 15; i++) {
+            Assert.assertTrue(ids.add(afterRestart.nextOrderId()));
+        }
+    }
+
+    @Test
+    public void concurrentCallersMustGetUniqueIds() throws Exception {
+        IdAllocator idAllocator = new IdAllocator(createDatabase("concurrent"), 7);
+        idAllocator.applyBlockSize();
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+
+        List<Future<List<Long>>> futures = new ArrayList<>();
+        for (int thread = 0; thread < 8; thread++) {
+            futures.add(executor.submit(() -> {
+                List<Long> ids = new ArrayList<>();
+                for (int i = 0; i < 1000; i++) {
+                    ids.add(idAllocator.nextProductId());
+                }
+                return ids;
+            }));
+        }
+        Set<Long> allIds = new HashSet<>();
+        for (Future<List<Long>> future : futures) {
+            allIds.addAll(future.get());
+        }
+        executor.shutdown();
+
+        Assert.assertEquals(allIds.size(), 8000);
+    }
+}
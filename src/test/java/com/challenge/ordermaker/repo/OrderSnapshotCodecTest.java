@@ -0,0 +1,44 @@
+package com.challenge.ordermaker.repo;
+
+import com.challenge.ordermaker.dao.ProductDao;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+public class OrderSnapshotCodecTest {
+
+    @Test
+    public void linesMustSurviveARoundTrip() {
+        List<ProductDao> lines = OrderSnapshotCodec.sortedLines(Arrays.asList(
+                new ProductDao(40, "name with ünïcode", 200.5f, 5, true),
+                new ProductDao(20, "name1", 23.0f, 1, true)));
+
+        Set<ProductDao> decoded = OrderSnapshotCodec.decode(OrderSnapshotCodec.encode(lines));
+
+        Map<Long, ProductDao> byId = decoded.stream().collect(Collectors.toMap(ProductDao::getProductId, Function.identity()));
+        Assert.assertEquals(byId.size(), 2);
+        Assert.assertEquals(byId.get(20L).getName(), "name1");
+        Assert.assertEquals(byId.get(20L).getPrice(), 23.0f, 0);
+        Assert.assertEquals(byId.get(20L).getVersion(), 1);
+        Assert.assertEquals(byId.get(40L).getName(), "name with ünïcode");
+        Assert.assertEquals(byId.get(40L).getPrice(), 200.5f, 0);
+        Assert.assertEquals(byId.get(40L).getVersion(), 5);
+    }
+
+    @Test
+    public void orderCostMustMatchTheSumOfTheLines() {
+        List<ProductDao> lines = OrderSnapshotCodec.sortedLines(Arrays.asList(
+                new ProductDao(3, "c", 0.3f, 1, true),
+                new ProductDao(1, "a", 0.1f, 1, true),
+                new ProductDao(2, "b", 0.2f, 1, true)));
+
+        Assert.assertEquals(lines.get(0).getProductId(), 1);
+        Assert.assertEquals(OrderSnapshotCodec.orderCost(lines), lines.stream().map(ProductDao::getPrice).reduce(0f, Float::sum), 0);
+    }
+}
@@ -0,0 +1,47 @@
+package com.challenge.ordermaker.repo;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+
+import java.nio.charset.StandardCharsets;
+
+public class SchemaInitializerTest {
+
+    @Test
+    public void mustRunTheScriptOnlyOncePerChecksum() {
+        DriverManagerDataSource dataSource = new DriverManagerDataSource("jdbc:h2:mem:schema;DB_CLOSE_DELAY=-1");
+        JdbcTemplate jdbcTemplate = new JdbcTemplate(dataSource);
+
+        Assert.assertTrue(SchemaInitializer.initialize(dataSource, new ClassPathResource(SchemaInitializer.SCRIPT)));
+        Assert.assertEquals(jdbcTemplate.queryForObject("SELECT COUNT(*) FROM ORDERS", Integer.class).intValue(), 0);
+        Assert.assertFalse(SchemaInitializer.initialize(dataSource, new ClassPathResource(SchemaInitializer.SCRIPT)));
+
+        /* A changed script runs again, on top of the existing schema */
+        ByteArrayResource changed = new ByteArrayResource("CREATE TABLE IF NOT EXISTS EXTRA (id BIGINT);".getBytes(StandardCharsets.UTF_8));
+        Assert.assertTrue(SchemaInitializer.initialize(dataSource, changed));
+        Assert.assertFalse(SchemaInitializer.initialize(dataSource, changed));
+        Assert.assertEquals(jdbcTemplate.queryForObject("SELECT COUNT(*) FROM SCHEMA_VERSION", Integer.class).intValue(), 2);
+    }
+
+    @Test
+    public void ordersWithoutASnapshotMustGetOneWhenTheScriptRuns() {
+        DriverManagerDataSource dataSource = new DriverManagerDataSource("jdbc:h2:mem:snapshotBackfill;DB_CLOSE_DELAY=-1");
+        JdbcTemplate jdbcTemplate = new JdbcTemplate(dataSource);
+        SchemaInitializer.initialize(dataSource, new ClassPathResource(SchemaInitializer.SCRIPT));
+
+        /* An order placed before snapshots were written */
+        jdbcTemplate.update("INSERT INTO PRODUCTS (productId, name, price, version, latest) VALUES (1, 'Name_1', 2.5, 1, TRUE), (2, 'Name_2', 4, 1, TRUE)");
+        jdbcTemplate.update("INSERT INTO ORDERS (orderId, buyerEmailId, orderTime) VALUES (7, 'test@mail.com', CURRENT_TIMESTAMP())");
+        jdbcTemplate.update("INSERT INTO ORDERS_PRODUCTS (orderId, productId, version) VALUES (7, 1, 1), (7, 2, 1)");
+        jdbcTemplate.update("DELETE FROM SCHEMA_VERSION");
+
+        Assert.assertTrue(SchemaInitializer.initialize(dataSource, new ClassPathResource(SchemaInitializer.SCRIPT)));
+        Assert.assertEquals(jdbcTemplate.queryForObject("SELECT orderCost FROM ORDER_SNAPSHOTS where orderId = 7", Float.class), 6.5f, 0);
+        byte[] productLines = jdbcTemplate.queryForObject("SELECT productLines FROM ORDER_SNAPSHOTS where orderId = 7", byte[].class);
+        Assert.assertEquals(OrderSnapshotCodec.decode(productLines).size(), 2);
+    }
+}
@@ -0,0 +1,31 @@
+package com.challenge.ordermaker.service;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class CatalogRevisionTest {
+
+    private final CatalogRevision catalogRevision = new CatalogRevision();
+
+    @Test
+    public void quietReadMustBeTaggedWithTheCurrentRevision() {
+        String before = catalogRevision.current();
+        CatalogRevision.Read<String> read = catalogRevision.read(() -> "catalog");
+
+        Assert.assertEquals(read.getValue(), "catalog");
+        Assert.assertEquals(read.getRevision(), before);
+
+        catalogRevision.write(() -> null);
+        Assert.assertNotEquals(catalogRevision.current(), before);
+        Assert.assertTrue(catalogRevision.current().startsWith(catalogRevision.getBootId() + "-"));
+    }
+
+    @Test
+    public void readOverlappingAWriteMustNotBeTagged() {
+        CatalogRevision.Read<String> readDuringWrite = catalogRevision.write(() -> catalogRevision.read(() -> "catalog"));
+        Assert.assertNull(readDuringWrite.getRevision());
+
+        CatalogRevision.Read<String> readAroundWrite = catalogRevision.read(() -> catalogRevision.write(() -> "catalog"));
+        Assert.assertNull(readAroundWrite.getRevision());
+    }
+}
@@ -0,0 +1,69 @@
+package com.challenge.ordermaker.service;
+
+import com.challenge.ordermaker.api.v1.request.OrderCreateRequest;
+import com.challenge.ordermaker.dao.OrderDao;
+import com.challenge.ordermaker.dao.OrderWithProductsDao;
+import com.challenge.ordermaker.dao.ProductDao;
+import com.challenge.ordermaker.repo.OrderRepository;
+import org.junit.Assert;
+import org.junit.Test;
+import org.springframework.dao.OptimisticLockingFailureException;
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class OptimisticOrderWriterTest {
+
+    private final OrderRepository orderRepository = mock(OrderRepository.class);
+
+    private final OrderCreateRequest request = new OrderCreateRequest("test@mail.com", new HashSet<>(Collections.singletonList(1L)), LocalDateTime.now());
+
+    @Test
+    public void conflictingPlacementMustBeRetried() {
+        OrderWithProductsDao placed = new OrderWithProductsDao(new OrderDao(1, "test@mail.com", Timestamp.valueOf(request.getOrderTime())), new HashSet<>());
+        Map<Long, ProductDao> resolved = Collections.singletonMap(1L, new ProductDao(1, "name", 1f, 1, true));
+        when(orderRepository.saveOptimistic(request, resolved)).thenThrow(new OptimisticLockingFailureException("conflict"));
+        when(orderRepository.saveOptimistic(request, null))
+                .thenThrow(new OptimisticLockingFailureException("conflict"))
+                .thenReturn(placed);
+
+        OptimisticOrderWriter writer = new OptimisticOrderWriter(orderRepository, true, 3, 1);
+
+        Assert.assertSame(writer.save(request, resolved), placed);
+        verify(orderRepository, times(1)).saveOptimistic(request, resolved);
+        verify(orderRepository, times(2)).saveOptimistic(request, null);
+    }
+
+    @Test
+    public void placementMustGiveUpAfterMaxAttempts() {
+        when(orderRepository.saveOptimistic(request, null)).thenThrow(new OptimisticLockingFailureException("conflict"));
+
+        OptimisticOrderWriter writer = new OptimisticOrderWriter(orderRepository, true, 2, 0);
+
+        try {
+            writer.save(request, null);
+            Assert.fail();
+        } catch (OptimisticLockingFailureException ex) {
+            verify(orderRepository, times(2)).saveOptimistic(request, null);
+        }
+    }
+
+    @Test
+    public void backoffMustStayWithinADoublingBound() {
+        for (int i = 0; i < 1000; i++) {
+            Assert.assertTrue(OptimisticOrderWriter.backoffMillis(2, 1) <= 2);
+            Assert.assertTrue(OptimisticOrderWriter.backoffMillis(2, 3) <= 8);
+            Assert.assertTrue(OptimisticOrderWriter.backoffMillis(2, 40) <= 2048);
+            Assert.assertTrue(OptimisticOrderWriter.backoffMillis(2, 3) >= 0);
+        }
+        Assert.assertEquals(OptimisticOrderWriter.backoffMillis(0, 3), 0);
+    }
+}
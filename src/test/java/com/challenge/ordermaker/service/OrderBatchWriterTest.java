@@ -0,0 +1,186 @@
+package com.challenge.ordermaker.service;
+
+import com.challenge.ordermaker.api.v1.request.OrderCreateRequest;
+import com.challenge.ordermaker.dao.OrderDao;
+import com.challenge.ordermaker.dao.OrderWithProductsDao;
+import com.challenge.ordermaker.error.ResourceNotFoundException;
+import com.challenge.ordermaker.repo.OrderRepository;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class OrderBatchWriterTest {
+
+    private final OrderRepository orderRepository = mock(OrderRepository.class);
+
+    private final AtomicLong ids = new AtomicLong();
+
+    @Test
+    public void bulkPlacementMustBeWrittenInChunks() {
+        when(orderRepository.saveAll(anyList())).thenAnswer(invocation -> saved(invocation.getArguments()[0]));
+        OrderBatchWriter writer = new OrderBatchWriter(orderRepository, 0, 100, 2);
+
+        List<CompletableFuture<OrderWithProductsDao>> saved = writer.saveAll(Arrays.asList(request("a"), request("b"), request("c"), request("d"), request("e")));
+
+        Assert.assertEquals(saved.size(), 5);
+        Assert.assertEquals(saved.get(4).join().getOrder().getBuyerEmailId(), "e");
+        verify(orderRepository, times(3)).saveAll(anyList());
+    }
+
+    @Test
+    public void aFailingChunkMustOnlyFailItsOwnOrders() {
+        when(orderRepository.saveAll(anyList())).thenAnswer(invocation -> {
+            List<?> requests = (List<?>) invocation.getArguments()[0];
+            if (requests.stream().anyMatch(request -> ((OrderCreateRequest) request).getBuyerEmailId().equals("bad"))) {
+                throw new ResourceNotFoundException("productId not found");
+            }
+            return saved(requests);
+        });
+        OrderBatchWriter writer = new OrderBatchWriter(orderRepository, 0, 100, 2);
+
+        List<CompletableFuture<OrderWithProductsDao>> saved = writer.saveAll(Arrays.asList(request("a"), request("b"), request("c"), request("bad"), request("e")));
+
+        Assert.assertEquals(saved.size(), 5);
+        Assert.assertEquals(saved.get(1).join().getOrder().getBuyerEmailId(), "b");
+        /* The failed chunk is written again one order at a time, only the bad order fails */
+        Assert.assertEquals(saved.get(2).join().getOrder().getBuyerEmailId(), "c");
+        Assert.assertTrue(saved.get(3).isCompletedExceptionally());
+        /* The chunk after the failed one is still written */
+        Assert.assertEquals(saved.get(4).join().getOrder().getBuyerEmailId(), "e");
+        verify(orderRepository, times(5)).saveAll(anyList());
+    }
+
+    @Test(timeout = 10000)
+    public void aLoneOrderMustNotWaitForTheWindow() {
+        when(orderRepository.saveAll(anyList())).thenAnswer(invocation -> saved(invocation.getArguments()[0]));
+        OrderBatchWriter writer = new OrderBatchWriter(orderRepository, 60000, 4, 500);
+
+        Assert.assertEquals(writer.saveInGroup(request("a")).getOrder().getBuyerEmailId(), "a");
+    }
+
+    @Test(timeout = 10000)
+    public void stoppingMustWaitForTheGroupBeingWritten() throws Exception {
+        CountDownLatch writing = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicBoolean written = new AtomicBoolean();
+        when(orderRepository.saveAll(anyList())).thenAnswer(invocation -> {
+            writing.countDown();
+            release.await();
+            written.set(true);
+            return saved(invocation.getArguments()[0]);
+        });
+        OrderBatchWriter writer = new OrderBatchWriter(orderRepository, 60000, 4, 500);
+        writer.start();
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        CompletableFuture<OrderWithProductsDao> order = CompletableFuture.supplyAsync(() -> writer.saveInGroup(request("a")), executor);
+        writing.await();
+
+        CompletableFuture<Void> stopped = CompletableFuture.runAsync(writer::stop, executor);
+        Thread.sleep(200);
+        Assert.assertFalse(stopped.isDone());
+
+        release.countDown();
+        stopped.join();
+        /* The caller of saveInGroup may still be on its way out, the write itself is done */
+        Assert.assertTrue(written.get());
+        Assert.assertEquals(order.join().getOrder().getBuyerEmailId(), "a");
+        Assert.assertFalse(writer.isRunning());
+        executor.shutdown();
+    }
+
+    @Test
+    public void ordersArrivingDuringAWriteMustBeCommittedTogether() throws Exception {
+        CountDownLatch firstWriteStarted = new CountDownLatch(1);
+        CountDownLatch finishFirstWrite = new CountDownLatch(1);
+        List<Integer> groupSizes = Collections.synchronizedList(new ArrayList<>());
+        when(orderRepository.saveAll(anyList())).thenAnswer(invocation -> {
+            List<?> requests = (List<?>) invocation.getArguments()[0];
+            groupSizes.add(requests.size());
+            if (((OrderCreateRequest) requests.get(0)).getBuyerEmailId().equals("first")) {
+                firstWriteStarted.countDown();
+                finishFirstWrite.await();
+            }
+            return saved(requests);
+        });
+        OrderBatchWriter writer = new OrderBatchWriter(orderRepository, 60000, 4, 500);
+        ExecutorService executor = Executors.newFixedThreadPool(5);
+
+        /* Nothing else is going on, the first order is written right away */
+        CompletableFuture<OrderWithProductsDao> first = CompletableFuture.supplyAsync(() -> writer.saveInGroup(request("first")), executor);
+        firstWriteStarted.await();
+
+        /* While it is written, the next orders wait for each other until the group is full */
+        List<CompletableFuture<OrderWithProductsDao>> futures = new ArrayList<>();
+        for (String buyer : Arrays.asList("a", "b", "c", "d")) {
+            futures.add(CompletableFuture.supplyAsync(() -> writer.saveInGroup(request(buyer)), executor));
+        }
+        for (CompletableFuture<OrderWithProductsDao> future : futures) {
+            Assert.assertNotNull(future.get().getOrder());
+        }
+        finishFirstWrite.countDown();
+        Assert.assertNotNull(first.get().getOrder());
+        executor.shutdown();
+
+        Assert.assertEquals(groupSizes, Arrays.asList(1, 4));
+    }
+
+    @Test
+    public void aFailingOrderMustNotFailTheRestOfItsGroup() {
+        when(orderRepository.saveAll(anyList())).thenAnswer(invocation -> {
+            List<?> requests = (List<?>) invocation.getArguments()[0];
+            if (requests.stream().anyMatch(request -> ((OrderCreateRequest) request).getBuyerEmailId().equals("bad"))) {
+                throw new ResourceNotFoundException("productId not found");
+            }
+            return saved(requests);
+        });
+        OrderBatchWriter writer = new OrderBatchWriter(orderRepository, 60000, 2, 500);
+
+        CompletableFuture<OrderWithProductsDao> goodResult = CompletableFuture.supplyAsync(() -> writer.saveInGroup(request("good")));
+        CompletableFuture<OrderWithProductsDao> badResult = CompletableFuture.supplyAsync(() -> writer.saveInGroup(request("bad")));
+
+        Assert.assertEquals(goodResult.join().getOrder().getBuyerEmailId(), "good");
+        try {
+            badResult.join();
+            Assert.fail();
+        } catch (CompletionException ex) {
+            Assert.assertTrue(ex.getCause() instanceof ResourceNotFoundException);
+        }
+        /* The group write, then both orders one by one */
+        verify(orderRepository, times(3)).saveAll(anyList());
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<OrderWithProductsDao> saved(Object requests) {
+        List<OrderWithProductsDao> results = new ArrayList<>();
+        for (OrderCreateRequest request : (List<OrderCreateRequest>) requests) {
+            results.add(new OrderWithProductsDao(
+                    new OrderDao(ids.incrementAndGet(), request.getBuyerEmailId(), Timestamp.valueOf(request.getOrderTime())),
+                    new HashSet<>()));
+        }
+        return results;
+    }
+
+    private OrderCreateRequest request(String buyer) {
+        return new OrderCreateRequest(buyer, new HashSet<>(Collections.singletonList(1L)), LocalDateTime.now());
+    }
+}
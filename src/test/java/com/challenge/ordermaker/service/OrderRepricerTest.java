@@ -0,0 +1,109 @@
+package com.challenge.ordermaker.service;
+
+import com.challenge.ordermaker.api.v1.response.OrderPriceDrift;
+import com.challenge.ordermaker.api.v1.response.RepricingProgress;
+import com.challenge.ordermaker.dao.OrderPriceDriftDao;
+import com.challenge.ordermaker.repo.OrderRepository;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.hamcrest.Matchers.contains;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class OrderRepricerTest {
+
+    private final OrderRepository orderRepository = mock(OrderRepository.class);
+
+    private final OrderRepricer repricer = new OrderRepricer(orderRepository, 60, 2);
+
+    private final LocalDateTime start = LocalDateTime.of(2019, 1, 1, 0, 0);
+
+    @After
+    public void shutdown() {
+        repricer.shutdown();
+    }
+
+    @Test
+    public void rangeMustBeRepricedInHalfOpenChunksAndStreamedInTimeOrder() {
+        LocalDateTime end = start.plusMinutes(150);
+        when(orderRepository.retrievePriceDriftBetween(start, start.plusMinutes(60)))
+                .thenReturn(Collections.singletonList(drift(1, start.plusMinutes(10), 10f, 12f)));
+        when(orderRepository.retrievePriceDriftBetween(start.plusMinutes(60), start.plusMinutes(120)))
+                .thenReturn(Collections.singletonList(drift(2, start.plusMinutes(70), 5f, 5f)));
+        when(orderRepository.retrievePriceDriftBetween(start.plusMinutes(120), end.plusNanos(1)))
+                .thenReturn(Collections.singletonList(drift(3, end, 8f, 6f)));
+
+        String jobId = repricer.createJob(start, end);
+        List<OrderPriceDrift> results = new ArrayList<>();
+        repricer.reprice(jobId, results::add);
+
+        assertThat(results.stream().map(OrderPriceDrift::getOrderId).collect(Collectors.toList()), contains(1L, 2L, 3L));
+        Assert.assertEquals(results.get(0).getDifference(), 2f, 0);
+        Assert.assertEquals(results.get(1).getDifference(), 0f, 0);
+        Assert.assertEquals(results.get(2).getDifference(), -2f, 0);
+        verify(orderRepository, times(3)).retrievePriceDriftBetween(any(LocalDateTime.class), any(LocalDateTime.class));
+
+        RepricingProgress progress = repricer.getProgress(jobId).get();
+        Assert.assertEquals(progress.getChunksTotal(), 3);
+        Assert.assertEquals(progress.getChunksDone(), 3);
+        Assert.assertEquals(progress.getOrdersRepriced(), 3);
+        Assert.assertEquals(progress.getState(), RepricingProgress.State.DONE);
+    }
+
+    @Test
+    public void failingChunkMustFailTheJob() {
+        when(orderRepository.retrievePriceDriftBetween(any(LocalDateTime.class), any(LocalDateTime.class)))
+                .thenThrow(new IllegalStateException("database gone"));
+
+        String jobId = repricer.createJob(start, start.plusMinutes(30));
+        try {
+            repricer.reprice(jobId, drift -> {
+            });
+            Assert.fail();
+        } catch (IllegalStateException ex) {
+            Assert.assertEquals(ex.getMessage(), "database gone");
+        }
+        Assert.assertEquals(repricer.getProgress(jobId).get().getState(), RepricingProgress.State.FAILED);
+        Assert.assertFalse(repricer.getProgress("unknown").isPresent());
+    }
+
+    @Test
+    public void chunkSizeMustBePositive() {
+        for (long chunkMinutes : new long[]{0, -60}) {
+            try {
+                new OrderRepricer(orderRepository, chunkMinutes, 2);
+                Assert.fail("chunk-minutes " + chunkMinutes + " must be rejected");
+            } catch (IllegalArgumentException expected) {
+                /* a chunk that does not move forward would never end the range */
+            }
+        }
+    }
+
+    @Test
+    public void jobMustCountItsChunksWithoutCreatingThem() {
+        /* The range ends exactly on a chunk boundary, the end itself is included and needs a chunk of its own */
+        Assert.assertEquals(repricer.getProgress(repricer.createJob(start, start.plusMinutes(120))).get().getChunksTotal(), 3);
+        Assert.assertEquals(repricer.getProgress(repricer.createJob(start, start)).get().getChunksTotal(), 1);
+        Assert.assertEquals(repricer.getProgress(repricer.createJob(start, start.minusMinutes(1))).get().getChunksTotal(), 0);
+        Assert.assertEquals(repricer.getProgress(repricer.createJob(start, start.plusYears(1000))).get().getChunksTotal(),
+                Duration.between(start, start.plusYears(1000)).toHours() + 1);
+    }
+
+    private OrderPriceDriftDao drift(long orderId, LocalDateTime orderTime, float originalCost, float currentCost) {
+        return new OrderPriceDriftDao(orderId, Timestamp.valueOf(orderTime), originalCost, currentCost);
+    }
+}
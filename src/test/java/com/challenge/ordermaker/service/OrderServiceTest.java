@@ -1,26 +1,51 @@
 package com.challenge.ordermaker.service;
 
 import com.challenge.ordermaker.api.v1.request.OrderCreateRequest;
+import com.challenge.ordermaker.api.v1.request.OrderView;
 import com.challenge.ordermaker.api.v1.response.Order;
+import com.challenge.ordermaker.api.v1.response.OrderIdPage;
+import com.challenge.ordermaker.api.v1.response.OrderPage;
+import com.challenge.ordermaker.api.v1.response.OrderPlacementResult;
 import com.challenge.ordermaker.api.v1.response.Product;
 import com.challenge.ordermaker.dao.OrderDao;
 import com.challenge.ordermaker.dao.OrderProductDao;
+import com.challenge.ordermaker.dao.OrderSnapshotDao;
+import com.challenge.ordermaker.dao.OrderSummaryDao;
+import com.challenge.ordermaker.dao.OrderWithProductsDao;
+import com.challenge.ordermaker.dao.ProductDao;
+import com.challenge.ordermaker.error.BadRequestException;
+import com.challenge.ordermaker.error.UnknownProductsException;
 import com.challenge.ordermaker.repo.OrderProductRepository;
 import com.challenge.ordermaker.repo.OrderRepository;
 import org.junit.Assert;
 import org.junit.Test;
+import org.springframework.dao.CannotAcquireLockException;
+import org.springframework.dao.DataIntegrityViolationException;
 
+import java.sql.SQLException;
 import java.sql.Timestamp;
 import java.time.LocalDateTime;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
+import java.util.TreeSet;
+import java.util.stream.Collectors;
 
+import static org.hamcrest.Matchers.contains;
 import static org.hamcrest.Matchers.containsInAnyOrder;
 import static org.hamcrest.Matchers.not;
 import static org.junit.Assert.assertThat;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyLong;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 public class OrderServiceTest {
@@ -28,7 +53,9 @@ public class OrderServiceTest {
     private final OrderRepository orderRepository = mock(OrderRepository.class);
     private final OrderProductRepository orderProductRepository = mock(OrderProductRepository.class);
     private final ProductService productService = mock(ProductService.class);
-    private final OrderService orderService = new OrderService(productService, orderRepository, orderProductRepository);
+    private final OrderBatchWriter orderBatchWriter = new OrderBatchWriter(orderRepository, 0, 100, 2);
+    private final OptimisticOrderWriter optimisticOrderWriter = new OptimisticOrderWriter(orderRepository, false, 3, 0);
+    private final OrderService orderService = new OrderService(productService, orderRepository, orderProductRepository, orderBatchWriter, optimisticOrderWriter);
 
     @Test
     public void mustReturnAFullOrderByQueryingVariousTables() {
@@ -37,37 +64,22 @@ public class OrderServiceTest {
         LocalDateTime now = LocalDateTime.now();
         OrderCreateRequest request = new OrderCreateRequest("test@mail.com", productIds, now);
 
+        /* save hands back the lines it wrote, nothing is read again to build the response */
+        Set<ProductDao> lines = new HashSet<>(Arrays.asList(
+                new ProductDao(20, "name", 23.0f, 1, true),
+                new ProductDao(30, "name", 100.5f, 2, true),
+                new ProductDao(40, "name", 200.5f, 5, true)));
         when(orderRepository.save(request))
-                .thenReturn(new OrderDao(1, "Test@Test.com", Timestamp.valueOf(now)));
-
-
-        OrderProductDao orderProductDao1 = new OrderProductDao(1, 20, 1);
-        OrderProductDao orderProductDao2 = new OrderProductDao(2, 30, 2);
-        OrderProductDao orderProductDao3 = new OrderProductDao(3, 40, 5);
-        Set<OrderProductDao> orderProducts = new HashSet<>();
-        orderProducts.add(orderProductDao1);
-        orderProducts.add(orderProductDao2);
-        orderProducts.add(orderProductDao3);
-        when(orderProductRepository.getAllForOrderId(1)).thenReturn(orderProducts);
-
-
-        Product product1 = new Product(20, "name", 23.0f);
-        Product product2 = new Product(30, "name", 100.5f);
-        Product product3 = new Product(40, "name", 200.5f);
-        when(productService.getProductForVersion(20, 1)).thenReturn(Optional.of(product1));
-        when(productService.getProductForVersion(30, 2)).thenReturn(Optional.of(product2));
-        when(productService.getProductForVersion(40, 5)).thenReturn(Optional.of(product3));
-        Set<Product> products = new HashSet<>();
-        products.add(product1);
-        products.add(product2);
-        products.add(product3);
+                .thenReturn(new OrderWithProductsDao(new OrderDao(1, "Test@Test.com", Timestamp.valueOf(now)), lines));
 
         Order order = orderService.placeOrder(request);
         Assert.assertEquals(order.getOrderId(), 1);
         Assert.assertEquals(order.getBuyerEmailId(), "Test@Test.com");
         Assert.assertEquals(order.getOrderTime(), now);
         Assert.assertEquals(order.getOrderCost(), 324f, 0);
-        assertThat(order.getProducts(), containsInAnyOrder(product1, product2, product3));
+        assertThat(order.getProducts().stream().map(Product::getProductId).collect(Collectors.toList()), containsInAnyOrder(20L, 30L, 40L));
+        verify(orderProductRepository, never()).getAllForOrderId(anyLong());
+        verify(productService, never()).getProductForVersion(anyLong(), anyInt());
     }
 
 
@@ -198,4 +210,257 @@ public class OrderServiceTest {
         assertThat(order.getProducts(), containsInAnyOrder(product4, product5, product6));
         assertThat(order.getProducts(), not(containsInAnyOrder(product1, product2, product3)));
     }
-}
\ No newline at end of file
+
+    @Test
+    public void ordersInRangeMustBeBuiltFromTheJoinedResultWithoutFurtherLookups() {
+        LocalDateTime now = LocalDateTime.now();
+        LocalDateTime start = now.minusHours(1);
+
+        OrderWithProductsDao first = new OrderWithProductsDao(
+                new OrderDao(7, "Test@Test.com", Timestamp.valueOf(now)),
+                new HashSet<>(Arrays.asList(
+                        new ProductDao(40, "name3", 200.5f, 5, false),
+                        new ProductDao(20, "name1", 23.0f, 1, true))));
+        OrderWithProductsDao second = new OrderWithProductsDao(
+                new OrderDao(3, "Other@Test.com", Timestamp.valueOf(now)),
+                new HashSet<>(Collections.singletonList(new ProductDao(30, "name2", 100.5f, 2, true))));
+
+        when(orderRepository.retrieveAllWithProductsBetween(start, now)).thenReturn(Arrays.asList(first, second));
+
+        Set<Order> orders = orderService.getAllOrdersBetweenDates(start, now);
+
+        Order[] sorted = orders.toArray(new Order[0]);
+        Assert.assertEquals(sorted.length, 2);
+        Assert.assertEquals(sorted[0].getOrderId(), 3);
+        Assert.assertEquals(sorted[0].getOrderCost(), 100.5f, 0);
+        Assert.assertEquals(sorted[1].getOrderId(), 7);
+        Assert.assertEquals(sorted[1].getBuyerEmailId(), "Test@Test.com");
+        Assert.assertEquals(sorted[1].getOrderCost(), 223.5f, 0);
+        assertThat(sorted[1].getProducts().stream().map(Product::getProductId).collect(Collectors.toList()), contains(20L, 40L));
+
+        verify(orderProductRepository, never()).getAllForOrderId(7);
+        verify(orderProductRepository, never()).getAllForOrderId(3);
+    }
+
+    @Test
+    public void batchPlacementMustReportUnknownProductsPerOrderAndPlaceTheRest() {
+        LocalDateTime now = LocalDateTime.now();
+        OrderCreateRequest first = new OrderCreateRequest("first@mail.com", new HashSet<>(Arrays.asList(1L, 2L)), now);
+        OrderCreateRequest unknown = new OrderCreateRequest("second@mail.com", new HashSet<>(Arrays.asList(1L, 8L, 9L)), now);
+        OrderCreateRequest third = new OrderCreateRequest("third@mail.com", new HashSet<>(Collections.singletonList(2L)), now);
+
+        Map<Long, Integer> versions = new HashMap<>();
+        versions.put(1L, 3);
+        versions.put(2L, 1);
+        when(productService.getLatestVersionNumbers(new HashSet<>(Arrays.asList(1L, 2L, 8L, 9L)))).thenReturn(versions);
+
+        ProductDao product1 = new ProductDao(1, "name1", 10f, 3, true);
+        ProductDao product2 = new ProductDao(2, "name2", 5f, 1, true);
+        when(orderRepository.saveAll(Arrays.asList(first, third))).thenReturn(Arrays.asList(
+                new OrderWithProductsDao(new OrderDao(10, "first@mail.com", Timestamp.valueOf(now)), new HashSet<>(Arrays.asList(product1, product2))),
+                new OrderWithProductsDao(new OrderDao(11, "third@mail.com", Timestamp.valueOf(now)), new HashSet<>(Collections.singletonList(product2)))));
+
+        List<OrderPlacementResult> results = orderService.placeOrders(Arrays.asList(first, unknown, third));
+
+        Assert.assertEquals(results.size(), 3);
+        Assert.assertTrue(results.get(0).isPlaced());
+        Assert.assertEquals(results.get(0).getOrder().getOrderId(), 10);
+        Assert.assertEquals(results.get(0).getOrder().getOrderCost(), 15f, 0);
+        Assert.assertFalse(results.get(1).isPlaced());
+        assertThat(results.get(1).getUnknownProductIds(), contains(8L, 9L));
+        Assert.assertTrue(results.get(2).isPlaced());
+        Assert.assertEquals(results.get(2).getOrder().getOrderId(), 11);
+    }
+
+    @Test
+    public void batchPlacementMustReportWhyTheOrdersOfAFailedChunkFailed() {
+        LocalDateTime now = LocalDateTime.now();
+        OrderCreateRequest first = new OrderCreateRequest("first@mail.com", new HashSet<>(Collections.singletonList(1L)), now);
+        OrderCreateRequest second = new OrderCreateRequest("second@mail.com", new HashSet<>(Collections.singletonList(1L)), now);
+        OrderCreateRequest third = new OrderCreateRequest("third@mail.com", new HashSet<>(Collections.singletonList(1L)), now);
+        OrderCreateRequest fourth = new OrderCreateRequest("fourth@mail.com", new HashSet<>(Collections.singletonList(1L)), now);
+        when(productService.getLatestVersionNumbers(Collections.singleton(1L))).thenReturn(Collections.singletonMap(1L, 1));
+
+        ProductDao product1 = new ProductDao(1, "name1", 10f, 1, true);
+        when(orderRepository.saveAll(Arrays.asList(first, second))).thenReturn(Arrays.asList(
+                new OrderWithProductsDao(new OrderDao(10, "first@mail.com", Timestamp.valueOf(now)), Collections.singleton(product1)),
+                new OrderWithProductsDao(new OrderDao(11, "second@mail.com", Timestamp.valueOf(now)), Collections.singleton(product1))));
+        when(orderRepository.saveAll(Arrays.asList(third, fourth))).thenThrow(new CannotAcquireLockException("lock timeout"));
+        when(orderRepository.saveAll(Collections.singletonList(third))).thenThrow(new CannotAcquireLockException("lock timeout"));
+        when(orderRepository.saveAll(Collections.singletonList(fourth))).thenThrow(new DataIntegrityViolationException("could not insert",
+                new SQLException("Value too long for column \"BUYEREMAILID VARCHAR(500) NOT NULL\"; SQL statement:\ninsert into ORDERS [22001-197]")));
+
+        /* Chunks of 2, the first one is committed before the second one fails */
+        List<OrderPlacementResult> results = orderService.placeOrders(Arrays.asList(first, second, third, fourth));
+
+        Assert.assertTrue(results.get(0).isPlaced());
+        Assert.assertTrue(results.get(1).isPlaced());
+        Assert.assertFalse(results.get(2).isPlaced());
+        Assert.assertTrue(results.get(2).getUnknownProductIds().isEmpty());
+        /* A lock timeout may pass, the order can be sent again */
+        Assert.assertTrue(results.get(2).getError().contains("sent again"));
+        Assert.assertFalse(results.get(2).getError().contains("lock timeout"));
+        /* A value the column does not take fails on every resend, the order is told why */
+        Assert.assertFalse(results.get(3).isPlaced());
+        Assert.assertEquals(results.get(3).getError(), "Value too long for column \"BUYEREMAILID VARCHAR(500) NOT NULL\"");
+    }
+
+    @Test
+    public void orderWithSnapshotMustBeServedFromItWithoutFurtherLookups() {
+        long orderId = 3000L;
+        LocalDateTime now = LocalDateTime.now();
+
+        when(orderRepository.getSnapshot(orderId)).thenReturn(Optional.of(new OrderSnapshotDao(
+                new OrderDao(orderId, "Test@Test.com", Timestamp.valueOf(now)),
+                new HashSet<>(Arrays.asList(
+                        new ProductDao(40, "name3", 200.5f, 5, false),
+                        new ProductDao(20, "name1", 23.0f, 1, false))),
+                223.5f)));
+
+        Order order = orderService.getOderForId(orderId).get();
+        Assert.assertEquals(order.getOrderId(), orderId);
+        Assert.assertEquals(order.getBuyerEmailId(), "Test@Test.com");
+        Assert.assertEquals(order.getOrderTime(), now);
+        Assert.assertEquals(order.getOrderCost(), 223.5f, 0);
+        assertThat(order.getProducts().stream().map(Product::getProductId).collect(Collectors.toList()), contains(20L, 40L));
+
+        verify(orderRepository, never()).get(orderId);
+        verify(orderProductRepository, never()).getAllForOrderId(orderId);
+        verify(productService, never()).getProductForVersion(anyLong(), anyInt());
+    }
+
+    @Test
+    public void summaryPageMustNotReadAnyProduct() {
+        LocalDateTime now = LocalDateTime.now();
+        LocalDateTime start = now.minusHours(1);
+
+        when(orderRepository.retrieveSummariesBetween(start, now, null, 0, 3, true)).thenReturn(Arrays.asList(
+                new OrderSummaryDao(new OrderDao(7, "Test@Test.com", Timestamp.valueOf(start)), 223.5f, new HashSet<>(Arrays.asList(40L, 20L))),
+                new OrderSummaryDao(new OrderDao(3, "Other@Test.com", Timestamp.valueOf(now)), 100.5f, new HashSet<>(Collections.singletonList(30L))),
+                new OrderSummaryDao(new OrderDao(9, "Other@Test.com", Timestamp.valueOf(now)), 5f, new HashSet<>(Collections.singletonList(30L)))));
+
+        OrderPage page = orderService.getOrdersBetweenDates(start, now, null, 2, OrderView.IDS);
+
+        Assert.assertEquals(page.getOrders().size(), 2);
+        Assert.assertNotNull(page.getNextCursor());
+        Assert.assertEquals(page.getOrders().get(0).getOrderId(), 7);
+        Assert.assertEquals(page.getOrders().get(0).getOrderCost(), 223.5f, 0);
+        assertThat(page.getOrders().get(0).getProductIds(), contains(20L, 40L));
+        Assert.assertNull(page.getOrders().get(0).getProducts());
+
+        verify(orderRepository, never()).retrieveWithProductsBetween(start, now, null, 0, 3);
+        verify(productService, never()).getProductForVersion(anyLong(), anyInt());
+    }
+
+    @Test
+    public void buyerPageMustContinueBeforeTheOldestOrderOfThePreviousPage() {
+        LocalDateTime now = LocalDateTime.now().withNano(0);
+
+        when(orderRepository.retrieveSummariesForBuyer("test@test.com", null, 0, 3, false)).thenReturn(Arrays.asList(
+                new OrderSummaryDao(new OrderDao(9, "test@test.com", Timestamp.valueOf(now)), 5f, null),
+                new OrderSummaryDao(new OrderDao(8, "test@test.com", Timestamp.valueOf(now.minusHours(1))), 6f, null),
+                new OrderSummaryDao(new OrderDao(2, "test@test.com", Timestamp.valueOf(now.minusHours(2))), 7f, null)));
+        when(orderRepository.retrieveSummariesForBuyer("test@test.com", now.minusHours(1), 8, 3, false)).thenReturn(Collections.singletonList(
+                new OrderSummaryDao(new OrderDao(2, "test@test.com", Timestamp.valueOf(now.minusHours(2))), 7f, null)));
+
+        OrderPage first = orderService.getOrdersOfBuyer("test@test.com", null, 2, OrderView.SUMMARY);
+        Assert.assertEquals(first.getOrders().size(), 2);
+        Assert.assertEquals(first.getOrders().get(1).getOrderId(), 8);
+
+        OrderPage last = orderService.getOrdersOfBuyer("test@test.com", first.getNextCursor(), 2, OrderView.SUMMARY);
+        Assert.assertEquals(last.getOrders().size(), 1);
+        Assert.assertEquals(last.getOrders().get(0).getOrderId(), 2);
+        Assert.assertNull(last.getNextCursor());
+    }
+
+    @Test
+    public void productPageMustContinueAfterTheLastOrderIdOfThePreviousPage() {
+        when(orderProductRepository.retrieveOrderIdsForProduct(1, null, null, null, 0, Long.MAX_VALUE, 3)).thenReturn(Arrays.asList(2L, 5L, 9L));
+        when(orderProductRepository.retrieveOrderIdsForProduct(1, null, null, null, 5, Long.MAX_VALUE, 3)).thenReturn(Collections.singletonList(9L));
+
+        OrderIdPage first = orderService.getOrderIdsWithProduct(1, null, null, null, null, 2);
+        Assert.assertEquals(first.getOrderIds(), Arrays.asList(2L, 5L));
+        Assert.assertEquals(first.getNextCursor(), "5");
+
+        OrderIdPage last = orderService.getOrderIdsWithProduct(1, null, null, null, first.getNextCursor(), 2);
+        Assert.assertEquals(last.getOrderIds(), Collections.singletonList(9L));
+        Assert.assertNull(last.getNextCursor());
+
+        try {
+            orderService.getOrderIdsWithProduct(1, null, null, null, "not-an-id", 2);
+            Assert.fail();
+        } catch (BadRequestException ex) {
+            Assert.assertEquals(ex.getMessage(), "invalid cursor");
+        }
+    }
+
+    @Test
+    public void filteredProductPageMustStopAfterItsLinesAndContinueAfterTheLastOneRead() {
+        int lines = OrderService.PRODUCT_LINES_PER_PAGE;
+        when(orderProductRepository.findOrderIdOfLineForProduct(1, 0, lines)).thenReturn(40_000L);
+        when(orderProductRepository.retrieveOrderIdsForProduct(1, 2, null, null, 0, 40_000L, 3)).thenReturn(Collections.emptyList());
+        when(orderProductRepository.findOrderIdOfLineForProduct(1, 40_000L, lines)).thenReturn(null);
+        when(orderProductRepository.retrieveOrderIdsForProduct(1, 2, null, null, 40_000L, Long.MAX_VALUE, 3))
+                .thenReturn(Collections.singletonList(40_007L));
+
+        /* The lines ran out before any of them had version 2, the page is empty but not the last one */
+        OrderIdPage first = orderService.getOrderIdsWithProduct(1, 2, null, null, null, 2);
+        Assert.assertEquals(first.getOrderIds().size(), 0);
+        Assert.assertEquals(first.getNextCursor(), "40000");
+
+        OrderIdPage last = orderService.getOrderIdsWithProduct(1, 2, null, null, first.getNextCursor(), 2);
+        Assert.assertEquals(last.getOrderIds(), Collections.singletonList(40_007L));
+        Assert.assertNull(last.getNextCursor());
+    }
+
+    @Test
+    public void singlePlacementMustResolveAllProductsOnceAndReportUnknownOnes() {
+        LocalDateTime now = LocalDateTime.now();
+        OrderCreateRequest unknown = new OrderCreateRequest("test@mail.com", new HashSet<>(Arrays.asList(1L, 8L, 9L)), now);
+        OrderCreateRequest valid = new OrderCreateRequest("test@mail.com", new HashSet<>(Arrays.asList(1L, 2L)), now);
+
+        Map<Long, ProductDao> products = new HashMap<>();
+        products.put(1L, new ProductDao(1, "name1", 10f, 3, true));
+        products.put(2L, new ProductDao(2, "name2", 5f, 1, true));
+        when(productService.getActiveProductsForIds(unknown.getProductSet())).thenReturn(products);
+        when(productService.getActiveProductsForIds(valid.getProductSet())).thenReturn(products);
+        when(orderRepository.saveOptimistic(valid, products)).thenReturn(
+                new OrderWithProductsDao(new OrderDao(10, "test@mail.com", Timestamp.valueOf(now)), new HashSet<>(products.values())));
+
+        OrderService optimisticOrderService = new OrderService(productService, orderRepository, orderProductRepository, orderBatchWriter,
+                new OptimisticOrderWriter(orderRepository, true, 3, 0));
+
+        OrderPlacementResult rejected = optimisticOrderService.tryPlaceOrder(unknown);
+        Assert.assertFalse(rejected.isPlaced());
+        assertThat(rejected.getUnknownProductIds(), contains(8L, 9L));
+
+        OrderPlacementResult placed = optimisticOrderService.tryPlaceOrder(valid);
+        Assert.assertTrue(placed.isPlaced());
+        Assert.assertEquals(placed.getOrder().getOrderId(), 10);
+        Assert.assertEquals(placed.getOrder().getOrderCost(), 15f, 0);
+        verify(orderRepository, never()).saveOptimistic(unknown, null);
+        verify(orderRepository, never()).saveOptimistic(valid, null);
+    }
+
+    @Test
+    public void lockingPlacementMustReportTheUnknownProductsOfTheLockStatement() {
+        OrderCreateRequest unknown = new OrderCreateRequest("test@mail.com", new HashSet<>(Arrays.asList(1L, 8L, 9L)), LocalDateTime.now());
+        when(orderRepository.save(unknown)).thenThrow(new UnknownProductsException(new TreeSet<>(Arrays.asList(8L, 9L))));
+
+        OrderPlacementResult rejected = orderService.tryPlaceOrder(unknown);
+        Assert.assertFalse(rejected.isPlaced());
+        assertThat(rejected.getUnknownProductIds(), contains(8L, 9L));
+        verify(productService, never()).getActiveProductsForIds(unknown.getProductSet());
+    }
+
+    @Test
+    public void purgeMustStopAtTheLimitInBoundedBatches() {
+        LocalDateTime cutoff = LocalDateTime.now();
+        when(orderRepository.purgeOldestBefore(cutoff, 1000)).thenReturn(1000);
+        when(orderRepository.purgeOldestBefore(cutoff, 500)).thenReturn(500);
+
+        Assert.assertEquals(orderService.purgeOrdersBefore(cutoff, 2500), 2500);
+        verify(orderRepository, times(2)).purgeOldestBefore(cutoff, 1000);
+        verify(orderRepository).purgeOldestBefore(cutoff, 500);
+    }
+}
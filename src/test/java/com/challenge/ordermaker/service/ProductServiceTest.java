@@ -1,25 +1,37 @@
 package com.challenge.ordermaker.service;
 
 import com.challenge.ordermaker.api.v1.request.ProductCreateRequest;
+import com.challenge.ordermaker.api.v1.request.ProductUpdateRequest;
 import com.challenge.ordermaker.api.v1.response.Product;
+import com.challenge.ordermaker.api.v1.response.ProductBatchResult;
+import com.challenge.ordermaker.api.v1.response.ProductWriteResult;
 import com.challenge.ordermaker.dao.ProductDao;
 import com.challenge.ordermaker.repo.ProductRepository;
+import com.challenge.ordermaker.repo.ProductSalesRepository;
 import org.junit.Assert;
 import org.junit.Test;
+import org.springframework.dao.CannotAcquireLockException;
+import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.dao.EmptyResultDataAccessException;
 
+import java.sql.SQLException;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 
 import static org.hamcrest.collection.IsCollectionWithSize.hasSize;
+import static org.mockito.ArgumentMatchers.anyList;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 public class ProductServiceTest {
 
     private final ProductRepository productRepository = mock(ProductRepository.class);
-    private final ProductService productService = new ProductService(productRepository);
+    private final ProductService productService = new ProductService(productRepository, new CatalogRevision(), mock(ProductSalesRepository.class), 2);
 
     @Test
     public void mustCreateProduct() {
@@ -69,10 +81,10 @@ public class ProductServiceTest {
     }
 
     @Test
-    public void mustProvideLatestVersionNumber() {
-        long id = 999L;
-        when(productRepository.getLatestVersionNumber(id)).thenReturn(2);
-        Assert.assertEquals(productService.getLatestVersionNumber(id), 2);
+    public void mustProvideLatestVersionNumbers() {
+        Set<Long> ids = new HashSet<>(Arrays.asList(999L, 1000L));
+        when(productRepository.getLatestVersionNumbers(ids)).thenReturn(Collections.singletonMap(999L, 2));
+        Assert.assertEquals(productService.getLatestVersionNumbers(ids), Collections.singletonMap(999L, 2));
     }
 
     @Test
@@ -87,4 +99,63 @@ public class ProductServiceTest {
         Assert.assertEquals(product.getProductId(), 1);
         Assert.assertEquals(product.getPrice(), 23f, 0);
     }
-}
\ No newline at end of file
+
+    @Test
+    public void batchWriteMustReportUnknownProductsPerItem() {
+        List<ProductCreateRequest> creates = Collections.singletonList(new ProductCreateRequest("New", 5f));
+        when(productRepository.saveAll(creates)).thenReturn(Collections.singletonList(new ProductDao(7, "New", 5f, 1, true)));
+
+        List<ProductUpdateRequest> updates = Arrays.asList(new ProductUpdateRequest(1, "Test", 30f), new ProductUpdateRequest(999, "Test", 30f));
+        when(productRepository.updateAll(updates)).thenReturn(Arrays.asList(new ProductDao(1, "Test", 30f, 2, true), null));
+
+        ProductBatchResult result = productService.writeProducts(creates, updates);
+        Assert.assertEquals(result.getCreates().get(0).getProduct().getProductId(), 7);
+        Assert.assertEquals(result.getUpdates().get(0).getProduct().getPrice(), 30f, 0);
+        Assert.assertNull(result.getUpdates().get(0).getError());
+        Assert.assertNull(result.getUpdates().get(1).getProduct());
+        Assert.assertEquals(result.getUpdates().get(1).getError(), "productId not found");
+    }
+
+    @Test
+    public void batchWriteMustReportAFailedChunkOnItsOwnProducts() {
+        List<ProductUpdateRequest> updates = Arrays.asList(new ProductUpdateRequest(1, "Test", 30f), new ProductUpdateRequest(2, "Test", 30f),
+                new ProductUpdateRequest(3, "Test", 30f), new ProductUpdateRequest(4, "Test", 30f), new ProductUpdateRequest(5, "Test", 30f));
+        when(productRepository.updateAll(updates.subList(0, 2))).thenReturn(Arrays.asList(
+                new ProductDao(1, "Test", 30f, 2, true), new ProductDao(2, "Test", 30f, 2, true)));
+        when(productRepository.updateAll(updates.subList(2, 4))).thenThrow(new CannotAcquireLockException("lock timeout"));
+        when(productRepository.updateAll(Collections.singletonList(updates.get(2)))).thenReturn(Collections.singletonList(new ProductDao(3, "Test", 30f, 2, true)));
+        when(productRepository.updateAll(Collections.singletonList(updates.get(3)))).thenThrow(new CannotAcquireLockException("lock timeout"));
+        when(productRepository.updateAll(updates.subList(4, 5))).thenReturn(Collections.singletonList(new ProductDao(5, "Test", 30f, 2, true)));
+
+        List<ProductWriteResult> results = productService.writeProducts(null, updates).getUpdates();
+
+        Assert.assertEquals(results.size(), 5);
+        Assert.assertEquals(results.get(1).getProduct().getProductId(), 2);
+        /* Written again on its own once its chunk failed */
+        Assert.assertEquals(results.get(2).getProduct().getProductId(), 3);
+        Assert.assertNull(results.get(3).getProduct());
+        Assert.assertNotNull(results.get(3).getError());
+        Assert.assertFalse(results.get(3).getError().contains("lock timeout"));
+        /* The chunk after the failed one is still written */
+        Assert.assertEquals(results.get(4).getProduct().getProductId(), 5);
+        verify(productRepository, times(5)).updateAll(anyList());
+    }
+
+    @Test
+    public void aProductThatCannotBeWrittenMustFailAloneWithItsCause() {
+        List<ProductCreateRequest> creates = Arrays.asList(new ProductCreateRequest("Good", 1f), new ProductCreateRequest("Bad", 2f),
+                new ProductCreateRequest("Also good", 3f));
+        DataIntegrityViolationException tooLong = new DataIntegrityViolationException("could not insert",
+                new SQLException("Value too long for column \"NAME VARCHAR(500) NOT NULL\"; SQL statement:\ninsert into PRODUCTS [22001-197]"));
+        when(productRepository.saveAll(creates.subList(0, 2))).thenThrow(tooLong);
+        when(productRepository.saveAll(Collections.singletonList(creates.get(0)))).thenReturn(Collections.singletonList(new ProductDao(1, "Good", 1f, 1, true)));
+        when(productRepository.saveAll(Collections.singletonList(creates.get(1)))).thenThrow(tooLong);
+        when(productRepository.saveAll(creates.subList(2, 3))).thenReturn(Collections.singletonList(new ProductDao(2, "Also good", 3f, 1, true)));
+
+        List<ProductWriteResult> results = productService.writeProducts(creates, null).getCreates();
+
+        Assert.assertEquals(results.get(0).getProduct().getProductId(), 1);
+        Assert.assertEquals(results.get(1).getError(), "Value too long for column \"NAME VARCHAR(500) NOT NULL\"");
+        Assert.assertEquals(results.get(2).getProduct().getProductId(), 2);
+    }
+}